@@ -0,0 +1,599 @@
+package apps;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.LockSupport;
+
+import rmi.*;
+import common.*;
+import naming.*;
+import client.*;
+
+/** Load generator application.
+
+    <p>
+    The load generator puts a configurable mix of operations on a running
+    filesystem and reports, for each type of operation, the throughput and the
+    latency percentiles measured. The first argument is the hostname of the
+    naming server. It is followed by options of the form
+    <code>--name=value</code>:
+    <ul>
+    <li><code>threads</code>: number of client threads, 8 by default.</li>
+    <li><code>duration</code>: seconds of measurement, 10 by default.</li>
+    <li><code>warmup</code>: seconds of load before the measurement, whose
+        operations are not reported, 2 by default.</li>
+    <li><code>rate</code>: operations per second started in open-loop mode.
+        Without this option the load is closed-loop.</li>
+    <li><code>mix</code>: comma-separated list of
+        <code>operation=weight</code>, giving the operations to perform and
+        their relative frequency.</li>
+    <li><code>size</code>: bytes transferred by each read and write, 65536 by
+        default.</li>
+    <li><code>files</code>: number of files read and written, 16 by
+        default.</li>
+    <li><code>root</code>: directory of the filesystem in which the load
+        generator creates its files, <code>/bench</code> by default. It is
+        deleted at the end of the run if the naming server supports
+        deletion.</li>
+    </ul>
+
+    <p>
+    The operations are the <code>Service</code> calls
+    <code>isDirectory</code> and <code>list</code> on the root directory,
+    <code>getStorage</code> on one of the files, <code>create</code> of a new
+    file and <code>delete</code> of a file created earlier (a file is created
+    first if none is left, and measured with the deletion), and
+    <code>read</code> and <code>write</code> of one of the files through a
+    <code>DFSInputStream</code> or <code>DFSOutputStream</code> opened for the
+    operation.
+
+    <p>
+    In closed-loop mode each thread starts an operation as soon as its previous
+    one completes, so the load adapts to the speed of the filesystem. In
+    open-loop mode operations are scheduled at a fixed rate regardless of how
+    fast they complete, and the latency of an operation is measured from the
+    time it was scheduled to start rather than from the time a thread became
+    free to start it. When the filesystem falls behind, the time operations
+    spend waiting for a thread is therefore reported, rather than omitted.
+ */
+public class BenchApp extends Application
+{
+    /** Names of the operations, in the order of the report. */
+    private static final String[]   OPERATIONS =
+        {"isDirectory", "list", "getStorage", "create", "delete", "read",
+         "write"};
+    /** Operation mix used when none is given. */
+    private static final String     DEFAULT_MIX =
+        "isDirectory=20,list=20,getStorage=20,create=5,read=25,write=10";
+
+    /** Naming server stub. */
+    private Service                     service;
+    /** Directory holding the files of the run. */
+    private Path                        root;
+    /** Files read and written. */
+    private Path[]                      files;
+    /** Files created and not yet deleted. */
+    private final Queue<Path>           created =
+        new ConcurrentLinkedQueue<Path>();
+    /** Prefix of the files created, distinct for each run. */
+    private final String                file_prefix =
+        "file-" + Long.toString(System.currentTimeMillis(), 36) + "-";
+    /** Suffix of the next file created. */
+    private final AtomicLong            next_file = new AtomicLong();
+
+    /** Cumulative weights of the operations, indexed as
+        <code>OPERATIONS</code>. */
+    private int[]                       weights;
+    /** Latencies of the operations measured, indexed as
+        <code>OPERATIONS</code>. */
+    private LatencyHistogram[]          latencies;
+    /** Number of failed operations, indexed as <code>OPERATIONS</code>. */
+    private AtomicLongArray             errors;
+    /** First failure of each type of operation, reported at the end. */
+    private AtomicReferenceArray<Throwable> failures;
+
+    /** Bytes transferred by each read and write. */
+    private int                         size;
+    /** Time at which measurement starts, from <code>System.nanoTime</code>. */
+    private long                        measured;
+    /** Time at which the run ends, from <code>System.nanoTime</code>. */
+    private long                        end;
+
+    /** Load generator entry point. */
+    public static void main(String[] arguments)
+    {
+        new BenchApp().run(arguments);
+    }
+
+    /** Runs the load generator.
+
+        @param arguments Command line arguments.
+     */
+    @Override
+    void run(String[] arguments)
+    {
+        Map<String, String>         options;
+
+        try
+        {
+            options = options(arguments);
+        }
+        catch(IllegalArgumentException e)
+        {
+            System.err.println(e.getMessage());
+            usage();
+            System.exit(EXIT_FAILURE);
+            return;
+        }
+
+        try
+        {
+            int         threads = Integer.parseInt(option(options, "threads",
+                                                          "8"));
+            long        duration = Long.parseLong(option(options, "duration",
+                                                         "10"));
+            long        warmup = Long.parseLong(option(options, "warmup",
+                                                       "2"));
+            String      rate = options.get("rate");
+
+            size = Integer.parseInt(option(options, "size", "65536"));
+            files = new Path[Integer.parseInt(option(options, "files", "16"))];
+            root = new Path(option(options, "root", "/bench"));
+            weights = parseMix(option(options, "mix", DEFAULT_MIX));
+
+            if(threads < 1 || duration < 1 || warmup < 0 || size < 0 ||
+               files.length < 1 || (rate != null && Double.parseDouble(rate) <= 0))
+            {
+                throw new IllegalArgumentException("option values out of " +
+                                                   "range");
+            }
+
+            service = NamingStubs.service(arguments[0]);
+            prepare();
+
+            try
+            {
+                System.out.println((rate == null ? "closed-loop" :
+                                    "open-loop at " + rate + " operations/s") +
+                                   ", " + threads + " threads, " + warmup +
+                                   " s warmup, " + duration + " s measured");
+
+                if(rate == null)
+                    closedLoop(threads, warmup, duration);
+                else
+                    openLoop(threads, warmup, duration,
+                             Double.parseDouble(rate));
+
+                report(duration);
+            }
+            finally
+            {
+                cleanUp();
+            }
+        }
+        catch(IllegalArgumentException e)
+        {
+            System.err.println(e.getMessage());
+            usage();
+            System.exit(EXIT_FAILURE);
+        }
+        catch(Throwable t)
+        {
+            System.err.println("load generator failed: " + t);
+            System.exit(EXIT_FAILURE);
+        }
+
+        System.exit(EXIT_SUCCESS);
+    }
+
+    /** Parses the command line.
+
+        @param arguments Command line arguments.
+        @return Map from option names to values. The naming server hostname,
+                <code>arguments[0]</code>, is not included.
+        @throws IllegalArgumentException If the naming server hostname is
+                                         missing or an option is malformed or
+                                         unknown.
+     */
+    private static Map<String, String> options(String[] arguments)
+    {
+        if(arguments.length < 1 || arguments[0].startsWith("--"))
+            throw new IllegalArgumentException("naming server not given");
+
+        Set<String>                 known = new HashSet<String>(Arrays.asList(
+            "threads", "duration", "warmup", "rate", "mix", "size", "files",
+            "root"));
+        Map<String, String>         options = new HashMap<String, String>();
+
+        for(int index = 1; index < arguments.length; ++index)
+        {
+            String      argument = arguments[index];
+            int         equals = argument.indexOf('=');
+
+            if(!argument.startsWith("--") || equals < 0)
+            {
+                throw new IllegalArgumentException("malformed option " +
+                                                   argument);
+            }
+
+            String      name = argument.substring(2, equals);
+
+            if(!known.contains(name))
+                throw new IllegalArgumentException("unknown option " + name);
+
+            options.put(name, argument.substring(equals + 1));
+        }
+
+        return options;
+    }
+
+    /** Returns the value of an option, or a default value. */
+    private static String option(Map<String, String> options, String name,
+                                 String default_value)
+    {
+        String      value = options.get(name);
+        return value == null ? default_value : value;
+    }
+
+    /** Parses an operation mix.
+
+        @param mix Comma-separated list of <code>operation=weight</code>.
+        @return Cumulative weights, indexed as <code>OPERATIONS</code>.
+        @throws IllegalArgumentException If the mix names an unknown
+                                         operation, has a negative weight, or
+                                         has no positive weight.
+     */
+    private static int[] parseMix(String mix)
+    {
+        int[]       weights = new int[OPERATIONS.length];
+        List<String> names = Arrays.asList(OPERATIONS);
+
+        for(String entry : mix.split(","))
+        {
+            int     equals = entry.indexOf('=');
+            int     operation =
+                names.indexOf(equals < 0 ? entry : entry.substring(0, equals));
+
+            if(equals < 0 || operation < 0)
+            {
+                throw new IllegalArgumentException("malformed mix entry " +
+                                                   entry);
+            }
+
+            int     weight = Integer.parseInt(entry.substring(equals + 1));
+
+            if(weight < 0)
+                throw new IllegalArgumentException("negative weight " + entry);
+
+            weights[operation] += weight;
+        }
+
+        for(int index = 1; index < weights.length; ++index)
+            weights[index] += weights[index - 1];
+
+        if(weights[weights.length - 1] <= 0)
+            throw new IllegalArgumentException("no operation in mix");
+
+        return weights;
+    }
+
+    /** Creates the root directory and fills the files that are read and
+        written.
+
+        @throws IOException If the files cannot be created or written, or the
+                            filesystem cannot be contacted.
+     */
+    private void prepare() throws IOException
+    {
+        try
+        {
+            if(!service.createDirectory(root) && !service.isDirectory(root))
+                throw new IOException(root + " exists and is not a directory");
+
+            for(int index = 0; index < files.length; ++index)
+            {
+                files[index] = new Path(root, "data-" + index);
+                service.createFile(files[index]);
+            }
+        }
+        catch(RMIException e)
+        {
+            throw new IOException("unable to contact naming server", e);
+        }
+
+        byte[]                      data = new byte[size];
+
+        for(Path file : files)
+        {
+            try(DFSOutputStream stream = new DFSOutputStream(service, file))
+            {
+                stream.write(data);
+            }
+        }
+
+        latencies = new LatencyHistogram[OPERATIONS.length];
+        for(int index = 0; index < latencies.length; ++index)
+            latencies[index] = new LatencyHistogram();
+
+        errors = new AtomicLongArray(OPERATIONS.length);
+        failures = new AtomicReferenceArray<Throwable>(OPERATIONS.length);
+    }
+
+    /** Deletes the root directory and everything in it. Failures are
+        reported, but do not change the exit status. */
+    private void cleanUp()
+    {
+        try
+        {
+            service.delete(root);
+        }
+        catch(Throwable t)
+        {
+            System.err.println("unable to delete " + root + ": " + t);
+        }
+    }
+
+    /** Runs the closed-loop load: each thread starts its next operation as
+        soon as the previous one completes.
+
+        @param threads Number of threads.
+        @param warmup Seconds before measurement starts.
+        @param duration Seconds of measurement.
+     */
+    private void closedLoop(int threads, long warmup, long duration)
+        throws InterruptedException
+    {
+        long                        start = System.nanoTime();
+
+        measured = start + TimeUnit.SECONDS.toNanos(warmup);
+        end = measured + TimeUnit.SECONDS.toNanos(duration);
+
+        runThreads(threads, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                byte[]      buffer = new byte[size];
+                long        now;
+
+                while((now = System.nanoTime()) < end)
+                    perform(chooseOperation(), buffer, now);
+            }
+        });
+    }
+
+    /** Runs the open-loop load: operations are scheduled at a fixed rate, and
+        each is measured from its scheduled start time.
+
+        @param threads Number of threads executing the scheduled operations.
+        @param warmup Seconds before measurement starts.
+        @param duration Seconds of measurement.
+        @param rate Operations scheduled per second.
+     */
+    private void openLoop(int threads, long warmup, long duration, double rate)
+        throws InterruptedException
+    {
+        final long                  start = System.nanoTime();
+        final double                interval = 1e9 / rate;
+        final AtomicLong            tickets = new AtomicLong();
+
+        measured = start + TimeUnit.SECONDS.toNanos(warmup);
+        end = measured + TimeUnit.SECONDS.toNanos(duration);
+
+        runThreads(threads, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                byte[]      buffer = new byte[size];
+
+                while(true)
+                {
+                    // Take the next slot of the schedule, whether or not it is
+                    // already late.
+                    long    scheduled = start +
+                        (long)(tickets.getAndIncrement() * interval);
+                    long    wait;
+
+                    if(scheduled >= end)
+                        return;
+
+                    while((wait = scheduled - System.nanoTime()) > 0)
+                        LockSupport.parkNanos(wait);
+
+                    perform(chooseOperation(), buffer, scheduled);
+                }
+            }
+        });
+    }
+
+    /** Starts the load threads and waits for them to finish. */
+    private void runThreads(int count, Runnable load)
+        throws InterruptedException
+    {
+        Thread[]                    threads = new Thread[count];
+
+        for(int index = 0; index < count; ++index)
+        {
+            threads[index] = new Thread(load, "bench-" + index);
+            threads[index].start();
+        }
+
+        for(Thread thread : threads)
+            thread.join();
+    }
+
+    /** Picks an operation at random according to the mix. */
+    private int chooseOperation()
+    {
+        int         choice = ThreadLocalRandom.current()
+                                 .nextInt(weights[weights.length - 1]);
+        int         operation = 0;
+
+        while(weights[operation] <= choice)
+            ++operation;
+
+        return operation;
+    }
+
+    /** Performs an operation and records its latency if it is measured.
+
+        @param operation Index of the operation in <code>OPERATIONS</code>.
+        @param buffer Buffer of <code>size</code> bytes for reads and writes.
+        @param start Time from which the latency is measured, from
+                     <code>System.nanoTime</code>. Operations starting before
+                     the warmup is over are not measured.
+     */
+    private void perform(int operation, byte[] buffer, long start)
+    {
+        try
+        {
+            execute(OPERATIONS[operation], buffer);
+        }
+        catch(Throwable t)
+        {
+            if(start >= measured)
+            {
+                errors.incrementAndGet(operation);
+                failures.compareAndSet(operation, null, t);
+            }
+            return;
+        }
+
+        if(start >= measured)
+            latencies[operation].record(System.nanoTime() - start);
+    }
+
+    /** Executes one operation.
+
+        @param operation Name of the operation.
+        @param buffer Buffer of <code>size</code> bytes for reads and writes.
+        @throws Throwable If the operation fails.
+     */
+    private void execute(String operation, byte[] buffer) throws Throwable
+    {
+        Path        file = files[ThreadLocalRandom.current()
+                                     .nextInt(files.length)];
+
+        switch(operation)
+        {
+        case "isDirectory":
+            service.isDirectory(root);
+            break;
+
+        case "list":
+            service.list(root);
+            break;
+
+        case "getStorage":
+            service.getStorage(file);
+            break;
+
+        case "create":
+            created.add(createFile());
+            break;
+
+        case "delete":
+            Path    victim = created.poll();
+            if(victim == null)
+                victim = createFile();
+            service.delete(victim);
+            break;
+
+        case "read":
+            try(DFSInputStream stream = new DFSInputStream(service, file))
+            {
+                int     offset = 0;
+                int     count;
+
+                while(offset < buffer.length &&
+                      (count = stream.read(buffer, offset,
+                                           buffer.length - offset)) > 0)
+                {
+                    offset += count;
+                }
+            }
+            break;
+
+        case "write":
+            try(DFSOutputStream stream = new DFSOutputStream(service, file))
+            {
+                stream.write(buffer);
+            }
+            break;
+
+        default:
+            throw new IllegalStateException("unknown operation " + operation);
+        }
+    }
+
+    /** Creates a new file in the root directory.
+
+        @return The path to the file.
+        @throws Throwable If the file cannot be created.
+     */
+    private Path createFile() throws Throwable
+    {
+        Path        file = new Path(root, file_prefix +
+                                      next_file.incrementAndGet());
+
+        if(!service.createFile(file))
+            throw new IOException(file + " already exists");
+
+        return file;
+    }
+
+    /** Prints the throughput and latencies of each operation in the mix.
+
+        @param duration Seconds of measurement.
+     */
+    private void report(long duration)
+    {
+        long                        total = 0;
+
+        System.out.printf("%-12s %10s %10s %8s %10s %10s %10s %10s%n",
+                          "operation", "count", "ops/s", "errors", "p50 ms",
+                          "p99 ms", "p99.9 ms", "max ms");
+
+        for(int index = 0; index < OPERATIONS.length; ++index)
+        {
+            if(weights[index] == (index == 0 ? 0 : weights[index - 1]))
+                continue;
+
+            LatencyHistogram.Summary    summary = latencies[index].getSummary();
+            total += summary.getCount();
+
+            System.out.printf("%-12s %10d %10.1f %8d %10.3f %10.3f %10.3f " +
+                              "%10.3f%n", OPERATIONS[index],
+                              summary.getCount(),
+                              summary.getCount() / (double)duration,
+                              errors.get(index), summary.getP50() / 1e6,
+                              summary.getP99() / 1e6, summary.getP999() / 1e6,
+                              summary.getMax() / 1e6);
+        }
+
+        System.out.printf("%-12s %10d %10.1f%n", "total", total,
+                          total / (double)duration);
+
+        for(int index = 0; index < OPERATIONS.length; ++index)
+        {
+            if(failures.get(index) != null)
+            {
+                System.err.println("first " + OPERATIONS[index] +
+                                   " failure: " + failures.get(index));
+            }
+        }
+    }
+
+    /** Prints the usage of the load generator. */
+    private static void usage()
+    {
+        System.err.println("arguments: naming-server [--threads=n] " +
+                           "[--duration=s] [--warmup=s] [--rate=ops/s] " +
+                           "[--mix=operation=weight,...] [--size=bytes] " +
+                           "[--files=n] [--root=path]");
+        System.err.println("operations: " + String.join(" ", OPERATIONS));
+    }
+}
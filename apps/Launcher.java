@@ -33,6 +33,7 @@ public class Launcher
 
         applications.put("naming", new NamingServerApp());
         applications.put("storage", new StorageServerApp());
+        applications.put("bench", new BenchApp());
 
         // Check that at least an application name is present. If not, print a
         // help message and exit.
@@ -78,6 +79,9 @@ public class Launcher
         System.out.println("\nfor example, the arguments to start a storage " +
                            "server:");
         System.out.println("  storage 127.0.0.1 127.0.0.1 storage-test/");
+        System.out.println("\nthe arguments to put a closed-loop load of " +
+                           "16 threads on a filesystem:");
+        System.out.println("  bench 127.0.0.1 --threads=16 --duration=30");
         System.out.println("\npaths can take two forms:");
         System.out.println("  naming-server:remote-path    OR    local-path");
 
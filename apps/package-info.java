@@ -2,6 +2,6 @@
 
     <p>
     Filesystem applications provide ways to start naming and storage servers
-    from the command line.
+    from the command line, and to put load on a running filesystem.
  */
 package apps;
@@ -0,0 +1,82 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+import rmi.*;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rate at which a skeleton accepts new connections during a connection storm,
+ * as when every client reconnects after a server restart, for each transport
+ * and number of acceptors. Each operation opens a connection, exchanges the
+ * HELLO frames that start every stub connection, and resets the connection,
+ * so that closed connections do not exhaust the ephemeral ports. 32 threads
+ * connect concurrently; other counts can be measured with the -t option of
+ * JMH.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(32)
+public class AcceptBenchmark {
+    // HELLO frame: length of the fields that follow, type, call id and protocol version
+    private static final byte[] HELLO = {0, 0, 0, 6, 5, 0, 0, 0, 0, 8};
+
+    @Param({"BLOCKING", "SELECTOR"})
+    public SkeletonConfig.Transport transport;
+
+    @Param({"1", "4"})
+    public int acceptors;
+
+    private Skeleton<RoundTrip> skeleton;
+    private InetSocketAddress address;
+    private PrintStream out;
+
+    @Setup(Level.Trial)
+    public void start() throws Exception {
+        // The skeleton prints a line for every connection it accepts
+        out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        // The port is chosen here, the benchmark connects without a stub
+        int port;
+        try (ServerSocket free = new ServerSocket(0)) {
+            port = free.getLocalPort();
+        }
+        skeleton = new Skeleton<>(RoundTrip.class, new RoundTripServer(), new InetSocketAddress(port),
+                new SkeletonConfig().setTransport(transport).setAcceptors(acceptors)
+                        .setMaxConnections(Integer.MAX_VALUE));
+        skeleton.start();
+        address = new InetSocketAddress("127.0.0.1", port);
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        skeleton.stop();
+        System.setOut(out);
+    }
+
+    @Benchmark
+    public byte connect() throws IOException {
+        try (Socket socket = new Socket()) {
+            socket.setTcpNoDelay(true);
+            socket.setSoLinger(true, 0);
+            socket.connect(address);
+            socket.getOutputStream().write(HELLO);
+
+            byte[] reply = new byte[HELLO.length];
+            new DataInputStream(socket.getInputStream()).readFully(reply);
+            return reply[reply.length - 1];
+        }
+    }
+}
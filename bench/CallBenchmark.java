@@ -0,0 +1,86 @@
+package bench;
+
+import common.Path;
+import org.openjdk.jmh.annotations.*;
+import rmi.*;
+
+import java.io.FileNotFoundException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Round trips of calls through a stub to a skeleton of the same JVM over TCP
+ * loopback, for each skeleton transport and payload. The payload is echoed
+ * back, so it crosses the connection in both directions: "empty" calls a
+ * method without arguments or result, "path" echoes a small Path, and "4k"
+ * and "1m" echo byte arrays of those sizes. Each benchmark is measured both
+ * as throughput and as sampled latency, whose percentiles are reported.
+ * All the threads of a run share one stub, as the filesystem's clients do.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(1)
+public class CallBenchmark {
+    @Param({"BLOCKING", "SELECTOR"})
+    public SkeletonConfig.Transport transport;
+
+    private Skeleton<RoundTrip> skeleton;
+    private RoundTrip stub;
+
+    @Setup(Level.Trial)
+    public void start() throws Exception {
+        skeleton = new Skeleton<>(RoundTrip.class, new RoundTripServer(), null,
+                new SkeletonConfig().setTransport(transport));
+        skeleton.start();
+        stub = Stub.create(RoundTrip.class, skeleton, "127.0.0.1");
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        skeleton.stop();
+        ConnectionPool.getDefault().clear();
+    }
+
+    /** Argument echoed by call, a state of its own so that the other benchmarks do not run for each payload. */
+    @State(Scope.Benchmark)
+    public static class Payload {
+        @Param({"empty", "path", "4k", "1m"})
+        public String payload;
+
+        Object argument;
+
+        @Setup(Level.Trial)
+        public void create() {
+            switch (payload) {
+                case "empty": argument = null; break;
+                case "path": argument = new Path("/directory/file"); break;
+                case "4k": argument = new byte[4 * 1024]; break;
+                case "1m": argument = new byte[1024 * 1024]; break;
+                default: throw new IllegalArgumentException("Unknown payload " + payload);
+            }
+        }
+    }
+
+    @Benchmark
+    public Object call(Payload payload) throws RMIException {
+        if (payload.argument == null) {
+            stub.empty();
+            return null;
+        }
+        return stub.echo(payload.argument);
+    }
+
+    /** A call whose result is an exception thrown by the server, which is always serialized. */
+    @Benchmark
+    public Object exception() throws RMIException {
+        try {
+            stub.fail("missing");
+            throw new IllegalStateException("Exception not received");
+        } catch (FileNotFoundException e) {
+            return e;
+        }
+    }
+}
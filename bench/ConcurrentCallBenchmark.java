@@ -0,0 +1,12 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * The benchmarks of CallBenchmark, with 16 threads calling concurrently. The
+ * calls are multiplexed over the stub's pooled connections. Other thread
+ * counts can be measured with the -t option of JMH.
+ */
+@Threads(16)
+public class ConcurrentCallBenchmark extends CallBenchmark {
+}
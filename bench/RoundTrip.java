@@ -0,0 +1,19 @@
+package bench;
+
+import rmi.RMIException;
+import rmi.RemoteInterface;
+
+import java.io.FileNotFoundException;
+
+/** Remote interface used by the benchmarks. */
+@RemoteInterface
+public interface RoundTrip {
+    /** Does nothing, the call measures the cost of the round trip alone. */
+    void empty() throws RMIException;
+
+    /** Returns its argument. */
+    Object echo(Object value) throws RMIException;
+
+    /** Throws FileNotFoundException with the given message. */
+    void fail(String message) throws RMIException, FileNotFoundException;
+}
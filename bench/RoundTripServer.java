@@ -0,0 +1,21 @@
+package bench;
+
+import rmi.RMIException;
+
+import java.io.FileNotFoundException;
+
+public class RoundTripServer implements RoundTrip {
+    @Override
+    public void empty() throws RMIException {
+    }
+
+    @Override
+    public Object echo(Object value) throws RMIException {
+        return value;
+    }
+
+    @Override
+    public void fail(String message) throws RMIException, FileNotFoundException {
+        throw new FileNotFoundException(message);
+    }
+}
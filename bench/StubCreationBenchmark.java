@@ -0,0 +1,46 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+import rmi.*;
+
+import java.net.UnknownHostException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of creating a stub, and of creating a stub and making its first call,
+ * which includes taking a connection from the pool. Connections are pooled
+ * per address, so only the first call of the trial opens one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StubCreationBenchmark {
+    private Skeleton<RoundTrip> skeleton;
+
+    @Setup(Level.Trial)
+    public void start() throws Exception {
+        skeleton = new Skeleton<>(RoundTrip.class, new RoundTripServer());
+        skeleton.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        skeleton.stop();
+        ConnectionPool.getDefault().clear();
+    }
+
+    @Benchmark
+    public RoundTrip create() throws UnknownHostException {
+        return Stub.create(RoundTrip.class, skeleton, "127.0.0.1");
+    }
+
+    @Benchmark
+    public RoundTrip createAndCall() throws RMIException, UnknownHostException {
+        RoundTrip stub = Stub.create(RoundTrip.class, skeleton, "127.0.0.1");
+        stub.empty();
+        return stub;
+    }
+}
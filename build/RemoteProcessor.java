@@ -0,0 +1,468 @@
+package build;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.PrimitiveType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+
+/** Annotation processor generating stubs and skeleton dispatchers for remote
+    interfaces.
+
+    <p>
+    For each interface marked <code>rmi.RemoteInterface</code>, the processor
+    generates two classes in the package of the interface. The class named
+    after the interface with the suffix <code>_Stub</code> extends
+    <code>rmi.GeneratedStub</code> and implements each method of the interface
+    by a call with the method's id. The class with the suffix
+    <code>_Dispatcher</code> extends <code>rmi.GeneratedDispatcher</code> and
+    invokes the methods of a server object through a <code>switch</code> on the
+    method id.
+
+    <p>
+    Method ids are assigned as the RMI library assigns them at run time: methods
+    are sorted by name and parameter types. Both classes carry the fingerprint
+    of the interface, a hash of the sorted signatures, which the library checks
+    before using them. The processor warns about, and generates nothing for,
+    interfaces that are not public, that are generic, or that declare generic
+    methods; stubs and skeletons for these interfaces use reflection.
+
+    <p>
+    The Makefile runs the processor when compiling the project.
+ */
+@SupportedAnnotationTypes("rmi.RemoteInterface")
+public class RemoteProcessor extends AbstractProcessor
+{
+    /** Name of the processor, recorded in the generated classes. */
+    private static final String     NAME = RemoteProcessor.class.getName();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion()
+    {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations,
+                           RoundEnvironment round)
+    {
+        for(TypeElement annotation : annotations)
+        {
+            for(Element element : round.getElementsAnnotatedWith(annotation))
+            {
+                if(element.getKind() != ElementKind.INTERFACE)
+                {
+                    processingEnv.getMessager().printMessage(
+                        Diagnostic.Kind.ERROR,
+                        "only interfaces may be marked RemoteInterface",
+                        element);
+                    continue;
+                }
+
+                generate((TypeElement)element);
+            }
+        }
+
+        return true;
+    }
+
+    /** Generates the stub and dispatcher of a remote interface. */
+    private void generate(TypeElement type)
+    {
+        String                  problem = null;
+        if(!type.getModifiers().contains(Modifier.PUBLIC))
+            problem = "is not public";
+        else if(!type.getTypeParameters().isEmpty())
+            problem = "is generic";
+
+        List<ExecutableElement> methods = methods(type);
+        for(ExecutableElement method : methods)
+        {
+            if(!method.getTypeParameters().isEmpty())
+                problem = "declares generic method " + method.getSimpleName();
+        }
+
+        if(problem != null)
+        {
+            processingEnv.getMessager().printMessage(
+                Diagnostic.Kind.WARNING,
+                "no stub generated: remote interface " + problem, type);
+            return;
+        }
+
+        int                     fingerprint = 1;
+        for(ExecutableElement method : methods)
+            fingerprint = 31 * fingerprint + signature(method).hashCode();
+
+        try
+        {
+            writeStub(type, methods, fingerprint);
+            writeDispatcher(type, methods, fingerprint);
+        }
+        catch(IOException e)
+        {
+            processingEnv.getMessager().printMessage(
+                Diagnostic.Kind.ERROR,
+                "unable to write generated class: " + e.getMessage(), type);
+        }
+    }
+
+    /** Returns the methods of an interface, including inherited methods, in
+        method id order. Static and private methods are not remote methods. */
+    private List<ExecutableElement> methods(TypeElement type)
+    {
+        Elements                elements = processingEnv.getElementUtils();
+        List<ExecutableElement> methods = new ArrayList<>();
+
+        for(ExecutableElement method :
+                ElementFilter.methodsIn(elements.getAllMembers(type)))
+        {
+            if(method.getEnclosingElement().getKind() != ElementKind.INTERFACE)
+                continue;
+            if(method.getModifiers().contains(Modifier.STATIC) ||
+               method.getModifiers().contains(Modifier.PRIVATE))
+            {
+                continue;
+            }
+
+            methods.add(method);
+        }
+
+        methods.sort(Comparator.comparing(this::signature));
+        return methods;
+    }
+
+    /** Returns the signature of a method as the RMI library computes it at run
+        time: the name, followed by the run time name of each parameter type. */
+    private String signature(ExecutableElement method)
+    {
+        StringBuilder           signature =
+            new StringBuilder(method.getSimpleName()).append('(');
+
+        for(VariableElement parameter : method.getParameters())
+            signature.append(runtimeName(parameter.asType())).append(';');
+
+        return signature.append(')').toString();
+    }
+
+    /** Returns the name <code>Class.getName</code> returns for the erasure of a
+        type. */
+    private String runtimeName(TypeMirror type)
+    {
+        Types                   types = processingEnv.getTypeUtils();
+        TypeMirror              erased = types.erasure(type);
+
+        if(erased.getKind().isPrimitive())
+            return erased.toString();
+        if(erased.getKind() == TypeKind.ARRAY)
+            return "[" + descriptor(((ArrayType)erased).getComponentType());
+
+        TypeElement             element = (TypeElement)types.asElement(erased);
+        return processingEnv.getElementUtils().getBinaryName(element)
+            .toString();
+    }
+
+    /** Returns the descriptor of an array component type, in the form used by
+        <code>Class.getName</code> for array classes. */
+    private String descriptor(TypeMirror type)
+    {
+        switch(type.getKind())
+        {
+        case BOOLEAN:   return "Z";
+        case BYTE:      return "B";
+        case CHAR:      return "C";
+        case SHORT:     return "S";
+        case INT:       return "I";
+        case LONG:      return "J";
+        case FLOAT:     return "F";
+        case DOUBLE:    return "D";
+        case ARRAY:
+            return "[" + descriptor(((ArrayType)type).getComponentType());
+        default:
+            return "L" + runtimeName(type) + ";";
+        }
+    }
+
+    /** Writes the stub class of an interface. */
+    private void writeStub(TypeElement type, List<ExecutableElement> methods,
+                           int fingerprint) throws IOException
+    {
+        String                  name = generatedName(type, "_Stub");
+        String                  iface = type.getQualifiedName().toString();
+
+        try(PrintWriter out = open(type, name))
+        {
+            out.println("/** Stub for <code>" + iface + "</code>, generated by");
+            out.println("    <code>" + NAME + "</code>. */");
+            out.println("@javax.annotation.processing.Generated(\"" + NAME + "\")");
+            out.println("@SuppressWarnings(\"unchecked\")");
+            out.println("public final class " + name);
+            out.println("    extends rmi.GeneratedStub<" + iface + ">");
+            out.println("    implements " + iface);
+            out.println("{");
+            out.println("    /** Fingerprint of the interface the stub was generated from. */");
+            out.println("    public static final int FINGERPRINT = " + fingerprint + ";");
+            out.println();
+            out.println("    private static final long serialVersionUID = FINGERPRINT;");
+
+            for(int id = 0; id < methods.size(); ++id)
+            {
+                out.println();
+                writeStubMethod(out, methods.get(id), id);
+            }
+
+            out.println("}");
+        }
+    }
+
+    /** Writes the implementation of one method in a stub class. */
+    private void writeStubMethod(PrintWriter out, ExecutableElement method,
+                                 int id)
+    {
+        List<? extends VariableElement> parameters = method.getParameters();
+        TypeMirror              result = method.getReturnType();
+
+        StringBuilder           declaration =
+            new StringBuilder("    public ").append(result).append(' ')
+                .append(method.getSimpleName()).append('(');
+        StringBuilder           arguments = new StringBuilder();
+        for(int index = 0; index < parameters.size(); ++index)
+        {
+            if(index > 0)
+            {
+                declaration.append(", ");
+                arguments.append(", ");
+            }
+            declaration.append(parameters.get(index).asType())
+                .append(" a").append(index);
+            arguments.append('a').append(index);
+        }
+        declaration.append(')');
+
+        List<TypeMirror>        thrown = rethrown(method);
+        String                  separator = " throws ";
+        for(TypeMirror exception : method.getThrownTypes())
+        {
+            declaration.append(separator).append(exception);
+            separator = ", ";
+        }
+
+        String                  call =
+            "invoke(" + id + ", " + (parameters.isEmpty() ? "null" :
+                                     "new Object[] {" + arguments + "}") + ")";
+        if(result.getKind() == TypeKind.VOID)
+            call = call + ";";
+        else
+            call = "return (" + boxed(result) + ")" + call + ";";
+
+        out.println("    @Override");
+        out.println(declaration);
+        out.println("    {");
+
+        // A method declared as throwing Throwable needs no translation of the
+        // exceptions thrown by the call.
+        if(thrown == null)
+        {
+            out.println("        " + call);
+            out.println("    }");
+            return;
+        }
+
+        StringBuilder           caught = new StringBuilder();
+        for(TypeMirror exception : thrown)
+        {
+            if(caught.length() > 0)
+                caught.append(" | ");
+            caught.append(exception);
+        }
+
+        out.println("        try");
+        out.println("        {");
+        out.println("            " + call);
+        out.println("        }");
+        out.println("        catch(" + caught + " e)");
+        out.println("        {");
+        out.println("            throw e;");
+        out.println("        }");
+        out.println("        catch(Throwable t)");
+        out.println("        {");
+        out.println("            throw new java.lang.reflect.UndeclaredThrowableException(t);");
+        out.println("        }");
+        out.println("    }");
+    }
+
+    /** Returns the exceptions a stub method may throw as they are, as a list
+        in which no type is a subtype of another, or <code>null</code> if the
+        method may throw any exception. Other exceptions are wrapped, as a
+        dynamic proxy wraps them. */
+    private List<TypeMirror> rethrown(ExecutableElement method)
+    {
+        Elements                elements = processingEnv.getElementUtils();
+        Types                   types = processingEnv.getTypeUtils();
+
+        List<TypeMirror>        candidates = new ArrayList<>();
+        candidates.add(elements.getTypeElement("java.lang.RuntimeException")
+                       .asType());
+        candidates.add(elements.getTypeElement("java.lang.Error").asType());
+        candidates.addAll(method.getThrownTypes());
+
+        TypeMirror              throwable =
+            elements.getTypeElement("java.lang.Throwable").asType();
+        List<TypeMirror>        thrown = new ArrayList<>();
+        for(int index = 0; index < candidates.size(); ++index)
+        {
+            TypeMirror          candidate = candidates.get(index);
+            if(types.isSameType(candidate, throwable))
+                return null;
+
+            // A type is dropped if it is a proper subtype of another, or a
+            // repetition of an earlier one.
+            boolean             covered = false;
+            for(int other = 0; other < candidates.size(); ++other)
+            {
+                if(other == index ||
+                   !types.isSubtype(candidate, candidates.get(other)))
+                {
+                    continue;
+                }
+
+                if(other < index ||
+                   !types.isSameType(candidate, candidates.get(other)))
+                {
+                    covered = true;
+                }
+            }
+
+            if(!covered)
+                thrown.add(candidate);
+        }
+
+        return thrown;
+    }
+
+    /** Writes the dispatcher class of an interface. */
+    private void writeDispatcher(TypeElement type,
+                                 List<ExecutableElement> methods,
+                                 int fingerprint) throws IOException
+    {
+        String                  name = generatedName(type, "_Dispatcher");
+        String                  iface = type.getQualifiedName().toString();
+
+        try(PrintWriter out = open(type, name))
+        {
+            out.println("/** Skeleton dispatcher for <code>" + iface + "</code>, generated by");
+            out.println("    <code>" + NAME + "</code>. */");
+            out.println("@javax.annotation.processing.Generated(\"" + NAME + "\")");
+            out.println("@SuppressWarnings(\"unchecked\")");
+            out.println("public final class " + name);
+            out.println("    extends rmi.GeneratedDispatcher<" + iface + ">");
+            out.println("{");
+            out.println("    /** Fingerprint of the interface the dispatcher was generated from. */");
+            out.println("    public static final int FINGERPRINT = " + fingerprint + ";");
+            out.println();
+            out.println("    @Override");
+            out.println("    public Object invoke(" + iface + " server, int methodId, Object[] args)");
+            out.println("        throws Throwable");
+            out.println("    {");
+            out.println("        switch(methodId)");
+            out.println("        {");
+
+            for(int id = 0; id < methods.size(); ++id)
+            {
+                ExecutableElement   method = methods.get(id);
+                List<? extends VariableElement> parameters =
+                    method.getParameters();
+
+                StringBuilder       call =
+                    new StringBuilder("server.").append(method.getSimpleName())
+                        .append('(');
+                for(int index = 0; index < parameters.size(); ++index)
+                {
+                    if(index > 0)
+                        call.append(", ");
+                    call.append('(').append(boxed(parameters.get(index).asType()))
+                        .append(")args[").append(index).append(']');
+                }
+                call.append(')');
+
+                out.println("        case " + id + ":");
+                if(method.getReturnType().getKind() == TypeKind.VOID)
+                {
+                    out.println("            " + call + ";");
+                    out.println("            return null;");
+                }
+                else
+                    out.println("            return " + call + ";");
+            }
+
+            out.println("        default:");
+            out.println("            throw new rmi.RMIException(\"Unknown method id \" + methodId);");
+            out.println("        }");
+            out.println("    }");
+            out.println("}");
+        }
+    }
+
+    /** Returns the source form of a type, boxed if it is primitive. */
+    private String boxed(TypeMirror type)
+    {
+        if(!type.getKind().isPrimitive())
+            return type.toString();
+
+        return processingEnv.getTypeUtils()
+            .boxedClass((PrimitiveType)type)
+            .getQualifiedName().toString();
+    }
+
+    /** Returns the simple name of a class generated for an interface: the
+        binary name of the interface within its package, with a suffix. */
+    private String generatedName(TypeElement type, String suffix)
+    {
+        String                  binary =
+            processingEnv.getElementUtils().getBinaryName(type).toString();
+        return binary.substring(binary.lastIndexOf('.') + 1) + suffix;
+    }
+
+    /** Creates a generated source file in the package of an interface, and
+        writes its package declaration. */
+    private PrintWriter open(TypeElement type, String name) throws IOException
+    {
+        PackageElement          pkg =
+            processingEnv.getElementUtils().getPackageOf(type);
+        String                  qualified = pkg.isUnnamed() ? name :
+            pkg.getQualifiedName() + "." + name;
+
+        PrintWriter             out = new PrintWriter(
+            processingEnv.getFiler().createSourceFile(qualified, type)
+                .openWriter());
+
+        if(!pkg.isUnnamed())
+        {
+            out.println("package " + pkg.getQualifiedName() + ";");
+            out.println();
+        }
+
+        return out;
+    }
+}
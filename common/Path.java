@@ -4,6 +4,8 @@ import java.io.*;
 import java.util.*;
 import java.util.stream.Collectors;
 
+import rmi.Immutable;
+
 /**
  * Distributed filesystem paths.
  *
@@ -21,6 +23,7 @@ import java.util.stream.Collectors;
  * not permitted within path components. The forward slash is the delimeter,
  * and the colon is reserved as a delimeter for application use.
  */
+@Immutable
 public class Path implements Iterable<String>, Serializable {
     /**
      * A List of String represents the components of a Path
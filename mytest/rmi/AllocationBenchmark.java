@@ -0,0 +1,74 @@
+package mytest.rmi;
+
+import rmi.*;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Measures the memory allocated per remote call. A single client makes calls
+ * in a loop against a skeleton of the same JVM, for each transport, and the
+ * heap bytes allocated by all threads are divided by the number of calls. The
+ * direct buffers created during the measurement are also counted; with the
+ * transport buffers pooled there should be none once the connection is
+ * warmed up.
+ *
+ * Usage: java mytest.rmi.AllocationBenchmark [calls] [payload]
+ */
+public class AllocationBenchmark {
+    public static void main(String[] args) throws Exception {
+        int calls = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int payload = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!threads.isThreadAllocatedMemorySupported()) {
+            System.out.println("Thread allocation accounting is not supported by this JVM");
+            return;
+        }
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        System.out.println("calls=" + calls + " payload=" + payload);
+        for (SkeletonConfig.Transport transport : SkeletonConfig.Transport.values())
+            run(transport, threads, calls, payload);
+    }
+
+    private static void run(SkeletonConfig.Transport transport, com.sun.management.ThreadMXBean threads,
+                            int calls, int payload) throws Exception {
+        Skeleton<BenchInterface> skeleton = new Skeleton<>(BenchInterface.class, new BenchServer(), null,
+                new SkeletonConfig().setTransport(transport));
+        skeleton.start();
+        BenchInterface stub = Stub.create(BenchInterface.class, skeleton);
+
+        // Warm up the connection, the buffer pool and the code paths
+        for (int i = 0; i < Math.min(calls, 10_000); i++) stub.block(0, payload);
+
+        long bytes = allocatedBytes(threads);
+        long buffers = directBuffers();
+        long start = System.nanoTime();
+        for (int i = 0; i < calls; i++) stub.block(0, payload);
+        long elapsed = System.nanoTime() - start;
+        bytes = allocatedBytes(threads) - bytes;
+        buffers = directBuffers() - buffers;
+
+        System.out.printf("%s: %.0f bytes/call, %d direct buffers created, %.1fus/call%n",
+                transport, bytes / (double) calls, buffers, elapsed / 1e3 / calls);
+        skeleton.stop();
+    }
+
+    // Threads that exit during the measurement are not counted, the client, selector and worker threads do not
+    private static long allocatedBytes(com.sun.management.ThreadMXBean threads) {
+        long total = 0;
+        for (long allocated : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            if (allocated > 0) total += allocated;
+        }
+        return total;
+    }
+
+    private static long directBuffers() {
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if (pool.getName().equals("direct")) return pool.getCount();
+        }
+        return -1;
+    }
+}
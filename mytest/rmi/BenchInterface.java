@@ -0,0 +1,9 @@
+package mytest.rmi;
+
+import rmi.RMIException;
+
+/** Remote interface used by the RMI benchmarks. */
+public interface BenchInterface {
+    /** Blocks for the given time, standing in for disk or network I/O, then returns a payload of the given size. */
+    byte[] block(long millis, int size) throws RMIException;
+}
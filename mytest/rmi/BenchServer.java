@@ -0,0 +1,17 @@
+package mytest.rmi;
+
+import rmi.RMIException;
+
+public class BenchServer implements BenchInterface {
+    @Override
+    public byte[] block(long millis, int size) throws RMIException {
+        if (millis > 0) {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                throw new RMIException("Interrupted", e);
+            }
+        }
+        return new byte[size];
+    }
+}
@@ -0,0 +1,108 @@
+package mytest.rmi;
+
+import rmi.*;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Compares platform and virtual thread execution in the skeleton.
+ * Clients keep a fixed number of calls outstanding against a skeleton whose
+ * method blocks for a fixed service time, first with platform threads (one
+ * thread per connection and per call) and then with virtual threads. For each
+ * model the throughput, latency percentiles and peak JVM thread count are
+ * printed.
+ *
+ * Usage: java mytest.rmi.ThreadModelBenchmark [concurrency] [seconds] [serviceMillis]
+ */
+public class ThreadModelBenchmark {
+    public static void main(String[] args) throws Exception {
+        int concurrency = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        long serviceMillis = args.length > 2 ? Long.parseLong(args[2]) : 20;
+
+        System.out.println("concurrency=" + concurrency + " seconds=" + seconds + " service=" + serviceMillis + "ms");
+
+        run("platform", new SkeletonConfig().setMaxWorkerThreads(concurrency), concurrency, seconds, serviceMillis);
+
+        if (SkeletonConfig.isVirtualThreadSupported()) {
+            run("virtual", new SkeletonConfig().setMaxWorkerThreads(concurrency).setVirtualThreads(true),
+                    concurrency, seconds, serviceMillis);
+        } else {
+            System.out.println("virtual: skipped, virtual threads require Java 21 or later");
+        }
+    }
+
+    private static void run(String name, SkeletonConfig config, int concurrency, int seconds, long serviceMillis)
+            throws Exception {
+        Skeleton<BenchInterface> skeleton = new Skeleton<>(BenchInterface.class, new BenchServer(), null, config);
+        skeleton.start();
+        BenchInterface stub = Stub.create(BenchInterface.class, skeleton);
+
+        // Warm up the connections and the code paths
+        for (int i = 0; i < 100; i++) stub.block(0, 0);
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        threads.resetPeakThreadCount();
+
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        long[][] latencies = new long[concurrency][];
+        int[] counts = new int[concurrency];
+        Thread[] clients = new Thread[concurrency];
+        ThreadFactory factory = clientThreads(config.isVirtualThreads());
+
+        for (int i = 0; i < concurrency; i++) {
+            final int client = i;
+            clients[i] = factory.newThread(() -> {
+                long[] samples = new long[1024];
+                int count = 0;
+                try {
+                    while (System.nanoTime() < deadline) {
+                        long start = System.nanoTime();
+                        stub.block(serviceMillis, 64);
+                        if (count == samples.length) samples = Arrays.copyOf(samples, count * 2);
+                        samples[count++] = System.nanoTime() - start;
+                    }
+                } catch (RMIException e) {
+                    System.err.println(name + ": call failed: " + e);
+                }
+                latencies[client] = samples;
+                counts[client] = count;
+            });
+            clients[i].start();
+        }
+        for (Thread client : clients) client.join();
+
+        int total = 0;
+        for (int count : counts) total += count;
+        long[] all = new long[total];
+        int position = 0;
+        for (int i = 0; i < concurrency; i++) {
+            System.arraycopy(latencies[i], 0, all, position, counts[i]);
+            position += counts[i];
+        }
+        Arrays.sort(all);
+
+        System.out.printf("%s: %d calls, %.0f calls/s, p50=%.2fms p99=%.2fms max=%.2fms, peak threads=%d, rejected=%d%n",
+                name, total, total / (double) seconds,
+                percentile(all, 0.50), percentile(all, 0.99), percentile(all, 1.0),
+                threads.getPeakThreadCount(), skeleton.rejectedCalls());
+
+        skeleton.stop();
+    }
+
+    // Client threads use the same model as the skeleton under test
+    private static ThreadFactory clientThreads(boolean virtual) throws Exception {
+        if (!virtual) return Thread::new;
+        Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+        return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0) return 0;
+        int index = (int) Math.min(sorted.length - 1, Math.ceil(p * sorted.length) - 1);
+        return sorted[Math.max(index, 0)] / 1e6;
+    }
+}
@@ -2,13 +2,18 @@ package naming;
 
 import common.*;
 import storage.*;
+import rmi.CallPriority;
+import rmi.Priority;
 import rmi.RMIException;
+import rmi.RemoteInterface;
 
 /** Naming server registration interface.
 
     <p>
     This interface is used once, on startup, by each storage server.
  */
+@RemoteInterface
+@Priority(CallPriority.CONTROL)
 public interface Registration
 {
     /** Registers a storage server with the naming server.
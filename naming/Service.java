@@ -3,6 +3,7 @@ package naming;
 import java.io.*;
 import common.*;
 import rmi.RMIException;
+import rmi.RemoteInterface;
 import storage.Storage;
 
 /** Naming server client service interface.
@@ -14,6 +15,7 @@ import storage.Storage;
     The term <em>object</em> in the documentation below refers to any filesystem
     object: either a file or a directory.
  */
+@RemoteInterface
 public interface Service
 {
     /** Determines whether a path refers to a directory.
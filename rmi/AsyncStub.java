@@ -0,0 +1,114 @@
+package rmi;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/** Asynchronous view of a remote interface.
+
+    <p>
+    An asynchronous stub makes remote calls without blocking the calling
+    thread. Each call returns at once with a <code>CompletableFuture</code>,
+    which is completed with the result of the remote method, or exceptionally
+    with the exception that a regular stub would have thrown: the exception
+    thrown by the remote method, or <code>RMIException</code> if the call could
+    not be completed.
+
+    <p>
+    The call is given as a lambda that makes exactly one method call on the
+    stub passed to it, for example:
+
+    <pre>
+    AsyncStub&lt;Storage&gt;         storage = Stub.createAsync(Storage.class, address);
+    CompletableFuture&lt;Long&gt;     size = storage.call(s -&gt; s.size(path));
+    </pre>
+
+    The lambda is run on the calling thread against a recording object, which
+    only captures the method and arguments. The value returned by the lambda is
+    ignored.
+
+    <p>
+    Calls share the connection pool of regular stubs, and no thread is held
+    while a call is outstanding. Futures are completed on the executor given
+    when the stub was created, so that callbacks which block, including
+    callbacks making regular stub calls, do not hold up the delivery of other
+    replies.
+ */
+public class AsyncStub<T>
+{
+    /** A remote call returning a result. */
+    public interface Call<T, R>
+    {
+        /** Makes one call on the given stub. */
+        R call(T stub) throws Exception;
+    }
+
+    /** A remote call whose result, if any, is not needed. */
+    public interface Task<T>
+    {
+        /** Makes one call on the given stub. */
+        void run(T stub) throws Exception;
+    }
+
+    private final DynamicProxyHandler<T> handler;
+    private final Executor executor;
+    private final CallRecorder<T> recorder;
+
+    AsyncStub(DynamicProxyHandler<T> handler, Executor executor)
+    {
+        this.handler = handler;
+        this.executor = executor;
+        this.recorder = new CallRecorder<T>(handler);
+    }
+
+    /** Makes an asynchronous remote call.
+
+        @param call Lambda making one call on the stub passed to it.
+        @return Future completed with the result of the call.
+        @throws IllegalArgumentException If the lambda does not make exactly
+                                         one call on the stub.
+        @throws NullPointerException If <code>call</code> is
+                                     <code>null</code>.
+     */
+    @SuppressWarnings("unchecked")
+    public <R> CompletableFuture<R> call(Call<T, R> call)
+    {
+        CallRecorder.Recorded r = recorder.recordCall(call);
+        return (CompletableFuture<R>) handler.invokeAsync(r.method, r.args, executor);
+    }
+
+    /** Makes an asynchronous remote call, typically to a <code>void</code>
+        method.
+
+        @param task Lambda making one call on the stub passed to it.
+        @return Future completed when the call has been executed.
+        @throws IllegalArgumentException If the lambda does not make exactly
+                                         one call on the stub.
+        @throws NullPointerException If <code>task</code> is
+                                     <code>null</code>.
+     */
+    public CompletableFuture<Void> run(Task<T> task)
+    {
+        CallRecorder.Recorded r = recorder.recordTask(task);
+        return handler.invokeAsync(r.method, r.args, executor).thenApply(result -> null);
+    }
+
+    /** Opens a batch of calls to the same skeleton. The futures of the calls
+        in the batch are completed on the executor of this stub. */
+    public Batch<T> batch()
+    {
+        return new Batch<T>(handler, executor);
+    }
+
+    /** Returns the remote interface of the stub. */
+    public Class<T> getInterface()
+    {
+        return handler.getInterface();
+    }
+
+    /** Returns the address of the skeleton the stub calls. */
+    public InetSocketAddress getAddress()
+    {
+        return handler.getAddress();
+    }
+}
@@ -0,0 +1,111 @@
+package rmi;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/** Batch of remote calls sent to a skeleton in a single round trip.
+
+    <p>
+    Calls are queued with <code>call</code> or <code>run</code>, in the same
+    lambda form as for <code>AsyncStub</code>, and nothing is sent until
+    <code>flush</code> is called. The queued calls are then sent in one frame.
+    The skeleton executes them one after the other, in the order in which they
+    were queued, and returns all results and exceptions in one reply. Each
+    queued call has its own future, completed with its result or exceptionally
+    with its exception; a call that throws does not prevent the following calls
+    from being executed.
+
+    <p>
+    Batches are obtained from <code>Stub.batch</code> or
+    <code>AsyncStub.batch</code>. A batch may be flushed several times, each
+    flush sending the calls queued since the previous one. A batch is not safe
+    for use by several threads at once.
+ */
+public class Batch<T>
+{
+    private final DynamicProxyHandler<T> handler;
+    private final Executor executor;
+    private final CallRecorder<T> recorder;
+
+    private final List<Method> methods = new ArrayList<>();
+    private final List<Object[]> args = new ArrayList<>();
+    private final List<CompletableFuture<Object>> results = new ArrayList<>();
+
+    Batch(DynamicProxyHandler<T> handler, Executor executor)
+    {
+        this.handler = handler;
+        this.executor = executor;
+        this.recorder = new CallRecorder<T>(handler);
+    }
+
+    /** Queues a call.
+
+        @param call Lambda making one call on the stub passed to it.
+        @return Future completed with the result of the call once the batch
+                has been flushed and executed.
+        @throws IllegalArgumentException If the lambda does not make exactly
+                                         one call on the stub.
+        @throws NullPointerException If <code>call</code> is
+                                     <code>null</code>.
+     */
+    @SuppressWarnings("unchecked")
+    public <R> CompletableFuture<R> call(AsyncStub.Call<T, R> call)
+    {
+        return (CompletableFuture<R>) queue(recorder.recordCall(call));
+    }
+
+    /** Queues a call, typically to a <code>void</code> method.
+
+        @param task Lambda making one call on the stub passed to it.
+        @return Future completed when the call has been executed.
+        @throws IllegalArgumentException If the lambda does not make exactly
+                                         one call on the stub.
+        @throws NullPointerException If <code>task</code> is
+                                     <code>null</code>.
+     */
+    public CompletableFuture<Void> run(AsyncStub.Task<T> task)
+    {
+        return queue(recorder.recordTask(task)).thenApply(result -> null);
+    }
+
+    /** Returns the number of calls queued since the last flush. */
+    public int size()
+    {
+        return methods.size();
+    }
+
+    /** Sends the queued calls as one frame, and returns without waiting for
+        their results.
+
+        @return Future completed when every call sent has completed, normally
+                or not.
+     */
+    public CompletableFuture<Void> flush()
+    {
+        @SuppressWarnings("unchecked")
+        CompletableFuture<Object>[] sent = results.toArray(new CompletableFuture[0]);
+        Method[] calls = methods.toArray(new Method[0]);
+        Object[][] arguments = args.toArray(new Object[0][]);
+
+        methods.clear();
+        args.clear();
+        results.clear();
+
+        if (sent.length > 0) handler.invokeBatch(calls, arguments, sent, executor);
+
+        // Completes whether or not the calls succeed
+        return CompletableFuture.allOf(sent).handle((ignored, failure) -> null);
+    }
+
+    private CompletableFuture<Object> queue(CallRecorder.Recorded r)
+    {
+        CompletableFuture<Object> result = new CompletableFuture<>();
+        methods.add(r.method);
+        args.add(r.args);
+        results.add(result);
+        return result;
+    }
+}
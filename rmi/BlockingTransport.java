@@ -0,0 +1,91 @@
+package rmi;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Thread-per-connection transport: a SkeletonListeningThread accepts
+ * connections and starts a SkeletonExecutionThread for each of them, on a
+ * platform or a virtual thread. With several acceptors, each has its own
+ * listening socket bound to the port with SO_REUSEPORT and its own listening
+ * thread.
+ */
+class BlockingTransport<T> implements SkeletonTransport {
+    private final Skeleton<T> skeleton;
+    private final Dispatcher<T> dispatcher;
+    private final List<SkeletonListeningThread<T>> listeners = new ArrayList<>();
+    private final List<Thread> threads = new ArrayList<>();
+
+    BlockingTransport(Skeleton<T> skeleton, Dispatcher<T> dispatcher) {
+        this.skeleton = skeleton;
+        this.dispatcher = dispatcher;
+    }
+
+    @Override
+    public int start(SocketAddress address) throws IOException {
+        if (address != null && !(address instanceof InetSocketAddress))
+            throw new IOException("Blocking transport cannot listen at " + address);
+
+        int acceptors = SkeletonTransport.acceptors(skeleton);
+        List<ServerSocket> sockets = new ArrayList<>();
+        int port = address == null ? 0 : ((InetSocketAddress) address).getPort();
+        try {
+            // The first socket is bound to the requested port, the others to the one it got
+            for (int i = 0; i < acceptors; i++) {
+                ServerSocket serverSocket = new ServerSocket();
+                sockets.add(serverSocket);
+                if (acceptors > 1) serverSocket.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+                serverSocket.bind(new InetSocketAddress(port));
+                port = serverSocket.getLocalPort();
+            }
+        } catch (IOException e) {
+            for (ServerSocket serverSocket : sockets) serverSocket.close();
+            throw e;
+        }
+
+        // create the listening threads, platform threads so that a running skeleton keeps the JVM alive
+        ThreadFactory connectionThreads = Threads.create(skeleton.config.isVirtualThreads(), "rmi-connection");
+        Set<SkeletonExecutionThread<T>> connections = new HashSet<>();
+        for (ServerSocket serverSocket : sockets) {
+            SkeletonListeningThread<T> listener = new SkeletonListeningThread<T>(
+                    skeleton, this, dispatcher, serverSocket, connectionThreads, connections) {
+                @Override
+                void failed(Exception cause) {
+                    // The skeleton stops when one acceptor fails, the others must not keep accepting
+                    for (SkeletonListeningThread<T> other : listeners) other.stopAccepting();
+                    super.failed(cause);
+                }
+            };
+            listeners.add(listener);
+            threads.add(new Thread(listener, "rmi-listener-" + port + (acceptors > 1 ? "-" + threads.size() : "")));
+        }
+        for (Thread thread : threads) thread.start();
+
+        return port;
+    }
+
+    @Override
+    public void stop() {
+        for (SkeletonListeningThread<T> listener : listeners) listener.stopListening();
+
+        boolean interrupted = false;
+        for (Thread thread : threads) {
+            while (thread.isAlive()) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+}
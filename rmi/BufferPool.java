@@ -0,0 +1,107 @@
+package rmi;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pool of direct ByteBuffers for frame I/O. Buffers come in power of two size
+ * classes from MIN_SIZE to MAX_SIZE, and a released buffer goes back on the
+ * lock-free free list of its class, up to RETAINED_BYTES per class, so that a
+ * steady stream of calls reuses the same native memory. A channel reads into
+ * and writes from a direct buffer without the temporary copy the JDK makes
+ * for a heap buffer. Larger requests get an unpooled heap buffer.
+ * <p>
+ * There are no thread-local caches: skeleton workers may be virtual threads,
+ * each of which would hold buffers of its own. Connections instead keep the
+ * buffers they use on every call for as long as they are open, and return
+ * them when they close.
+ */
+final class BufferPool {
+    static final int MIN_SIZE = 4096;
+    static final int MAX_SIZE = 1 << 20;
+    // Bytes kept on the free list of each size class
+    static final int RETAINED_BYTES = 1 << 20;
+
+    private static final int MIN_SHIFT = Integer.numberOfTrailingZeros(MIN_SIZE);
+    private static final int CLASSES = Integer.numberOfTrailingZeros(MAX_SIZE) - MIN_SHIFT + 1;
+
+    /** Pool used by the transports and stub connections. */
+    static final BufferPool SHARED = new BufferPool();
+
+    private final Queue<ByteBuffer>[] free;
+    // Length of each free list, ConcurrentLinkedQueue.size is not constant time
+    private final AtomicInteger[] retained;
+    private final LongAdder allocated = new LongAdder();
+
+    @SuppressWarnings("unchecked")
+    BufferPool() {
+        free = new Queue[CLASSES];
+        retained = new AtomicInteger[CLASSES];
+        for (int i = 0; i < CLASSES; i++) {
+            free[i] = new ConcurrentLinkedQueue<>();
+            retained[i] = new AtomicInteger();
+        }
+    }
+
+    /**
+     * @return a cleared buffer of at least the given capacity, direct and
+     *         pooled up to MAX_SIZE, to be handed back with release
+     */
+    ByteBuffer acquire(int capacity) {
+        if (capacity > MAX_SIZE) return ByteBuffer.allocate(capacity);
+
+        int index = sizeClass(capacity);
+        ByteBuffer buffer = free[index].poll();
+        if (buffer != null) {
+            retained[index].decrementAndGet();
+            return buffer.clear();
+        }
+        allocated.increment();
+        return ByteBuffer.allocateDirect(MIN_SIZE << index);
+    }
+
+    /**
+     * Return a buffer obtained from acquire. The caller must not use it
+     * afterwards. Heap buffers, and buffers beyond the limit of their size
+     * class, are left to the garbage collector.
+     */
+    void release(ByteBuffer buffer) {
+        int capacity = buffer.capacity();
+        if (!buffer.isDirect() || capacity < MIN_SIZE || capacity > MAX_SIZE || Integer.bitCount(capacity) != 1)
+            return;
+
+        int index = sizeClass(capacity);
+        if (retained[index].incrementAndGet() * (long) capacity > RETAINED_BYTES) {
+            retained[index].decrementAndGet();
+            return;
+        }
+        free[index].add(buffer);
+    }
+
+    /**
+     * Make room for a frame that does not fit in a read buffer
+     * @param buffer buffer in read mode, released to the pool
+     * @param capacity number of bytes needed
+     * @return a buffer of at least that capacity, in write mode, holding the
+     *         bytes remaining in the buffer given
+     */
+    ByteBuffer grow(ByteBuffer buffer, int capacity) {
+        ByteBuffer larger = acquire(capacity);
+        larger.put(buffer);
+        release(buffer);
+        return larger;
+    }
+
+    /** @return the number of direct buffers allocated by the pool since it was created */
+    long allocated() {
+        return allocated.sum();
+    }
+
+    private static int sizeClass(int capacity) {
+        if (capacity <= MIN_SIZE) return 0;
+        return 32 - Integer.numberOfLeadingZeros(capacity - 1) - MIN_SHIFT;
+    }
+}
@@ -0,0 +1,151 @@
+package rmi;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded execution of the calls of one skeleton.
+ * At most maxWorkerThreads calls run at the same time; further calls wait in a
+ * queue of their priority class, of fixed capacity, and once that queue is
+ * full calls of the class are rejected instead of creating more threads.
+ * Each call queued starts a task that, once it has a thread, takes the next
+ * call from the queues by smooth weighted round robin: every non-empty class
+ * is credited its weight, the class with the most credit is served and
+ * debited the weights of all the non-empty classes. Classes are thus served
+ * in proportion to their weights, interleaved, and none starves.
+ * With platform threads the tasks run on a pool of worker threads. With
+ * virtual threads every task gets a new virtual thread, since virtual threads
+ * should not be pooled, and the thread limit is enforced with a semaphore.
+ */
+class CallExecutor {
+    private static final CallPriority[] PRIORITIES = CallPriority.values();
+
+    private final ThreadPoolExecutor pool;
+
+    // Virtual thread mode only
+    private final ThreadFactory virtualThreads;
+    private final Semaphore running;
+
+    private final int workers;
+    private final int capacity;
+    private final int[] weights = new int[PRIORITIES.length];
+
+    // Guarded by this: the waiting calls of each class, the round robin
+    // credit of each class, and the numbers of calls waiting and running
+    private final ArrayDeque<Runnable>[] queues;
+    private final int[] credits = new int[PRIORITIES.length];
+    private int queued = 0;
+    private int active = 0;
+    private boolean shutdown = false;
+
+    private final AtomicLong rejected = new AtomicLong();
+
+    @SuppressWarnings("unchecked")
+    CallExecutor(SkeletonConfig config) {
+        workers = config.getMaxWorkerThreads();
+        capacity = config.getQueueCapacity();
+        queues = new ArrayDeque[PRIORITIES.length];
+        for (CallPriority priority : PRIORITIES) {
+            queues[priority.ordinal()] = new ArrayDeque<>();
+            weights[priority.ordinal()] = config.getPriorityWeight(priority);
+        }
+
+        if (config.isVirtualThreads()) {
+            pool = null;
+            virtualThreads = Threads.virtual("rmi-call");
+            running = new Semaphore(workers);
+            return;
+        }
+
+        virtualThreads = null;
+        running = null;
+
+        // Admission is bounded by the class queues, the pool queue only holds one task per queued call
+        pool = new ThreadPoolExecutor(workers, workers, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                Threads.platform("rmi-worker"));
+        pool.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Queue a call for execution
+     * @param call the call
+     * @param priority priority class of the call
+     * @return false if the call was rejected because the queue of its class
+     *         is full or the executor has been shut down
+     */
+    synchronized boolean execute(Runnable call, CallPriority priority) {
+        ArrayDeque<Runnable> queue = queues[priority.ordinal()];
+        // A call that will find a free thread does not wait, whatever the capacity
+        if (shutdown || (queue.size() >= capacity && queued + active >= workers)) {
+            rejected.incrementAndGet();
+            return false;
+        }
+
+        // The task blocks on this lock until the call is queued
+        if (pool != null) {
+            pool.execute(this::runNext);
+        } else {
+            virtualThreads.newThread(() -> {
+                running.acquireUninterruptibly();
+                try {
+                    runNext();
+                } finally {
+                    running.release();
+                }
+            }).start();
+        }
+        queue.add(call);
+        queued++;
+        return true;
+    }
+
+    // Run the next call by priority, there is one for each task started
+    private void runNext() {
+        Runnable call;
+        synchronized (this) {
+            call = next();
+            queued--;
+            active++;
+        }
+
+        try {
+            call.run();
+        } finally {
+            synchronized (this) {
+                active--;
+            }
+        }
+    }
+
+    // Smooth weighted round robin over the non-empty queues
+    private Runnable next() {
+        int best = -1;
+        int total = 0;
+        for (int i = 0; i < queues.length; i++) {
+            if (queues[i].isEmpty()) continue;
+            credits[i] += weights[i];
+            total += weights[i];
+            if (best < 0 || credits[i] > credits[best]) best = i;
+        }
+
+        credits[best] -= total;
+        // A class that runs out of calls starts afresh when it has calls again
+        if (queues[best].size() == 1) credits[best] = 0;
+        return queues[best].poll();
+    }
+
+    /** Stop accepting calls, calls already queued still run. */
+    synchronized void shutdown() {
+        shutdown = true;
+        if (pool != null) pool.shutdown();
+    }
+
+    synchronized int queueDepth() { return queued; }
+
+    synchronized int queueDepth(CallPriority priority) { return queues[priority.ordinal()].size(); }
+
+    synchronized int activeCalls() { return active; }
+
+    long rejectedCalls() { return rejected.get(); }
+}
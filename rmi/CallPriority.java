@@ -0,0 +1,25 @@
+package rmi;
+
+/** Priority classes of remote calls.
+
+    <p>
+    Calls waiting for a worker thread of a skeleton are queued by priority
+    class, and the skeleton takes the next call to execute from the class
+    queues by weighted round robin, with the weights of its
+    <code>SkeletonConfig</code>. Calls of a class with a higher weight are
+    executed sooner, while the other classes still progress in proportion to
+    their weights. The class of a method is given by the <code>Priority</code>
+    annotation.
+ */
+public enum CallPriority
+{
+    /** Control plane calls, such as registration and commands sent by the
+        naming server, which should keep a low latency however busy the
+        skeleton is. */
+    CONTROL,
+    /** Calls with no particular priority. This is the default. */
+    NORMAL,
+    /** Data plane calls, such as file reads and writes, which may saturate
+        the skeleton. */
+    BULK
+}
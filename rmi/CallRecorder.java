@@ -0,0 +1,93 @@
+package rmi;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+/**
+ * Captures the remote call made by a lambda on a recording proxy, for the
+ * stub views that send calls later or without waiting: AsyncStub and Batch.
+ * The proxy does not call anything; it records the method and arguments and
+ * returns a default value, so that lambdas returning primitives complete.
+ * Recording is per thread, so one recorder can be shared.
+ */
+final class CallRecorder<T> implements InvocationHandler {
+    private final DynamicProxyHandler<T> handler;
+    private final T proxy;
+    private final ThreadLocal<Recorded> recorded = new ThreadLocal<>();
+
+    CallRecorder(DynamicProxyHandler<T> handler) {
+        this.handler = handler;
+
+        Class<T> c = handler.getInterface();
+        proxy = c.cast(Proxy.newProxyInstance(c.getClassLoader(), new Class[] { c }, this));
+    }
+
+    Recorded recordCall(AsyncStub.Call<T, ?> call) {
+        if (call == null) throw new NullPointerException("Argument cannot be null");
+        return record(() -> call.call(proxy));
+    }
+
+    Recorded recordTask(AsyncStub.Task<T> task) {
+        if (task == null) throw new NullPointerException("Argument cannot be null");
+        return record(() -> task.run(proxy));
+    }
+
+    private interface Recording {
+        void run() throws Exception;
+    }
+
+    /**
+     * Run a lambda against the proxy
+     * @return the call it made
+     * @throws IllegalArgumentException if the lambda does not make exactly one
+     *         call on the proxy, or throws an exception
+     */
+    private Recorded record(Recording recording) {
+        recorded.remove();
+        try {
+            recording.run();
+        } catch (Exception e) {
+            // The proxy throws nothing, the lambda did more than make a call
+            recorded.remove();
+            throw new IllegalArgumentException("Call lambda threw an exception", e);
+        }
+
+        Recorded r = recorded.get();
+        recorded.remove();
+        if (r == null)
+            throw new IllegalArgumentException("Call lambda made no call on the stub");
+        if (r.count > 1)
+            throw new IllegalArgumentException("Call lambda made more than one call on the stub");
+        return r;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) {
+        if (method.getDeclaringClass() == Object.class)
+            return handler.invokeLocal(method, args);
+
+        Recorded r = recorded.get();
+        if (r == null)
+            recorded.set(new Recorded(method, args));
+        else
+            r.count++;
+
+        Class<?> type = method.getReturnType();
+        if (!type.isPrimitive() || type == void.class) return null;
+        return Array.get(Array.newInstance(type, 1), 0);
+    }
+
+    /** A recorded call. */
+    static final class Recorded {
+        final Method method;
+        final Object[] args;
+        private int count = 1;
+
+        Recorded(Method method, Object[] args) {
+            this.method = method;
+            this.args = args;
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package rmi;
+
+/** Thrown by a stub when the skeleton rejects a call because its execution
+    queue is full.
+
+    <p>
+    A rejected call has not been executed, so it is safe to retry it later.
+ */
+public class CallRejectedException extends RMIException
+{
+    /** Creates a <code>CallRejectedException</code> with the given message
+        string. */
+    public CallRejectedException(String message)
+    {
+        super(message);
+    }
+}
@@ -0,0 +1,27 @@
+package rmi;
+
+/** Thrown by a stub when the deadline of a call expires before its reply is
+    received.
+
+    <p>
+    The deadline is also sent to the skeleton, which does not start a call
+    whose deadline has passed and interrupts the thread executing a call when
+    its deadline expires. A call that timed out may nevertheless have been
+    executed, in part or completely.
+ */
+public class CallTimeoutException extends RMIException
+{
+    /** Creates a <code>CallTimeoutException</code> with the given message
+        string. */
+    public CallTimeoutException(String message)
+    {
+        super(message);
+    }
+
+    /** Creates a <code>CallTimeoutException</code> with a message string and
+        the given cause. */
+    public CallTimeoutException(String message, Throwable cause)
+    {
+        super(message, cause);
+    }
+}
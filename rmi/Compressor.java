@@ -0,0 +1,237 @@
+package rmi;
+
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Adaptive compression of the frames sent on one connection.
+ * A frame whose body and regions together exceed THRESHOLD bytes is deflated
+ * into the body of a frame with the COMPRESSED bit set in its type:
+ * <pre>
+ * int    length    length of the original body
+ * int    count     number of original regions
+ * int[]  lengths   length of each original region
+ * byte[] deflated  original body and regions, one after the other
+ * </pre>
+ * The compression ratio achieved is tracked as a moving average. While it is
+ * poor, frames are sent as they are and only one eligible frame in
+ * PROBE_INTERVAL is compressed, to notice when the data becomes compressible
+ * again. A frame that would not shrink is always sent as it is.
+ * Compressed frames may only be sent on connections on which both sides
+ * enabled compression, see Marshal.COMPRESSION. They are inflated where they
+ * are decoded, by the skeleton's worker threads and the stubs' calling
+ * threads, up to a configured size.
+ * <p>
+ * Deflaters and inflaters hold native zlib memory that is only freed by end,
+ * or late by the garbage collector. They are pooled rather than thread-local,
+ * since skeleton workers may be a new virtual thread for each call, and those
+ * released beyond RETAINED are ended at once.
+ */
+final class Compressor {
+    /** Smallest frame content, in bytes, worth compressing. */
+    static final int THRESHOLD = 1024;
+    // Compressed size over original size above which compression is not worth its cost
+    private static final double POOR_RATIO = 0.9;
+    private static final int PROBE_INTERVAL = 32;
+    // Weight of the latest frame in the moving average
+    private static final double WEIGHT = 0.25;
+
+    /** Default largest original content of a frame inflated, in bytes. */
+    static final int MAX_INFLATED = 64 << 20;
+    // Initial size of the arrays content is inflated into
+    private static final int INFLATE_SIZE = 8192;
+
+    // Deflaters and inflaters each kept for reuse, compression is bound by the processors
+    static final int RETAINED = 2 * Runtime.getRuntime().availableProcessors();
+
+    private static final BlockingQueue<Deflater> deflaters = new ArrayBlockingQueue<>(RETAINED);
+    private static final BlockingQueue<Inflater> inflaters = new ArrayBlockingQueue<>(RETAINED);
+
+    // Updated by all threads writing to the connection; a lost update only delays adaptation
+    private volatile double ratio = 0;
+    private final AtomicInteger skipped = new AtomicInteger();
+
+    /**
+     * Compress a frame about to be sent
+     * @return the compressed frame, or the frame itself if it is too small,
+     *         does not shrink, or the connection's data is not compressible
+     */
+    Frame compress(Frame frame) {
+        long size = frame.body.length;
+        for (ByteBuffer region : frame.regions) size += region.remaining();
+        if (size < THRESHOLD || frame.length() > Frame.MAX_LENGTH) return frame;
+        if (ratio > POOR_RATIO && skipped.incrementAndGet() % PROBE_INTERVAL != 0) return frame;
+
+        byte[] compressed = deflate(frame, (int) size);
+        double achieved = compressed == null ? 1 : (double) compressed.length / size;
+        ratio = ratio + WEIGHT * (achieved - ratio);
+
+        if (compressed == null) return frame;
+        return Frame.compressed(frame.type, frame.callId, compressed);
+    }
+
+    /** @return false while the data sent does not compress well enough to be worth compressing */
+    boolean isCompressing() {
+        return ratio <= POOR_RATIO;
+    }
+
+    // The compressed body, or null if it would not be smaller than the original content
+    private static byte[] deflate(Frame frame, int size) {
+        int table = 8 + 4 * frame.regions.length;
+        byte[] out = new byte[table + size];
+
+        ByteBuffer header = ByteBuffer.wrap(out);
+        header.putInt(frame.body.length).putInt(frame.regions.length);
+        for (ByteBuffer region : frame.regions) header.putInt(region.remaining());
+
+        Deflater deflater = deflater();
+        try {
+            int position = table;
+
+            deflater.setInput(frame.body);
+            position = deflate(deflater, out, position);
+            for (ByteBuffer region : frame.regions) {
+                if (position < 0) break;
+                deflater.setInput(region.duplicate());
+                position = deflate(deflater, out, position);
+            }
+            if (position < 0) return null;
+
+            deflater.finish();
+            while (!deflater.finished()) {
+                if (position == out.length) return null;
+                position += deflater.deflate(out, position, out.length - position);
+            }
+            return position < out.length ? Arrays.copyOf(out, position) : null;
+        } finally {
+            release(deflater);
+        }
+    }
+
+    // Deflate the current input, return the new position or -1 if the output is full
+    private static int deflate(Deflater deflater, byte[] out, int position) {
+        while (!deflater.needsInput()) {
+            if (position == out.length) return -1;
+            position += deflater.deflate(out, position, out.length - position);
+        }
+        return position;
+    }
+
+    /**
+     * Restore a frame received with the COMPRESSED bit set. The arrays of the
+     * body and regions grow as bytes are inflated, so that the lengths the
+     * frame declares are not allocated before they are backed by content.
+     * @param limit largest original content accepted, in bytes
+     * @throws StreamCorruptedException if the body is not a valid compressed
+     *         frame, or declares more content than the limit
+     */
+    static Frame inflate(Frame frame, int limit) throws StreamCorruptedException {
+        ByteBuffer in = ByteBuffer.wrap(frame.body);
+        int[] lengths = table(in);
+        long total = 0;
+        for (int length : lengths) total += length;
+        if (total > limit)
+            throw new StreamCorruptedException("Compressed frame of " + total + " bytes exceeds the limit of " + limit);
+
+        Inflater inflater = inflater();
+        inflater.setInput(frame.body, in.position(), in.remaining());
+        try {
+            byte[] body = inflate(inflater, lengths[0]);
+
+            int count = lengths.length - 1;
+            ByteBuffer[] regions = count == 0 ? Frame.NO_REGIONS : new ByteBuffer[count];
+            for (int i = 0; i < count; i++) regions[i] = ByteBuffer.wrap(inflate(inflater, lengths[i + 1]));
+
+            if (!inflater.finished() && (inflater.inflate(new byte[1]) > 0 || !inflater.finished()))
+                throw new StreamCorruptedException("Compressed frame longer than declared");
+
+            return new Frame(frame.type, frame.callId, body, regions);
+        } catch (DataFormatException e) {
+            throw new StreamCorruptedException("Invalid compressed frame: " + e.getMessage());
+        } finally {
+            release(inflater);
+        }
+    }
+
+    /**
+     * Inflate the start of the body of a compressed frame, to peek at what it
+     * calls without inflating the rest
+     * @return a frame of the original type whose body is at most the given
+     *         number of bytes of the original body
+     */
+    static Frame head(Frame frame, int length) throws StreamCorruptedException {
+        ByteBuffer in = ByteBuffer.wrap(frame.body);
+        int[] lengths = table(in);
+
+        Inflater inflater = inflater();
+        inflater.setInput(frame.body, in.position(), in.remaining());
+        try {
+            return new Frame(frame.type, frame.callId, inflate(inflater, Math.min(length, lengths[0])));
+        } catch (DataFormatException e) {
+            throw new StreamCorruptedException("Invalid compressed frame: " + e.getMessage());
+        } finally {
+            release(inflater);
+        }
+    }
+
+    // The lengths of the original body and regions, the buffer is left at the deflated content
+    private static int[] table(ByteBuffer in) throws StreamCorruptedException {
+        if (in.remaining() < 8) throw new StreamCorruptedException("Truncated compressed frame");
+
+        int bodyLength = in.getInt();
+        int count = in.getInt();
+        if (bodyLength < 0) throw new StreamCorruptedException("Invalid body length " + bodyLength);
+        if (count < 0 || count > in.remaining() / 4)
+            throw new StreamCorruptedException("Invalid region count " + count);
+
+        int[] lengths = new int[1 + count];
+        lengths[0] = bodyLength;
+        for (int i = 1; i < lengths.length; i++) {
+            lengths[i] = in.getInt();
+            if (lengths[i] < 0) throw new StreamCorruptedException("Invalid region length " + lengths[i]);
+        }
+        return lengths;
+    }
+
+    // The next length bytes of content, in an array doubled as it fills up to its final length
+    private static byte[] inflate(Inflater inflater, int length) throws DataFormatException, StreamCorruptedException {
+        byte[] out = new byte[Math.min(length, INFLATE_SIZE)];
+        int position = 0;
+        while (position < length) {
+            if (position == out.length) out = Arrays.copyOf(out, (int) Math.min(length, 2L * out.length));
+            int count = inflater.inflate(out, position, out.length - position);
+            if (count == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary()))
+                throw new StreamCorruptedException("Compressed frame shorter than declared");
+            position += count;
+        }
+        return out;
+    }
+
+    // Fast compression: the point is to save transfer time, not space
+    private static Deflater deflater() {
+        Deflater deflater = deflaters.poll();
+        return deflater != null ? deflater : new Deflater(Deflater.BEST_SPEED);
+    }
+
+    private static void release(Deflater deflater) {
+        deflater.reset();
+        if (!deflaters.offer(deflater)) deflater.end();
+    }
+
+    private static Inflater inflater() {
+        Inflater inflater = inflaters.poll();
+        return inflater != null ? inflater : new Inflater();
+    }
+
+    private static void release(Inflater inflater) {
+        inflater.reset();
+        if (!inflaters.offer(inflater)) inflater.end();
+    }
+}
@@ -0,0 +1,387 @@
+package rmi;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Persistent, multiplexed client connection to a skeleton.
+ * Any number of threads may have calls in flight on one connection. Each call
+ * is sent as a frame with a fresh call ID; a reader thread demultiplexes the
+ * replies, which may arrive in any order, and completes the waiting callers.
+ * The protocol version is negotiated with a HELLO exchange before the
+ * connection is used for calls.
+ * One-way calls have negative call IDs and no pending entry; the skeleton
+ * answers them only if they fail, and the failure goes to the pool's listener.
+ * A connection to a skeleton on this host goes through the skeleton's Unix
+ * domain socket when it has one, see LocalSockets, and through TCP otherwise.
+ * Calls are encoded into, and replies read from, direct buffers of the
+ * BufferPool that the connection holds until it is closed.
+ */
+class Connection {
+    // Initial size of the buffer replies are read into, and size of the buffer calls are written from
+    private static final int BUFFER_SIZE = 8192;
+
+    final InetSocketAddress address;
+    // Whether the connection goes through a Unix domain socket
+    final boolean local;
+    // Protocol version agreed with the skeleton, see Marshal
+    final int version;
+    // Compresses the frames sent, null if compression is off for the connection
+    private final Compressor compressor;
+    // Largest size a compressed reply may inflate to
+    private final int maxInflated;
+    private final ConnectionPool pool;
+    private final SocketChannel channel;
+    // A lock rather than a monitor, so that a virtual thread blocked in a write does not pin its carrier
+    private final ReentrantLock writeLock = new ReentrantLock();
+    // Holds each call up to its regions while it is written, guarded by writeLock, null once closed
+    private ByteBuffer output = BufferPool.SHARED.acquire(BUFFER_SIZE);
+
+    private final Map<Integer, Reply> pending = new ConcurrentHashMap<>();
+    private final AtomicInteger nextCallId = new AtomicInteger();
+    private volatile long lastUsed;
+    private volatile boolean closed = false;
+
+    private Connection(ConnectionPool pool, InetSocketAddress address, SocketChannel channel, boolean local,
+                       int timeout) throws IOException {
+        this.pool = pool;
+        this.address = address;
+        this.channel = channel;
+        this.local = local;
+
+        // Negotiate the protocol version before the reader thread takes over
+        // the channel. Only the socket adaptor stream honours the timeout; a
+        // domain socket has none, but its peer is a skeleton of this host that
+        // has already accepted the connection. The stream is not buffered, so
+        // that it reads nothing past the HELLO frame.
+        // Compression is used only if both sides offer it.
+        write(Frame.hello(Marshal.VERSION, pool.isCompression()));
+        if (!local) channel.socket().setSoTimeout(timeout);
+        Frame hello = Frame.read(new DataInputStream(local
+                ? Channels.newInputStream(channel) : channel.socket().getInputStream()));
+        version = hello.version();
+        if (!local) channel.socket().setSoTimeout(0);
+        boolean compression = pool.isCompression() && version >= Marshal.COMPRESSION && hello.offersCompression();
+        compressor = compression ? new Compressor() : null;
+        maxInflated = pool.getMaxInflatedLength();
+        lastUsed = System.currentTimeMillis();
+
+        Thread reader = new Thread(this::readReplies, "rmi-connection-" + address);
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Open a connection to the given skeleton address
+     * @param pool pool the connection belongs to, notified of failed one-way calls
+     * @param address address of the skeleton
+     * @param timeout timeout in milliseconds for connecting and for the
+     *                version negotiation, 0 for no timeout
+     * @return the connection opened
+     * @throws IOException if the connection cannot be established
+     */
+    static Connection open(ConnectionPool pool, InetSocketAddress address, int timeout) throws IOException {
+        if (pool.isLocalSockets() && LocalSockets.isLocal(address)) {
+            Path path = LocalSockets.path(address.getPort());
+            if (Files.exists(path)) {
+                try {
+                    return openLocal(pool, address, path, timeout);
+                } catch (IOException e) {
+                    // Left over by a skeleton that is gone, or not accepting: TCP is tried
+                }
+            }
+        }
+
+        SocketChannel channel = SocketChannel.open();
+        try {
+            channel.socket().setTcpNoDelay(true);
+            channel.socket().setKeepAlive(true);
+            channel.socket().connect(new InetSocketAddress(address.getAddress(), address.getPort()), timeout);
+            return new Connection(pool, address, channel, false, timeout);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static Connection openLocal(ConnectionPool pool, InetSocketAddress address, Path path, int timeout)
+            throws IOException {
+        SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+        try {
+            channel.connect(UnixDomainSocketAddress.of(path));
+            return new Connection(pool, address, channel, true, timeout);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Send a request frame
+     * @param request frame to send, with a fresh call id
+     * @return future completed with the reply frame, or exceptionally with an
+     *         IOException if the connection fails first
+     */
+    Reply call(Frame request) {
+        return call(request, 0);
+    }
+
+    /**
+     * Send a request frame, giving up on the reply after a timeout
+     * @param timeout milliseconds to wait for the reply, 0 for no limit
+     * @return future completed as by call(Frame), or exceptionally with a
+     *         TimeoutException if the reply does not arrive in time, in which
+     *         case a late reply is dropped
+     */
+    Reply call(Frame request, long timeout) {
+        int callId = nextCallId.incrementAndGet() & Integer.MAX_VALUE;
+        Reply reply = new Reply();
+
+        // Fails this call only, rather than the connection while partly written
+        if (request.length() > Frame.MAX_LENGTH) {
+            reply.completeExceptionally(new IOException("Call of " + request.length()
+                    + " bytes exceeds the maximum frame length"));
+            return reply;
+        }
+        pending.put(callId, reply);
+        touch();
+        if (timeout > 0) {
+            reply.orTimeout(timeout, TimeUnit.MILLISECONDS).whenComplete((frame, failure) -> {
+                if (failure instanceof TimeoutException) pending.remove(callId, reply);
+            });
+        }
+
+        // The reader fails all pending calls after setting closed, so a call
+        // registered after that must fail itself
+        if (closed) {
+            pending.remove(callId);
+            reply.completeExceptionally(new IOException("Connection closed"));
+            return reply;
+        }
+
+        try {
+            reply.sent = System.nanoTime();
+            send(request, callId);
+        } catch (IOException e) {
+            close(e);
+        }
+        return reply;
+    }
+
+    /**
+     * Send a one-way call without waiting for it to be executed
+     * @param request ONEWAY frame, or CALL frame if the skeleton does not
+     *                support one-way calls, whose reply is then dropped
+     * @throws IOException if the call cannot be sent
+     */
+    void send(Frame request) throws IOException {
+        if (request.type != Frame.ONEWAY) {
+            call(request).whenComplete((reply, failure) -> {
+                if (reply != null && reply.type != Frame.RETURN) oneWayFailed(reply);
+            });
+            return;
+        }
+
+        if (request.length() > Frame.MAX_LENGTH)
+            throw new IOException("Call of " + request.length() + " bytes exceeds the maximum frame length");
+        if (closed) throw new IOException("Connection closed");
+        touch();
+
+        int callId = nextCallId.incrementAndGet() | Integer.MIN_VALUE;
+        try {
+            send(request, callId);
+        } catch (IOException e) {
+            close(e);
+            throw e;
+        }
+    }
+
+    // Compression is done by the calling thread, outside the write lock
+    private void send(Frame request, int callId) throws IOException {
+        Frame frame = compressor == null ? request : compressor.compress(request);
+        writeLock.lock();
+        try {
+            write(frame.withCallId(callId));
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Write a frame, the caller holds the write lock. The frame up to its
+     * regions is copied into the connection's direct buffer unless it is
+     * larger, and a gathering write sends it with any bulk regions without
+     * copying them together.
+     */
+    private void write(Frame frame) throws IOException {
+        if (output == null) throw new IOException("Connection closed");
+        int length = frame.headerLength();
+        ByteBuffer header = length <= output.capacity() ? output.clear() : ByteBuffer.allocate(length);
+        frame.encodeHeader(header);
+        header.flip();
+
+        if (frame.regions.length == 0) {
+            while (header.hasRemaining()) channel.write(header);
+            return;
+        }
+        ByteBuffer[] buffers = frame.withRegions(header);
+        ByteBuffer last = buffers[buffers.length - 1];
+        while (last.hasRemaining()) channel.write(buffers);
+    }
+
+    // Reads straight from the channel into a pooled buffer, as the selector transport does
+    private void readReplies() {
+        ByteBuffer input = BufferPool.SHARED.acquire(BUFFER_SIZE);
+        try {
+            // Whether the buffer holds the start of a frame, and when that start was read
+            boolean partial = false;
+            long firstByte = 0;
+            while (true) {
+                if (channel.read(input) < 0) throw new EOFException();
+                long now = System.nanoTime();
+                if (!partial) firstByte = now;
+
+                input.flip();
+                Frame frame;
+                while ((frame = Frame.parse(input)) != null) {
+                    received(frame, firstByte);
+                    firstByte = now;
+                }
+                partial = input.hasRemaining();
+
+                int length = Frame.pendingLength(input);
+                if (length >= 0 && 4 + length > input.capacity()) {
+                    input = BufferPool.SHARED.grow(input, 4 + length);
+                } else if (!partial && input.capacity() > BUFFER_SIZE) {
+                    // Give a buffer grown for a large reply back to the pool
+                    BufferPool.SHARED.release(input);
+                    input = BufferPool.SHARED.acquire(BUFFER_SIZE);
+                } else {
+                    input.compact();
+                }
+            }
+        } catch (IOException e) {
+            close(e);
+        } finally {
+            BufferPool.SHARED.release(input);
+        }
+    }
+
+    private void received(Frame frame, long firstByte) throws StreamCorruptedException {
+        if (frame.compressed && compressor == null)
+            throw new StreamCorruptedException("Compressed frame on a connection without compression");
+        touch();
+        if (frame.callId < 0) {
+            oneWayFailed(frame);
+            return;
+        }
+        Reply reply = pending.remove(frame.callId);
+        if (reply != null) {
+            reply.firstByte = firstByte;
+            reply.complete(frame);
+        }
+    }
+
+    /**
+     * Inflate a reply received on the connection, if compressed. Replies are
+     * inflated by the thread decoding them rather than by the reader thread.
+     * @throws StreamCorruptedException if the reply is malformed or inflates
+     *         to more than the connection's limit
+     */
+    Frame inflated(Frame reply) throws StreamCorruptedException {
+        return reply.compressed ? Compressor.inflate(reply, maxInflated) : reply;
+    }
+
+    // The THROW or REJECT frame answering a one-way call
+    private void oneWayFailed(Frame reply) {
+        Throwable cause;
+        try {
+            reply = inflated(reply);
+        } catch (StreamCorruptedException e) {
+            pool.oneWayFailed(address, new RMIException("Unable to decode failure of one-way call to "
+                    + address, e));
+            return;
+        }
+        if (reply.type == Frame.REJECT) {
+            cause = new CallRejectedException(new String(reply.body, StandardCharsets.UTF_8));
+        } else {
+            try {
+                Object value = Marshal.decode(version, reply);
+                cause = value instanceof Throwable ? (Throwable) value
+                        : new RMIException("Unexpected reply to one-way call from " + address);
+            } catch (IOException | ClassNotFoundException e) {
+                cause = new RMIException("Unable to decode failure of one-way call to " + address, e);
+            }
+        }
+        pool.oneWayFailed(address, cause);
+    }
+
+    /** Number of calls waiting for a reply. */
+    int inFlight() { return pending.size(); }
+
+    /**
+     * Health check performed on checkout. The reader thread closes the
+     * connection as soon as the skeleton closes it or the stream goes out of
+     * sync.
+     * @return true if the connection can carry another call
+     */
+    boolean isHealthy() { return !closed && channel.isOpen(); }
+
+    /** @return true if no call is in flight and the connection has not been used for the given time */
+    boolean isIdle(long timeout) {
+        return pending.isEmpty() && System.currentTimeMillis() - lastUsed >= timeout;
+    }
+
+    void touch() { lastUsed = System.currentTimeMillis(); }
+
+    void close() { close(new IOException("Connection closed")); }
+
+    private void close(IOException cause) {
+        closed = true;
+        try {
+            channel.close();
+        } catch (IOException e) { }
+
+        // A write in progress has failed with the channel closed and released the lock
+        writeLock.lock();
+        try {
+            if (output != null) BufferPool.SHARED.release(output);
+            output = null;
+        } finally {
+            writeLock.unlock();
+        }
+
+        for (Integer callId : pending.keySet()) {
+            Reply reply = pending.remove(callId);
+            if (reply != null) reply.completeExceptionally(cause);
+        }
+    }
+
+    /** Future reply to a call, which also times the wait for it. */
+    static final class Reply extends CompletableFuture<Frame> {
+        // System.nanoTime when the call was handed to the socket, and when the first byte of the reply was read
+        private volatile long sent;
+        private volatile long firstByte;
+
+        /** @return nanoseconds from sending the call to the first byte of the reply, or -1 if there is no reply */
+        long firstByteNanos() {
+            long received = firstByte;
+            return received == 0 ? -1 : received - sent;
+        }
+    }
+}
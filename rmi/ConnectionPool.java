@@ -0,0 +1,372 @@
+package rmi;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/** Pool of persistent stub connections, keyed by skeleton address.
+
+    <p>
+    Connections are multiplexed: many calls, from any number of threads, may be
+    in flight on one connection at the same time. A stub call is sent on the
+    least loaded open connection to its skeleton. A new connection is opened
+    only when every open connection already carries
+    <code>maxCallsPerConnection</code> calls, and at most
+    <code>maxConnectionsPerEndpoint</code> connections are open to any one
+    address. Connections are checked for health when they are selected and are
+    closed after <code>idleTimeout</code> milliseconds without use.
+
+    <p>
+    All stubs share the pool returned by <code>getDefault</code>. Stub calls,
+    including those that wait for a connection, may be made from virtual
+    threads.
+
+    <p>
+    Calls to <code>OneWay</code> methods do not wait for a reply. Exceptions
+    they cause after being sent are passed to the listener set with
+    <code>setOneWayErrorListener</code>, if any.
+ */
+public class ConnectionPool
+{
+    private static final ConnectionPool defaultPool = new ConnectionPool();
+
+    private final Map<InetSocketAddress, Endpoint> endpoints = new ConcurrentHashMap<>();
+
+    private volatile int maxConnectionsPerEndpoint = 4;
+    private volatile int maxCallsPerConnection = 64;
+    private volatile long idleTimeout = 30000;
+    private volatile int connectTimeout = 10000;
+    private volatile boolean compression = false;
+    private volatile int maxInflatedLength = Compressor.MAX_INFLATED;
+    private volatile boolean localSockets = true;
+    private volatile boolean inProcessCalls = false;
+    private volatile CopyPolicy copyPolicy = CopyPolicy.COPY;
+
+    private volatile ErrorListener oneWayErrorListener;
+
+    private volatile Thread reaper;
+
+    /** Returns the pool shared by all stubs. */
+    public static ConnectionPool getDefault()
+    {
+        return defaultPool;
+    }
+
+    /** Sets the maximum number of connections open to a single skeleton. */
+    public void setMaxConnectionsPerEndpoint(int max)
+    {
+        if (max < 1) throw new IllegalArgumentException("At least one connection is required");
+        maxConnectionsPerEndpoint = max;
+    }
+
+    public int getMaxConnectionsPerEndpoint()
+    {
+        return maxConnectionsPerEndpoint;
+    }
+
+    /** Sets the number of concurrent calls on a connection above which the
+        pool opens another connection to the same skeleton, if the
+        per-endpoint limit allows it. */
+    public void setMaxCallsPerConnection(int max)
+    {
+        if (max < 1) throw new IllegalArgumentException("At least one call is required");
+        maxCallsPerConnection = max;
+    }
+
+    public int getMaxCallsPerConnection()
+    {
+        return maxCallsPerConnection;
+    }
+
+    /** Sets the time, in milliseconds, after which an unused connection is
+        closed. This should be shorter than the skeleton keep-alive timeout.
+        The new timeout applies at once to the connections already open. */
+    public void setIdleTimeout(long idleTimeout)
+    {
+        if (idleTimeout <= 0) throw new IllegalArgumentException("Idle timeout must be positive");
+        this.idleTimeout = idleTimeout;
+
+        // The reaper may be waiting out a period of the previous timeout
+        Thread reaper = this.reaper;
+        if (reaper != null) LockSupport.unpark(reaper);
+    }
+
+    public long getIdleTimeout()
+    {
+        return idleTimeout;
+    }
+
+    /** Sets the timeout, in milliseconds, for establishing a new connection. */
+    public void setConnectTimeout(int connectTimeout)
+    {
+        this.connectTimeout = connectTimeout;
+    }
+
+    /** Enables compression on connections opened from now on to skeletons
+        that enable it too. Calls and replies larger than a threshold are then
+        compressed, and a connection stops compressing while the data sent on
+        it does not compress well. Compressed replies on other connections are
+        protocol errors. The default is <code>false</code>. */
+    public void setCompression(boolean compression)
+    {
+        this.compression = compression;
+    }
+
+    public boolean isCompression()
+    {
+        return compression;
+    }
+
+    /** Sets the largest size, in bytes, to which a compressed reply may
+        inflate, for connections opened from now on. Larger replies fail the
+        call without being inflated. The default is 64 MiB. */
+    public void setMaxInflatedLength(int maxInflatedLength)
+    {
+        if (maxInflatedLength < 0 || maxInflatedLength > Frame.MAX_LENGTH)
+            throw new IllegalArgumentException("Invalid inflated length " + maxInflatedLength);
+        this.maxInflatedLength = maxInflatedLength;
+    }
+
+    public int getMaxInflatedLength()
+    {
+        return maxInflatedLength;
+    }
+
+    /** Enables connecting to skeletons on this host through their Unix domain
+        socket, for connections opened from now on. A skeleton listens on a
+        domain socket when its configuration enables it; connections to other
+        skeletons, and to remote hosts, use TCP. The default is
+        <code>true</code>. */
+    public void setLocalSockets(boolean localSockets)
+    {
+        this.localSockets = localSockets;
+    }
+
+    public boolean isLocalSockets()
+    {
+        return localSockets;
+    }
+
+    /** Enables executing calls to skeletons running in this Java virtual
+        machine directly on their server object, on the calling thread, without
+        going through a socket. The stub's address must be an address of the
+        local host with the port of a running skeleton for the same interface.
+        The skeleton's worker pool, and the limit on its queue, are bypassed,
+        while deadlines still apply. One-way calls, batches and asynchronous
+        calls still go through a connection, and in-process calls are not
+        recorded in <code>StubMetrics</code>. Values are copied according to
+        the copy policy. The default is <code>false</code>. */
+    public void setInProcessCalls(boolean inProcessCalls)
+    {
+        this.inProcessCalls = inProcessCalls;
+    }
+
+    public boolean isInProcessCalls()
+    {
+        return inProcessCalls;
+    }
+
+    /** Sets the treatment of the arguments, results and exceptions of
+        in-process calls. The default is <code>CopyPolicy.COPY</code>. */
+    public void setCopyPolicy(CopyPolicy copyPolicy)
+    {
+        if (copyPolicy == null) throw new NullPointerException("Copy policy is null");
+        this.copyPolicy = copyPolicy;
+    }
+
+    public CopyPolicy getCopyPolicy()
+    {
+        return copyPolicy;
+    }
+
+    /** Sets the listener notified when a one-way call fails after it has
+        been sent, or removes it if <code>listener</code> is <code>null</code>.
+        The listener is called on the thread reading replies from the
+        connection, and should return quickly. */
+    public void setOneWayErrorListener(ErrorListener listener)
+    {
+        oneWayErrorListener = listener;
+    }
+
+    /** Returns the number of connections open to the given address. */
+    public int openConnections(InetSocketAddress address)
+    {
+        Endpoint endpoint = endpoints.get(address);
+        if (endpoint == null) return 0;
+
+        endpoint.lock.lock();
+        try {
+            endpoint.connections.removeIf(connection -> !connection.isHealthy());
+            return endpoint.connections.size();
+        } finally {
+            endpoint.lock.unlock();
+        }
+    }
+
+    /** Selects a healthy connection to the given address for a call, opening
+        a new one if every open connection is at
+        <code>maxCallsPerConnection</code> and the per-endpoint limit has not
+        been reached.
+
+        @throws RMIException If no connection is open and a new one cannot be
+                             established.
+     */
+    Connection acquire(InetSocketAddress address) throws RMIException
+    {
+        Endpoint endpoint = endpoints.computeIfAbsent(address, a -> new Endpoint());
+        startReaper();
+
+        endpoint.lock.lock();
+        try {
+            while (true) {
+                endpoint.connections.removeIf(connection -> !connection.isHealthy());
+
+                Connection least = null;
+                for (Connection connection : endpoint.connections) {
+                    if (least == null || connection.inFlight() < least.inFlight())
+                        least = connection;
+                }
+
+                boolean full = endpoint.connections.size() + endpoint.opening >= maxConnectionsPerEndpoint;
+                if (least != null && (least.inFlight() < maxCallsPerConnection || full))
+                    return least;
+
+                if (!full) {
+                    endpoint.opening++;
+                    break;
+                }
+
+                // The only connections allowed are still being opened
+                try {
+                    endpoint.opened.await(connectTimeout, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RMIException("Interrupted waiting for a connection", e);
+                }
+            }
+        } finally {
+            endpoint.lock.unlock();
+        }
+
+        // A slot has been reserved, connect outside the lock.
+        Connection connection = null;
+        try {
+            connection = Connection.open(this, address, connectTimeout);
+            return connection;
+        } catch (IOException e) {
+            throw new RMIException("Unable to connect to " + address, e);
+        } finally {
+            endpoint.lock.lock();
+            try {
+                endpoint.opening--;
+                if (connection != null) endpoint.connections.add(connection);
+                endpoint.opened.signalAll();
+            } finally {
+                endpoint.lock.unlock();
+            }
+        }
+    }
+
+    /** Closes all connections that have carried no call for longer than the
+        idle timeout. */
+    public void evictIdle()
+    {
+        for (Endpoint endpoint : endpoints.values()) {
+            endpoint.lock.lock();
+            try {
+                Iterator<Connection> it = endpoint.connections.iterator();
+                while (it.hasNext()) {
+                    Connection connection = it.next();
+                    if (connection.isHealthy() && !connection.isIdle(idleTimeout)) continue;
+
+                    it.remove();
+                    connection.close();
+                }
+            } finally {
+                endpoint.lock.unlock();
+            }
+        }
+    }
+
+    /** Closes all connections. Calls in flight on them fail with
+        <code>RMIException</code>. */
+    public void clear()
+    {
+        for (Endpoint endpoint : endpoints.values()) {
+            endpoint.lock.lock();
+            try {
+                for (Connection connection : endpoint.connections) connection.close();
+                endpoint.connections.clear();
+            } finally {
+                endpoint.lock.unlock();
+            }
+        }
+    }
+
+    void oneWayFailed(InetSocketAddress address, Throwable cause)
+    {
+        ErrorListener listener = oneWayErrorListener;
+        if (listener == null) return;
+
+        try {
+            listener.oneWayFailed(address, cause);
+        } catch (RuntimeException e) {
+            // A faulty listener must not stop the connection's reader thread
+        }
+    }
+
+    private void startReaper()
+    {
+        if (reaper == null) startReaperThread();
+    }
+
+    private synchronized void startReaperThread()
+    {
+        if (reaper != null) return;
+
+        // Parked rather than sleeping, so that setIdleTimeout can wake it early
+        reaper = new Thread(() -> {
+            while (true) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(Math.max(idleTimeout / 2, 100)));
+                if (Thread.interrupted()) return;
+                evictIdle();
+            }
+        }, "rmi-connection-reaper");
+        reaper.setDaemon(true);
+        reaper.start();
+    }
+
+    /** Listener notified of the failures of one-way calls. */
+    public interface ErrorListener
+    {
+        /** Called when a one-way call fails after it has been sent.
+
+            @param address Address of the skeleton the call was sent to.
+            @param cause Exception thrown by the remote method,
+                         <code>CallRejectedException</code> if the skeleton
+                         was too busy to accept the call, or
+                         <code>RMIException</code> if the call could not be
+                         executed.
+         */
+        void oneWayFailed(InetSocketAddress address, Throwable cause);
+    }
+
+    /** Connections to a single skeleton address. A lock is used rather than
+        a monitor so that virtual threads waiting for a connection do not pin
+        their carrier threads. */
+    private static class Endpoint
+    {
+        final ReentrantLock lock = new ReentrantLock();
+        final Condition opened = lock.newCondition();
+        final List<Connection> connections = new ArrayList<>();
+        int opening = 0;
+    }
+}
@@ -0,0 +1,23 @@
+package rmi;
+
+/** Treatment of the arguments, results and exceptions of calls made through a
+    stub to a skeleton in the same Java virtual machine.
+
+    <p>
+    Such calls are executed directly on the server object, on the calling
+    thread, when <code>ConnectionPool.setInProcessCalls</code> enables them.
+ */
+public enum CopyPolicy
+{
+    /** Values are copied by serialization, as a call over the network copies
+        them, so that neither side sees the other modify them. Instances of
+        immutable types, see <code>Immutable</code>, are passed by reference.
+        A value that cannot be serialized fails the call with
+        <code>RMIException</code>, as it would over the network. This is the
+        default. */
+    COPY,
+    /** Values are passed by reference. This is the fastest policy, but the
+        server may modify arguments the caller still holds, and the caller may
+        modify results the server still holds. */
+    REFERENCE
+}
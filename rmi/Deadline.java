@@ -0,0 +1,100 @@
+package rmi;
+
+import java.util.concurrent.TimeUnit;
+
+/** Deadline for the stub calls made by the current thread.
+
+    <p>
+    A deadline applies to every call made through a stub, including an
+    asynchronous stub, by the thread that opened it, until it is closed. It is
+    intended to be used with <code>try</code>-with-resources:
+
+    <pre>
+    try(Deadline deadline = Deadline.after(500, TimeUnit.MILLISECONDS))
+    {
+        storage.read(path, 0, length);
+        storage.size(path);
+    }
+    </pre>
+
+    <p>
+    Both calls must then complete within 500 milliseconds of the opening of the
+    deadline, or they throw <code>CallTimeoutException</code>. A call made
+    after the deadline has expired throws at once, without being sent.
+    Deadlines may be nested; an inner deadline cannot extend an outer one. When
+    the stub also has a timeout, set with <code>Stub.withTimeout</code>, the
+    earlier of the two applies.
+ */
+public final class Deadline implements AutoCloseable
+{
+    private static final ThreadLocal<Deadline> current = new ThreadLocal<>();
+
+    // System.nanoTime at which the deadline expires
+    private final long expiry;
+    private final Deadline outer;
+    private boolean closed = false;
+
+    private Deadline(long expiry, Deadline outer)
+    {
+        this.expiry = expiry;
+        this.outer = outer;
+    }
+
+    /** Opens a deadline expiring after the given time.
+
+        @throws IllegalArgumentException If <code>timeout</code> is not
+                                         positive.
+        @throws NullPointerException If <code>unit</code> is
+                                     <code>null</code>.
+     */
+    public static Deadline after(long timeout, TimeUnit unit)
+    {
+        if (unit == null) throw new NullPointerException("Time unit is null");
+        if (timeout <= 0) throw new IllegalArgumentException("Timeout must be positive");
+
+        Deadline outer = current.get();
+        long expiry = System.nanoTime() + unit.toNanos(timeout);
+        if (outer != null && outer.expiry - expiry < 0) expiry = outer.expiry;
+
+        Deadline deadline = new Deadline(expiry, outer);
+        current.set(deadline);
+        return deadline;
+    }
+
+    /** Returns the time left before the deadline expires, in milliseconds,
+        which may be negative. */
+    public long remainingMillis()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(expiry - System.nanoTime());
+    }
+
+    long remainingNanos()
+    {
+        return expiry - System.nanoTime();
+    }
+
+    /** Closes the deadline, restoring the deadline that was in effect when it
+        was opened.
+
+        @throws IllegalStateException If the deadline is not the innermost
+                                      deadline of the current thread.
+     */
+    @Override
+    public void close()
+    {
+        if (closed) return;
+        if (current.get() != this)
+            throw new IllegalStateException("Deadline closed out of order or by another thread");
+
+        closed = true;
+        if (outer == null) current.remove();
+        else current.set(outer);
+    }
+
+    /** Returns the innermost open deadline of the current thread, or
+        <code>null</code> if there is none. */
+    static Deadline current()
+    {
+        return current.get();
+    }
+}
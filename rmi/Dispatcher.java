@@ -0,0 +1,412 @@
+package rmi;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Executes call frames against the server object of a skeleton.
+ * Dispatch is independent of the connection the call arrived on, so calls from
+ * one connection may be executed concurrently and answered in any order.
+ * Calls run on the skeleton's bounded CallExecutor, queued by the priority
+ * class of the method called; a call that does not fit in the queue of its
+ * class is answered at once with a REJECT frame. One-way calls are
+ * answered only if they fail.
+ * A call with a timeout is not started once its deadline has passed, and the
+ * thread executing it is interrupted when the deadline expires.
+ * Each call to a known method is recorded in the skeleton's metrics.
+ * A call addressed to another object exported on the skeleton's endpoint is
+ * handed to that object's Dispatcher, which shares the executor of the
+ * endpoint's.
+ */
+class Dispatcher<T> {
+    // Interrupts the threads executing calls whose deadline expires, shared by all skeletons
+    private static final ScheduledThreadPoolExecutor deadlines = deadlineTimer();
+
+    // Bytes at the start of a call body enough to hold its method id, see Marshal
+    private static final int CALL_HEAD = 32;
+
+    private final Skeleton<T> skeleton;
+    final CallExecutor executor;
+    // False for the dispatcher of an exported object, which uses the executor of its host
+    private final boolean ownsExecutor;
+
+    Dispatcher(Skeleton<T> skeleton) {
+        this.skeleton = skeleton;
+        this.executor = new CallExecutor(skeleton.config);
+        this.ownsExecutor = true;
+    }
+
+    /** Dispatcher of an object exported on the endpoint of another skeleton. */
+    Dispatcher(Skeleton<T> skeleton, Dispatcher<?> host) {
+        this.skeleton = skeleton;
+        this.executor = host.executor;
+        this.ownsExecutor = false;
+    }
+
+    /**
+     * Queue a call for execution
+     * @param call CALL, BATCH or ONEWAY frame received from a stub
+     * @param version protocol version of the connection the call arrived on
+     * @param sink receives the reply frame, on the worker thread that executed
+     *             the call, or on the calling thread if the call is rejected;
+     *             receives null once a one-way call has completed normally
+     */
+    void submit(Frame call, int version, Consumer<Frame> sink) {
+        // Timeouts run from the reception of the call, time spent in the queue included
+        long received = System.nanoTime();
+        if (executor.execute(() -> sink.accept(dispatch(call, version, received)), priority(call, version))) return;
+
+        if (call.type == Frame.ONEWAY)
+            skeleton.service_error(new RMIException("Server busy, one-way call rejected"));
+        sink.accept(Frame.reject(call.callId, "Server busy, call rejected"));
+    }
+
+    // Priority class of the method called, peeked at on the receiving thread
+    // without decoding the arguments; a malformed call fails once dispatched
+    private CallPriority priority(Frame call, int version) {
+        try {
+            // Only the start of a compressed call is inflated here, the rest by the worker
+            if (call.compressed) call = Compressor.head(call, CALL_HEAD);
+            Skeleton<?> target = skeleton;
+            int objectId = Marshal.objectId(version, call);
+            if (objectId != 0) target = skeleton.exported(objectId);
+            if (target == null) return CallPriority.NORMAL;
+            return target.methods.priority(call.type == Frame.BATCH ? -1 : Marshal.methodId(version, call));
+        } catch (IOException e) {
+            return CallPriority.NORMAL;
+        }
+    }
+
+    /** Stop accepting calls, calls already queued are still executed. */
+    void shutdown() {
+        if (ownsExecutor) executor.shutdown();
+    }
+
+    /**
+     * Execute a call
+     * @param call CALL, BATCH or ONEWAY frame received from a stub
+     * @param version protocol version of the connection the call arrived on
+     * @return the RETURN or THROW frame answering the call, or null for a
+     *         one-way call that completed normally
+     */
+    Frame dispatch(Frame call, int version) {
+        return dispatch(call, version, System.nanoTime());
+    }
+
+    /**
+     * Execute a call
+     * @param received System.nanoTime at which the call was received
+     */
+    private Frame dispatch(Frame call, int version, long received) {
+        if (call.compressed) {
+            try {
+                call = Compressor.inflate(call, skeleton.config.getMaxInflatedLength());
+            } catch (IOException e) {
+                return failure(call, version, new RMIException("Unable to execute call", e));
+            }
+        }
+
+        if (skeleton.objectId == 0) {
+            int objectId;
+            try {
+                objectId = Marshal.objectId(version, call);
+            } catch (IOException e) {
+                return failure(call, version, new RMIException("Unable to execute call", e));
+            }
+            if (objectId != 0) {
+                Skeleton<?> exported = skeleton.exported(objectId);
+                Dispatcher<?> target = exported == null ? null : exported.dispatcher;
+                if (target == null)
+                    return failure(call, version, new RMIException("No object " + objectId
+                            + " exported on port " + skeleton.address.getPort()));
+                return target.dispatch(call, version, received);
+            }
+        }
+
+        if (call.type == Frame.BATCH) return dispatchBatch(call, version, received);
+
+        long start = System.nanoTime();
+        Marshal.Call decoded;
+        Marshal.Outcome outcome;
+        long decoding, invocation;
+        try {
+            // Read method id and arguments
+            decoded = Marshal.decodeCall(version, call);
+            if (decoded.fingerprint != skeleton.methods.fingerprint)
+                return failure(call, version, mismatch());
+
+            long invoked = System.nanoTime();
+            decoding = invoked - start;
+            outcome = invoke(decoded, deadline(decoded, received));
+            invocation = System.nanoTime() - invoked;
+        } catch (Exception e) {
+            return failure(call, version, new RMIException("Unable to execute call", e));
+        }
+
+        SkeletonMetrics.MethodMetrics metrics = skeleton.metrics.method(decoded.methodId);
+        boolean failed = outcome.type == Frame.THROW;
+        if (call.type == Frame.ONEWAY) {
+            if (!failed) {
+                if (metrics != null) metrics.record(call.length(), 0, decoding, invocation, -1, false, false);
+                return null;
+            }
+            oneWayFailed(decoded, (Throwable) outcome.value);
+        }
+
+        long encoding = System.nanoTime();
+        Frame reply;
+        try {
+            reply = Marshal.reply(version, outcome.type, call.callId, outcome.value);
+            if (reply.length() > Frame.MAX_LENGTH) {
+                reply = failure(call, version, new RMIException("Result of " + reply.length()
+                        + " bytes exceeds the maximum frame length"));
+                failed = true;
+            }
+        } catch (IOException e) {
+            reply = failure(call, version, new RMIException("Unable to serialize result", e));
+            failed = true;
+        }
+
+        if (metrics != null)
+            metrics.record(call.length(), reply.length(), decoding, invocation, System.nanoTime() - encoding, failed,
+                    outcome.expired);
+        return reply;
+    }
+
+    /**
+     * Execute the calls of a batch in order. Each call has its own outcome,
+     * a call that fails does not prevent the following ones from running.
+     */
+    private Frame dispatchBatch(Frame batch, int version, long received) {
+        Marshal.Outcome[] outcomes;
+        try {
+            Marshal.Call[] calls = Marshal.decodeBatch(version, batch);
+            if (calls.length > 0 && calls[0].fingerprint != skeleton.methods.fingerprint)
+                return failure(batch, version, mismatch());
+
+            // The timeout applies to the batch as a whole
+            long deadline = calls.length > 0 ? deadline(calls[0], received) : 0;
+            outcomes = new Marshal.Outcome[calls.length];
+            for (int i = 0; i < calls.length; i++) {
+                long invoked = System.nanoTime();
+                outcomes[i] = invoke(calls[i], deadline);
+                long invocation = System.nanoTime() - invoked;
+
+                // Decoding and encoding are done for the whole batch, not per call
+                SkeletonMetrics.MethodMetrics metrics = skeleton.metrics.method(calls[i].methodId);
+                if (metrics != null)
+                    metrics.record(0, 0, -1, invocation, -1, outcomes[i].type == Frame.THROW, outcomes[i].expired);
+            }
+        } catch (Exception e) {
+            return failure(batch, version, new RMIException("Unable to execute batch", e));
+        }
+
+        Frame reply;
+        try {
+            reply = Marshal.batchReply(batch.callId, outcomes);
+        } catch (IOException e) {
+            // Replace the values that cannot be encoded, the other outcomes are still returned
+            for (int i = 0; i < outcomes.length; i++) {
+                try {
+                    Marshal.reply(version, outcomes[i].type, batch.callId, outcomes[i].value);
+                } catch (IOException f) {
+                    outcomes[i] = error(new RMIException("Unable to serialize result", f));
+                }
+            }
+            try {
+                reply = Marshal.batchReply(batch.callId, outcomes);
+            } catch (IOException f) {
+                return failure(batch, version, new RMIException("Unable to serialize results", f));
+            }
+        }
+
+        if (reply.length() > Frame.MAX_LENGTH)
+            return failure(batch, version, new RMIException("Results of " + reply.length()
+                    + " bytes exceed the maximum frame length"));
+        return reply;
+    }
+
+    /**
+     * Execute a call made by a stub of this JVM, on the calling thread. The
+     * call bypasses the worker pool and its queue limit, as it bypasses the
+     * network.
+     * @param timeout milliseconds the call has to complete, 0 for no limit
+     */
+    Marshal.Outcome invokeInProcess(int methodId, Object[] args, long timeout) {
+        long start = System.nanoTime();
+        Marshal.Call call = new Marshal.Call(skeleton.methods.fingerprint, methodId, args, timeout);
+        Marshal.Outcome outcome = invoke(call, deadline(call, start));
+
+        SkeletonMetrics.MethodMetrics metrics = skeleton.metrics.method(methodId);
+        if (metrics != null)
+            metrics.record(0, 0, -1, System.nanoTime() - start, -1, outcome.type == Frame.THROW, outcome.expired);
+        return outcome;
+    }
+
+    // System.nanoTime at which a call expires, 0 if it has no timeout
+    private static long deadline(Marshal.Call call, long received) {
+        if (call.timeout == 0) return 0;
+        long deadline = received + TimeUnit.MILLISECONDS.toNanos(call.timeout);
+        return deadline == 0 ? 1 : deadline;
+    }
+
+    /**
+     * Invoke a method within a deadline. A call whose deadline has passed is
+     * not started, and the thread executing a call is interrupted when the
+     * deadline expires, so that expired calls stop occupying worker threads.
+     * @param deadline System.nanoTime at which the call expires, 0 for none
+     */
+    private Marshal.Outcome invoke(Marshal.Call call, long deadline) {
+        if (deadline == 0) return invoke(call);
+
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) return expired(call, "expired before it was executed", null);
+
+        Watchdog watchdog = new Watchdog(Thread.currentThread());
+        ScheduledFuture<?> timer = deadlines.schedule(watchdog, remaining, TimeUnit.NANOSECONDS);
+        Marshal.Outcome outcome = invoke(call);
+        timer.cancel(false);
+
+        if (!watchdog.finish()) return outcome;
+        return expired(call, "expired while it was executing",
+                outcome.type == Frame.THROW ? (Throwable) outcome.value : null);
+    }
+
+    // The stub has given up on the call, the outcome only matters to one-way error reporting and metrics
+    private Marshal.Outcome expired(Marshal.Call call, String when, Throwable cause) {
+        Method method = skeleton.methods.method(call.methodId);
+        String name = method == null ? "method id " + call.methodId : method.getName();
+        return new Marshal.Outcome(Frame.THROW,
+                new CallTimeoutException("Deadline of call to " + name + " " + when, cause), true);
+    }
+
+    // Invoke one method, anything it throws is returned to the stub as is
+    private Marshal.Outcome invoke(Marshal.Call call) {
+        if (call.methodId < 0 || call.methodId >= skeleton.methods.size())
+            return error(new RMIException("Unknown method id " + call.methodId));
+
+        try {
+            Object result = skeleton.generated != null
+                    ? skeleton.generated.invoke(skeleton.server, call.methodId, call.args)
+                    : (Object) skeleton.handles[call.methodId].invokeExact(call.args);
+            return new Marshal.Outcome(Frame.RETURN, result);
+        } catch (Throwable t) {
+            return new Marshal.Outcome(Frame.THROW, t);
+        }
+    }
+
+    // Nobody waits for a one-way call, so its exception is also reported to the skeleton
+    private void oneWayFailed(Marshal.Call call, Throwable cause) {
+        Method method = skeleton.methods.method(call.methodId);
+        // An unknown method id has been reported already
+        if (method != null)
+            skeleton.service_error(new RMIException("One-way call " + method.getName() + " failed", cause));
+    }
+
+    private RMIException mismatch() {
+        return new RMIException("Call does not match remote interface " + skeleton.c.getName() + " of the skeleton");
+    }
+
+    // The stub receives the error as the outcome of the call, and the skeleton is notified
+    private Marshal.Outcome error(RMIException exception) {
+        skeleton.service_error(exception);
+        return new Marshal.Outcome(Frame.THROW, exception);
+    }
+
+    /**
+     * Answer the HELLO frame that opens a stub connection
+     * @param hello HELLO frame received from the stub
+     * @return the protocol version to use on the connection
+     */
+    int negotiate(Frame hello) throws StreamCorruptedException {
+        return Marshal.negotiate(hello.version());
+    }
+
+    /**
+     * @param hello HELLO frame received from the stub
+     * @param version protocol version of the connection
+     * @return a compressor for the replies sent on the connection, or null if
+     *         compression is not used on the connection, in which case the
+     *         stub must not send compressed calls either
+     */
+    Compressor compressor(Frame hello, int version) throws StreamCorruptedException {
+        boolean compression = skeleton.config.isCompression() && version >= Marshal.COMPRESSION
+                && hello.offersCompression();
+        return compression ? new Compressor() : null;
+    }
+
+    /**
+     * Check that a frame received may be dispatched on its connection
+     * @param compressor compressor of the connection, null if compression is not used
+     * @throws StreamCorruptedException if the frame is compressed and compression is not used
+     */
+    static void checkCompression(Frame call, Compressor compressor) throws StreamCorruptedException {
+        if (call.compressed && compressor == null)
+            throw new StreamCorruptedException("Compressed frame on a connection without compression");
+    }
+
+    /** Report a connection dropped because its byte stream is not a valid frame sequence. */
+    void protocolError(IOException e) {
+        skeleton.service_error(new RMIException("Protocol error, connection closed", e));
+    }
+
+    // The stub receives the error as an RMIException, and the skeleton is notified
+    private Frame failure(Frame call, int version, RMIException exception) {
+        skeleton.service_error(exception);
+        try {
+            return Marshal.reply(version, Frame.THROW, call.callId, exception);
+        } catch (IOException e) {
+            // The cause could not be serialized, send the message only
+            return Marshal.replyUnchecked(version, Frame.THROW, call.callId, new RMIException(exception.getMessage()));
+        }
+    }
+
+    private static ScheduledThreadPoolExecutor deadlineTimer() {
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, Threads.platform("rmi-deadline"));
+        // Most calls finish in time, their cancelled timers must not pile up in the queue
+        timer.setRemoveOnCancelPolicy(true);
+        return timer;
+    }
+
+    /**
+     * Interrupts the thread executing a call when the call's deadline expires,
+     * unless the call finishes first. The interrupt is cleared when the call
+     * finishes, so that it does not reach the next call run by a pooled worker.
+     */
+    private static final class Watchdog implements Runnable {
+        private static final int RUNNING = 0, INTERRUPTING = 1, INTERRUPTED = 2, FINISHED = 3;
+
+        private final Thread thread;
+        private final AtomicInteger state = new AtomicInteger(RUNNING);
+
+        Watchdog(Thread thread) {
+            this.thread = thread;
+        }
+
+        @Override
+        public void run() {
+            if (!state.compareAndSet(RUNNING, INTERRUPTING)) return;
+            thread.interrupt();
+            state.set(INTERRUPTED);
+        }
+
+        /**
+         * Called by the executing thread when the call returns
+         * @return true if the deadline expired while the call was executing
+         */
+        boolean finish() {
+            if (state.compareAndSet(RUNNING, FINISHED)) return false;
+
+            // Wait for the interrupt to be delivered before clearing it
+            while (state.get() == INTERRUPTING) Thread.onSpinWait();
+            Thread.interrupted();
+            return true;
+        }
+    }
+}
@@ -2,27 +2,81 @@ package rmi;
 
 import java.io.*;
 import java.lang.reflect.InvocationHandler;
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.net.InetSocketAddress;
-import java.net.Socket;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import static java.lang.reflect.Proxy.isProxyClass;
 
 
+/**
+ * Makes the remote calls of a stub, either a dynamic proxy or a stub class
+ * generated for the interface, see GeneratedStub.
+ * The stub of a replicated object has several endpoints, and each call is made
+ * to the one chosen by the stub's ReplicaSet. The methods making a call take
+ * that endpoint, null for a stub with a single address.
+ */
 public class DynamicProxyHandler<T> implements InvocationHandler, Serializable {
     private InetSocketAddress address;
     private Class<T> c;
+    // Object on the skeleton's endpoint the calls are addressed to, 0 for the one it was created for
+    private int objectId;
+    // Milliseconds each call has to complete, 0 for no limit
+    private long timeout;
+    // Addresses of the replicas of a replicated object, the first of which is address; null for a single address
+    private InetSocketAddress[] replicas;
+    // Choice of the replica of each call, shared with the handlers derived from this one
+    private transient ReplicaSet replicaSet;
+    // Shared per interface, looked up again after the handler is deserialized
+    private transient MethodTable methods;
+    // Shared by the stubs for the same interface and address, looked up on first use
+    private transient volatile StubMetrics metrics;
 
     public DynamicProxyHandler(Class<T> c, InetSocketAddress address) {
         if (c == null || address == null) throw new NullPointerException("Arguments are null");
 
         this.address = address;
         this.c = c;
+        this.methods = MethodTable.of(c);
+    }
+
+    /** Handler for an object exported under the given id on the endpoint of a skeleton. */
+    DynamicProxyHandler(Class<T> c, InetSocketAddress address, int objectId) {
+        this(c, address);
+        this.objectId = objectId;
+    }
+
+    /** Handler for an object replicated at the given addresses, of which there is at least one. */
+    DynamicProxyHandler(Class<T> c, InetSocketAddress[] replicas) {
+        this(c, replicas[0]);
+        if (replicas.length > 1) {
+            this.replicas = replicas.clone();
+            this.replicaSet = new ReplicaSet(this.replicas);
+        }
+    }
+
+    /** @return a handler for the same remote object whose calls time out after the given milliseconds, 0 for none */
+    DynamicProxyHandler<T> withTimeout(long timeout) {
+        DynamicProxyHandler<T> handler = new DynamicProxyHandler<>(c, address, objectId);
+        handler.timeout = timeout;
+        handler.replicas = replicas;
+        handler.replicaSet = replicaSet;
+        return handler;
+    }
 
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        methods = MethodTable.of(c);
+        if (replicas != null) replicaSet = new ReplicaSet(replicas);
     }
 
     @Override
@@ -31,72 +85,454 @@ public class DynamicProxyHandler<T> implements InvocationHandler, Serializable {
         if (o == null || getClass() != o.getClass()) return false;
         DynamicProxyHandler<?> that = (DynamicProxyHandler<?>) o;
         return address.equals(that.address) &&
-                c.equals(that.c);
+                c.equals(that.c) &&
+                objectId == that.objectId &&
+                Arrays.equals(replicas, that.replicas);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(address, c);
+        return Objects.hash(address, c, objectId) + Arrays.hashCode(replicas);
     }
 
     @Override
     public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
-        Object result;
-
         /*************************** Local method **************************/
-        if (method.equals(Object.class.getMethod("equals", Object.class))) {
-            Object o = args[0];
-            if (o == null) return false;
+        // The proxy passes equals, hashCode and toString as methods of Object
+        if (method.getDeclaringClass() == Object.class)
+            return invokeLocal(method, args);
 
-            if (!isProxyClass(args[0].getClass())) {
-                return false;
-            }
+        /************************* Remote method **************************/
+        return invoke(method, methodId(method), args);
+    }
+
+    /** Make a remote call from a generated stub, which knows the method id but not the method */
+    Object invoke(int methodId, Object[] args) throws Throwable {
+        Method method = methods.method(methodId);
+        if (method == null) throw new RMIException("Unknown method id " + methodId + " of " + c.getName());
+        return invoke(method, methodId, args);
+    }
 
-            DynamicProxyHandler dph = (DynamicProxyHandler) Proxy.getInvocationHandler(o);
-            return c.equals(dph.c) && address.equals(dph.address);
+    private Object invoke(Method method, int methodId, Object[] args) throws Throwable {
+        ReplicaSet.Endpoint endpoint = choose();
+        try {
+            return invoke(endpoint, method, methodId, args);
+        } finally {
+            if (endpoint != null) endpoint.finished();
         }
+    }
 
-        if (method.equals(Object.class.getMethod("hashCode"))) {
-            return (address.toString() + c.toString()).hashCode();
+    private Object invoke(ReplicaSet.Endpoint endpoint, Method method, int methodId, Object[] args)
+            throws Throwable {
+        long timeout = timeout(endpoint, method, methodId);
+
+        long start = System.nanoTime();
+        Marshal.Outcome local = invokeInProcess(endpoint, methodId, args, timeout);
+        if (local != null) {
+            if (endpoint != null) endpoint.succeeded(System.nanoTime() - start);
+            if (local.type == Frame.THROW) throw (Throwable) local.value;
+            return local.value;
         }
 
-        if (method.equals(Object.class.getMethod("toString"))) {
-            return "Class: " + c + ", Address: " + address;
+        Connection connection = acquire(endpoint, methodId);
+        if (methods.isOneWay(methodId)) {
+            sendOneWay(endpoint, connection, method, methodId, args, timeout);
+            return null;
         }
 
-        /************************* Remote method **************************/
-        Socket client = new Socket(address.getAddress(), address.getPort());
-        ObjectOutputStream toServer = null;
-        ObjectInputStream fromServer = null;
+        long sent = System.nanoTime();
+        Connection.Reply reply = send(endpoint, connection, method, methodId, args, timeout);
+        try {
+            // Wait for the reader thread of the connection to hand over the reply frame
+            reply.get();
+        } catch (ExecutionException e) {
+            throw failed(endpoint, method, methodId, timeout, e.getCause());
+        } catch (InterruptedException e) {
+            metrics(endpoint).failed(methodId, StubMetrics.Failure.CONNECTION);
+            Thread.currentThread().interrupt();
+            throw new RMIException("Interrupted waiting for remote call " + method.getName(), e);
+        }
+
+        replied(endpoint, reply.join(), sent);
+        return result(endpoint, connection, method, methodId, reply);
+    }
+
+    // The endpoint of the next call of a replicated object, null for a single address
+    private ReplicaSet.Endpoint choose() {
+        return replicaSet == null ? null : replicaSet.choose();
+    }
+
+    private InetSocketAddress address(ReplicaSet.Endpoint endpoint) {
+        return endpoint == null ? address : endpoint.address;
+    }
+
+    // Record the latency of a call answered by the endpoint of a replicated object
+    private static void replied(ReplicaSet.Endpoint endpoint, Frame reply, long sent) {
+        if (endpoint == null) return;
+        if (reply.type == Frame.REJECT) endpoint.rejected();
+        else endpoint.succeeded(System.nanoTime() - sent);
+    }
+
+    // The outcome of a call executed by a skeleton of this JVM, or null if the call must take the network
+    private Marshal.Outcome invokeInProcess(ReplicaSet.Endpoint endpoint, int methodId, Object[] args,
+                                            long timeout) throws RMIException {
+        ConnectionPool pool = ConnectionPool.getDefault();
+        if (!pool.isInProcessCalls() || methods.isOneWay(methodId)) return null;
 
+        Skeleton<?> skeleton = InProcess.lookup(c, address(endpoint), objectId);
+        return skeleton == null ? null : InProcess.call(skeleton, methodId, args, timeout, pool.getCopyPolicy());
+    }
+
+    /**
+     * Make a remote call without waiting for the reply
+     * @param executor runs the decoding of the reply and completes the future,
+     *                 so that callbacks do not run on the connection's reader thread
+     * @return future completed with the result of the call, or exceptionally
+     *         with the exception the call would throw if made through the stub
+     */
+    CompletableFuture<Object> invokeAsync(Method method, Object[] args, Executor executor) {
+        return invokeAsync(choose(), method, args, executor);
+    }
+
+    // The call is made to the given endpoint, which is finished once the call is over
+    private CompletableFuture<Object> invokeAsync(ReplicaSet.Endpoint endpoint, Method method, Object[] args,
+                                                  Executor executor) {
+        CompletableFuture<Object> result = new CompletableFuture<>();
         try {
-            // serialize the method name, method argTypes, args and write them to ouputStream
-            toServer = new ObjectOutputStream(client.getOutputStream());
-            Class<?>[] argsTypes = method.getParameterTypes();
-            toServer.writeObject(method.getName());
-            toServer.writeObject(argsTypes);
-            toServer.writeObject(args);
-            toServer.flush();
-
-            // Get result object from server
-            fromServer = new ObjectInputStream(client.getInputStream());
-            Boolean hasException = (Boolean) fromServer.readObject();
-            if (hasException) {
-                Throwable e = (Throwable) fromServer.readObject();
+            int methodId = methodId(method);
+            long timeout = timeout(endpoint, method, methodId);
+            Connection connection = acquire(endpoint, methodId);
+            if (methods.isOneWay(methodId)) {
+                sendOneWay(endpoint, connection, method, methodId, args, timeout);
+                if (endpoint != null) endpoint.finished();
+                result.complete(null);
+                return result;
+            }
+
+            long sent = System.nanoTime();
+            Connection.Reply reply = send(endpoint, connection, method, methodId, args, timeout);
+            reply.whenComplete((frame, failure) -> {
+                if (failure == null) replied(endpoint, frame, sent);
+                Runnable complete = () -> {
+                    if (failure != null) {
+                        result.completeExceptionally(failed(endpoint, method, methodId, timeout, failure));
+                        return;
+                    }
+                    try {
+                        result.complete(result(endpoint, connection, method, methodId, reply));
+                    } catch (Throwable t) {
+                        result.completeExceptionally(t);
+                    }
+                };
+                if (endpoint != null) endpoint.finished();
+                try {
+                    executor.execute(complete);
+                } catch (RejectedExecutionException e) {
+                    complete.run();
+                }
+            });
+        } catch (RMIException e) {
+            if (endpoint != null) endpoint.finished();
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    /**
+     * Make several remote calls in one frame, executed by the skeleton in order
+     * @param results completed with the result of each call, as by invokeAsync
+     */
+    void invokeBatch(Method[] calls, Object[][] args, CompletableFuture<Object>[] results, Executor executor) {
+        ReplicaSet.Endpoint endpoint = choose();
+        InetSocketAddress target = address(endpoint);
+        Connection connection;
+        Frame batch;
+        long timeout;
+        try {
+            timeout = timeout(endpoint, null, -1);
+            try {
+                connection = ConnectionPool.getDefault().acquire(target);
+            } catch (RMIException e) {
+                if (endpoint != null) endpoint.failed();
                 throw e;
-            } else {
-                result = fromServer.readObject();
             }
-        } finally {
+
+            // A skeleton that does not support batches gets the calls one by one, on the same endpoint
+            if (connection.version < Marshal.BATCH) {
+                for (int i = 0; i < calls.length; i++) {
+                    if (endpoint != null) endpoint.started();
+                    forward(invokeAsync(endpoint, calls[i], args[i], executor), results[i]);
+                }
+                if (endpoint != null) endpoint.finished();
+                return;
+            }
+
+            int[] methodIds = new int[calls.length];
+            for (int i = 0; i < calls.length; i++) {
+                methodIds[i] = methods.idOf(calls[i]);
+                if (methodIds[i] < 0) throw new RMIException("Method " + calls[i] + " is not a method of " + c.getName());
+            }
+            batch = Marshal.batch(connection.version, objectId, methods.fingerprint, methodIds, args, timeout);
+        } catch (RMIException e) {
+            if (endpoint != null) endpoint.finished();
+            for (CompletableFuture<Object> result : results) result.completeExceptionally(e);
+            return;
+        } catch (IOException e) {
+            if (endpoint != null) endpoint.finished();
+            RMIException failure = new RMIException("Batch of calls to " + target + " failed", e);
+            for (CompletableFuture<Object> result : results) result.completeExceptionally(failure);
+            return;
+        }
+
+        long sent = System.nanoTime();
+        connection.call(batch, timeout).whenComplete((reply, failure) -> {
+            if (endpoint != null) {
+                if (failure == null) replied(endpoint, reply, sent);
+                else endpoint.failed();
+                endpoint.finished();
+            }
+            Runnable complete = () -> completeBatch(target, connection, reply, failure, results);
+            try {
+                executor.execute(complete);
+            } catch (RejectedExecutionException e) {
+                complete.run();
+            }
+        });
+    }
+
+    private void completeBatch(InetSocketAddress target, Connection connection, Frame reply, Throwable failure,
+                               CompletableFuture<Object>[] results) {
+        Throwable error = null;
+        Marshal.Outcome[] outcomes = null;
+
+        if (failure == null) {
+            try {
+                reply = connection.inflated(reply);
+            } catch (StreamCorruptedException e) {
+                failure = e;
+            }
+        }
+
+        if (failure instanceof TimeoutException) {
+            error = new CallTimeoutException("Batch of calls to " + target + " timed out", failure);
+        } else if (failure != null) {
+            error = new RMIException("Batch of calls to " + target + " failed", failure);
+        } else if (reply.type == Frame.RETURN) {
+            try {
+                outcomes = Marshal.decodeBatchReply(reply);
+                if (outcomes.length != results.length)
+                    error = new RMIException("Batch reply from " + target + " has "
+                            + outcomes.length + " results for " + results.length + " calls");
+            } catch (IOException | ClassNotFoundException e) {
+                error = new RMIException("Batch of calls to " + target + " failed", e);
+            }
+        } else if (reply.type == Frame.REJECT) {
+            error = new CallRejectedException(new String(reply.body, StandardCharsets.UTF_8));
+        } else {
+            // The batch as a whole could not be executed
             try {
-                if (toServer != null) toServer.close();
-                if (fromServer != null) fromServer.close();
-                client.close();
-            } catch (IOException e) {
-                e.printStackTrace();
+                Object value = Marshal.decode(connection.version, reply);
+                error = value instanceof Throwable ? (Throwable) value
+                        : new RMIException("Unexpected reply to batch from " + target);
+            } catch (IOException | ClassNotFoundException e) {
+                error = new RMIException("Batch of calls to " + target + " failed", e);
             }
         }
 
+        for (int i = 0; i < results.length; i++) {
+            if (error != null) results[i].completeExceptionally(error);
+            else if (outcomes[i].type == Frame.THROW) results[i].completeExceptionally((Throwable) outcomes[i].value);
+            else results[i].complete(outcomes[i].value);
+        }
+    }
+
+    private static void forward(CompletableFuture<Object> from, CompletableFuture<Object> to) {
+        from.whenComplete((value, failure) -> {
+            if (failure != null) to.completeExceptionally(failure);
+            else to.complete(value);
+        });
+    }
+
+    private int methodId(Method method) throws RMIException {
+        int methodId = methods.idOf(method);
+        if (methodId < 0) throw new RMIException("Method " + method + " is not a method of " + c.getName());
+        return methodId;
+    }
+
+    /**
+     * Milliseconds a call has to complete, 0 for no limit: the earlier of the
+     * stub's timeout and the calling thread's deadline
+     * @param method the method called, null for a batch
+     * @throws CallTimeoutException if the deadline has already expired
+     */
+    private long timeout(ReplicaSet.Endpoint endpoint, Method method, int methodId) throws CallTimeoutException {
+        Deadline deadline = Deadline.current();
+        if (deadline == null) return timeout;
+
+        long remaining = deadline.remainingNanos();
+        if (remaining <= 0) {
+            if (method == null)
+                throw new CallTimeoutException("Deadline expired before batch of calls to " + address(endpoint));
+            metrics(endpoint).failed(methodId, StubMetrics.Failure.TIMEOUT);
+            throw new CallTimeoutException("Deadline expired before remote call " + method.getName()
+                    + " to " + address(endpoint));
+        }
+
+        // Rounded up, so that a deadline less than a millisecond away is not taken as no limit
+        long millis = TimeUnit.NANOSECONDS.toMillis(remaining + TimeUnit.MILLISECONDS.toNanos(1) - 1);
+        return timeout == 0 ? millis : Math.min(timeout, millis);
+    }
+
+    // The exception thrown when a call fails before its reply is received
+    private RMIException failed(ReplicaSet.Endpoint endpoint, Method method, int methodId, long timeout,
+                                Throwable cause) {
+        if (endpoint != null) endpoint.failed();
+        if (cause instanceof TimeoutException) {
+            metrics(endpoint).failed(methodId, StubMetrics.Failure.TIMEOUT);
+            return new CallTimeoutException("Remote call " + method.getName() + " to " + address(endpoint)
+                    + " timed out after " + timeout + " ms", cause);
+        }
+        metrics(endpoint).failed(methodId, StubMetrics.Failure.CONNECTION);
+        return new RMIException("Remote call " + method.getName() + " to " + address(endpoint) + " failed", cause);
+    }
+
+    // Metrics of the calls to the endpoint, each replica of a replicated object has its own
+    private StubMetrics metrics(ReplicaSet.Endpoint endpoint) {
+        if (endpoint == null) {
+            StubMetrics m = metrics;
+            if (m == null) metrics = m = StubMetrics.register(c, address);
+            return m;
+        }
+
+        StubMetrics m = endpoint.metrics;
+        if (m == null) endpoint.metrics = m = StubMetrics.register(c, endpoint.address);
+        return m;
+    }
+
+    // A connection from the pool, the time taken to obtain it is recorded
+    private Connection acquire(ReplicaSet.Endpoint endpoint, int methodId) throws RMIException {
+        long start = System.nanoTime();
+        try {
+            Connection connection = ConnectionPool.getDefault().acquire(address(endpoint));
+            metrics(endpoint).connected(methodId, System.nanoTime() - start);
+            return connection;
+        } catch (RMIException e) {
+            if (endpoint != null) endpoint.failed();
+            metrics(endpoint).failed(methodId, StubMetrics.Failure.CONNECT);
+            throw e;
+        }
+    }
+
+    // Encode a call and send it as one frame
+    private Connection.Reply send(ReplicaSet.Endpoint endpoint, Connection connection, Method method, int methodId,
+                                  Object[] args, long timeout) throws RMIException {
+        long start = System.nanoTime();
+        Frame request;
+        try {
+            request = Marshal.call(connection.version, objectId, methods.fingerprint, methodId, args, timeout);
+        } catch (IOException e) {
+            metrics(endpoint).failed(methodId, StubMetrics.Failure.SERIALIZE);
+            throw new RMIException("Remote call " + method.getName() + " to " + address(endpoint) + " failed", e);
+        }
+        metrics(endpoint).sent(methodId, System.nanoTime() - start, request.length());
+        return connection.call(request, timeout);
+    }
+
+    // Encode a call to a one-way method and send it without waiting for the skeleton
+    private void sendOneWay(ReplicaSet.Endpoint endpoint, Connection connection, Method method, int methodId,
+                            Object[] args, long timeout) throws RMIException {
+        long start = System.nanoTime();
+        Frame request;
+        try {
+            request = connection.version >= Marshal.ONEWAY
+                    ? Marshal.oneWay(connection.version, objectId, methods.fingerprint, methodId, args, timeout)
+                    : Marshal.call(connection.version, objectId, methods.fingerprint, methodId, args, timeout);
+        } catch (IOException e) {
+            metrics(endpoint).failed(methodId, StubMetrics.Failure.SERIALIZE);
+            throw new RMIException("One-way call " + method.getName() + " to " + address(endpoint) + " failed", e);
+        }
+        metrics(endpoint).sent(methodId, System.nanoTime() - start, request.length());
+
+        try {
+            connection.send(request);
+        } catch (IOException e) {
+            if (endpoint != null) endpoint.failed();
+            metrics(endpoint).failed(methodId, StubMetrics.Failure.CONNECTION);
+            throw new RMIException("One-way call " + method.getName() + " to " + address(endpoint) + " failed", e);
+        }
+    }
+
+    // The result carried by a completed reply, or the exception it carries is thrown
+    private Object result(ReplicaSet.Endpoint endpoint, Connection connection, Method method, int methodId,
+                          Connection.Reply reply) throws Throwable {
+        Frame frame;
+        try {
+            frame = connection.inflated(reply.join());
+        } catch (StreamCorruptedException e) {
+            metrics(endpoint).failed(methodId, StubMetrics.Failure.DESERIALIZE);
+            throw new RMIException("Remote call " + method.getName() + " to " + address(endpoint) + " failed", e);
+        }
+        if (frame.type == Frame.REJECT) {
+            metrics(endpoint).failed(methodId, StubMetrics.Failure.REJECTED);
+            throw new CallRejectedException(new String(frame.body, StandardCharsets.UTF_8));
+        }
+
+        long start = System.nanoTime();
+        Object result;
+        try {
+            result = Marshal.decode(connection.version, frame);
+        } catch (IOException | ClassNotFoundException e) {
+            metrics(endpoint).failed(methodId, StubMetrics.Failure.DESERIALIZE);
+            throw new RMIException("Remote call " + method.getName() + " to " + address(endpoint) + " failed", e);
+        }
+        metrics(endpoint).received(methodId, reply.firstByteNanos(), System.nanoTime() - start, frame.length());
+
+        if (frame.type == Frame.THROW) {
+            metrics(endpoint).failed(methodId, StubMetrics.Failure.REMOTE);
+            throw (Throwable) result;
+        }
+
         return result;
     }
+
+    Class<T> getInterface() {
+        return c;
+    }
+
+    InetSocketAddress getAddress() {
+        return address;
+    }
+
+    /** @return the handler of a stub, dynamic proxy or generated, or null if the object is not a stub */
+    static DynamicProxyHandler<?> of(Object stub) {
+        if (stub instanceof GeneratedStub) return ((GeneratedStub<?>) stub).handler;
+        if (stub == null || !isProxyClass(stub.getClass())) return null;
+
+        InvocationHandler handler = Proxy.getInvocationHandler(stub);
+        return handler instanceof DynamicProxyHandler ? (DynamicProxyHandler<?>) handler : null;
+    }
+
+    Object invokeLocal(Method method, Object[] args) {
+        String name = method.getName();
+
+        if (name.equals("equals")) return stubEquals(args[0]);
+        if (name.equals("hashCode")) return stubHashCode();
+        return stubString();
+    }
+
+    // Stubs are equal when they refer to the same remote object, whichever kind they are
+    boolean stubEquals(Object o) {
+        DynamicProxyHandler<?> dph = of(o);
+        return dph != null && c.equals(dph.c) && address.equals(dph.address) && objectId == dph.objectId
+                && Arrays.equals(replicas, dph.replicas);
+    }
+
+    int stubHashCode() {
+        return (address.toString() + c.toString()).hashCode() + objectId + Arrays.hashCode(replicas);
+    }
+
+    String stubString() {
+        return "Class: " + c + ", Address: " + (replicas == null ? address : Arrays.toString(replicas))
+                + (objectId == 0 ? "" : ", Object: " + objectId);
+    }
 }
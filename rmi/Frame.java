@@ -0,0 +1,338 @@
+package rmi;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Unit of the multiplexed wire protocol.
+ * <pre>
+ * int    length   number of bytes following this field
+ * byte   type     CALL, BATCH or ONEWAY from the stub, RETURN, THROW or REJECT from the skeleton
+ * int    callId   chosen by the stub, echoed in the reply
+ * byte[] body     encoded call or reply
+ * </pre>
+ * Replies carry the ID of the call they answer, so any number of calls can be
+ * in flight on one connection and replies may arrive in any order.
+ * A stub starts each connection with a HELLO frame whose body is the highest
+ * protocol version it supports; the skeleton answers with a HELLO frame
+ * holding the version used for the rest of the connection.
+ * <p>
+ * A frame may also carry bulk regions, large byte arrays that the encoded body
+ * refers to but that are sent raw after it. Such a frame has the REGIONS bit
+ * set in its type, and its body is preceded by the region count and lengths:
+ * <pre>
+ * int    count     number of regions
+ * int[]  lengths   length of each region
+ * byte[] body      encoded call or reply
+ * byte[] regions   the regions, one after the other
+ * </pre>
+ * Regions are written from the arrays that hold them and read into arrays of
+ * their exact size, without passing through the encoder.
+ * <p>
+ * A frame with the COMPRESSED bit set in its type holds the deflated body and
+ * regions of the original frame, see Compressor. It is read as it is, with
+ * compressed set, and inflated by whoever decodes it, so that the threads
+ * reading connections do not inflate.
+ * The version byte of a HELLO frame may also have its COMPRESSION_OFFER bit
+ * set: by the stub if it accepts compressed frames, and in the answer by the
+ * skeleton if compression is then used on the connection.
+ */
+class Frame {
+    static final byte CALL = 1;
+    static final byte RETURN = 2;
+    static final byte THROW = 3;
+    // The skeleton did not execute the call, the body is a UTF-8 message
+    static final byte REJECT = 4;
+    // Protocol version negotiation, the body is one byte
+    static final byte HELLO = 5;
+    // Several calls executed in order, answered by a single RETURN frame
+    static final byte BATCH = 6;
+    // Call answered only if it fails, with a THROW or REJECT frame
+    static final byte ONEWAY = 7;
+
+    // Set in the type field of a frame carrying bulk regions
+    private static final int REGIONS = 0x40;
+    // Set in the type of a frame whose content is compressed, never together with REGIONS
+    private static final int COMPRESSED = 0x20;
+    // Set in the version byte of a HELLO frame, ignored by peers that do not compress
+    private static final int COMPRESSION_OFFER = 0x80;
+
+    // Size of the type and call ID fields
+    static final int HEADER_SIZE = 5;
+    static final int MAX_LENGTH = 1 << 30;
+
+    static final ByteBuffer[] NO_REGIONS = new ByteBuffer[0];
+
+    final byte type;
+    final int callId;
+    final byte[] body;
+    final ByteBuffer[] regions;
+    // Whether the body is the compressed content of a frame of this type
+    final boolean compressed;
+
+    Frame(byte type, int callId, byte[] body) {
+        this(type, callId, body, NO_REGIONS);
+    }
+
+    Frame(byte type, int callId, byte[] body, ByteBuffer[] regions) {
+        this(type, callId, body, regions, false);
+    }
+
+    private Frame(byte type, int callId, byte[] body, ByteBuffer[] regions, boolean compressed) {
+        this.type = type;
+        this.callId = callId;
+        this.body = body;
+        this.regions = regions;
+        this.compressed = compressed;
+    }
+
+    /** @return a frame of the given type whose body is compressed content, see Compressor */
+    static Frame compressed(byte type, int callId, byte[] body) {
+        return new Frame(type, callId, body, NO_REGIONS, true);
+    }
+
+    static Frame reject(int callId, String message) {
+        return new Frame(REJECT, callId, message.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static Frame hello(int version) {
+        return hello(version, false);
+    }
+
+    /** @param compression whether to set the COMPRESSION_OFFER bit */
+    static Frame hello(int version, boolean compression) {
+        return new Frame(HELLO, 0, new byte[] {(byte) (compression ? version | COMPRESSION_OFFER : version)});
+    }
+
+    /** @return the same frame sent as the given call */
+    Frame withCallId(int callId) {
+        return new Frame(type, callId, body, regions, compressed);
+    }
+
+    /** @return the version carried by a HELLO frame */
+    int version() throws StreamCorruptedException {
+        if (type != HELLO || body.length != 1 || compressed)
+            throw new StreamCorruptedException("Invalid protocol version negotiation");
+        return body[0] & ~COMPRESSION_OFFER & 0xff;
+    }
+
+    /** @return whether a HELLO frame has the COMPRESSION_OFFER bit set */
+    boolean offersCompression() throws StreamCorruptedException {
+        version();
+        return (body[0] & COMPRESSION_OFFER) != 0;
+    }
+
+    /**
+     * Read a frame
+     * @param in stream positioned at a frame boundary
+     * @return the frame read
+     * @throws EOFException if the stream ends at the frame boundary
+     */
+    static Frame read(DataInputStream in) throws IOException {
+        int first = in.read();
+        if (first < 0) throw new EOFException();
+        return read(first, in);
+    }
+
+    /**
+     * Read a frame whose first byte has already been consumed
+     * @param first first byte of the frame
+     * @param in stream positioned after the first byte
+     * @return the frame read
+     */
+    static Frame read(int first, DataInputStream in) throws IOException {
+        int length = (first << 24) | (in.readUnsignedByte() << 16)
+                | (in.readUnsignedByte() << 8) | in.readUnsignedByte();
+        checkLength(length);
+
+        byte type = in.readByte();
+        int callId = in.readInt();
+        if ((type & REGIONS) == 0) {
+            byte[] body = new byte[length - HEADER_SIZE];
+            in.readFully(body);
+            return withBody(type, callId, body);
+        }
+
+        if ((type & COMPRESSED) != 0) throw new StreamCorruptedException("Compressed frame with regions");
+        if (length < HEADER_SIZE + 4) throw new StreamCorruptedException("Invalid frame length " + length);
+        int[] lengths = new int[checkCount(in.readInt(), length)];
+        for (int i = 0; i < lengths.length; i++) lengths[i] = in.readInt();
+
+        byte[] body = new byte[bodyLength(length, lengths)];
+        in.readFully(body);
+
+        // Large reads bypass the stream buffer and go straight into the region
+        ByteBuffer[] regions = new ByteBuffer[lengths.length];
+        for (int i = 0; i < regions.length; i++) {
+            byte[] region = new byte[lengths[i]];
+            in.readFully(region);
+            regions[i] = ByteBuffer.wrap(region);
+        }
+        return new Frame((byte) (type & ~REGIONS), callId, body, regions);
+    }
+
+    /**
+     * Extract a frame from a buffer of received bytes
+     * @param buffer buffer in read mode, positioned at a frame boundary
+     * @return the frame, or null if the buffer does not yet hold all of it,
+     *         in which case the buffer position is unchanged
+     */
+    static Frame parse(ByteBuffer buffer) throws StreamCorruptedException {
+        int length = pendingLength(buffer);
+        if (length < 0 || buffer.remaining() < 4 + length) return null;
+
+        buffer.getInt();
+        byte type = buffer.get();
+        int callId = buffer.getInt();
+        if ((type & REGIONS) == 0) {
+            byte[] body = new byte[length - HEADER_SIZE];
+            buffer.get(body);
+            return withBody(type, callId, body);
+        }
+
+        if ((type & COMPRESSED) != 0) throw new StreamCorruptedException("Compressed frame with regions");
+        if (length < HEADER_SIZE + 4) throw new StreamCorruptedException("Invalid frame length " + length);
+        int[] lengths = new int[checkCount(buffer.getInt(), length)];
+        for (int i = 0; i < lengths.length; i++) lengths[i] = buffer.getInt();
+
+        byte[] body = new byte[bodyLength(length, lengths)];
+        buffer.get(body);
+
+        ByteBuffer[] regions = new ByteBuffer[lengths.length];
+        for (int i = 0; i < regions.length; i++) {
+            byte[] region = new byte[lengths[i]];
+            buffer.get(region);
+            regions[i] = ByteBuffer.wrap(region);
+        }
+        return new Frame((byte) (type & ~REGIONS), callId, body, regions);
+    }
+
+    // A frame without regions, compressed or not according to its wire type
+    private static Frame withBody(byte type, int callId, byte[] body) {
+        if ((type & COMPRESSED) == 0) return new Frame(type, callId, body);
+        return compressed((byte) (type & ~COMPRESSED), callId, body);
+    }
+
+    /**
+     * Length of the frame at the position of a buffer
+     * @return the value of the length field, or -1 if it has not been received
+     */
+    static int pendingLength(ByteBuffer buffer) throws StreamCorruptedException {
+        if (buffer.remaining() < 4) return -1;
+
+        int length = buffer.getInt(buffer.position());
+        checkLength(length);
+        return length;
+    }
+
+    private static void checkLength(int length) throws StreamCorruptedException {
+        if (length < HEADER_SIZE || length > MAX_LENGTH)
+            throw new StreamCorruptedException("Invalid frame length " + length);
+    }
+
+    private static int checkCount(int count, int length) throws StreamCorruptedException {
+        if (count < 0 || count > (length - HEADER_SIZE - 4) / 4)
+            throw new StreamCorruptedException("Invalid region count " + count);
+        return count;
+    }
+
+    // Length of the body of a frame with regions, what is left after the region table and the regions
+    private static int bodyLength(int length, int[] lengths) throws StreamCorruptedException {
+        long remaining = length - HEADER_SIZE - 4 - 4L * lengths.length;
+        for (int region : lengths) {
+            if (region < 0) throw new StreamCorruptedException("Invalid region length " + region);
+            remaining -= region;
+        }
+        if (remaining < 0) throw new StreamCorruptedException("Regions exceed frame length " + length);
+        return (int) remaining;
+    }
+
+    /** @return the number of bytes following the length field */
+    long length() {
+        long length = HEADER_SIZE + body.length;
+        if (regions.length == 0) return length;
+
+        length += 4 + 4L * regions.length;
+        for (ByteBuffer region : regions) length += region.remaining();
+        return length;
+    }
+
+    private int checkedLength() throws IOException {
+        long length = length();
+        if (length > MAX_LENGTH) throw new IOException("Frame of " + length + " bytes exceeds the maximum frame length");
+        return (int) length;
+    }
+
+    /** @return the number of bytes of the frame before its regions, what encodeHeader puts in a buffer */
+    int headerLength() {
+        int table = regions.length == 0 ? 0 : 4 + 4 * regions.length;
+        return 4 + HEADER_SIZE + table + body.length;
+    }
+
+    /**
+     * Put the frame up to its regions, the length field included, in a buffer
+     * @param buffer buffer with at least headerLength() bytes remaining
+     */
+    void encodeHeader(ByteBuffer buffer) throws IOException {
+        buffer.putInt(checkedLength()).put(wireType()).putInt(callId);
+        if (regions.length > 0) {
+            buffer.putInt(regions.length);
+            for (ByteBuffer region : regions) buffer.putInt(region.remaining());
+        }
+        buffer.put(body);
+    }
+
+    /**
+     * Buffers holding the frame, ready for a gathering write. The regions are
+     * not copied, the buffers returned share their content.
+     */
+    ByteBuffer[] encode() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(headerLength());
+        encodeHeader(header);
+        return withRegions(header.flip());
+    }
+
+    /**
+     * @param header buffer in read mode holding the frame up to its regions
+     * @return the header followed by the regions, ready for a gathering write
+     */
+    ByteBuffer[] withRegions(ByteBuffer header) {
+        ByteBuffer[] buffers = new ByteBuffer[1 + regions.length];
+        buffers[0] = header;
+        for (int i = 0; i < regions.length; i++) buffers[i + 1] = regions[i].duplicate();
+        return buffers;
+    }
+
+    /** Write the frame, the caller flushes the stream. */
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(checkedLength());
+        out.writeByte(wireType());
+        out.writeInt(callId);
+        if (regions.length > 0) {
+            out.writeInt(regions.length);
+            for (ByteBuffer region : regions) out.writeInt(region.remaining());
+        }
+        out.write(body);
+
+        // Writes larger than the stream buffer go straight to the socket
+        for (ByteBuffer region : regions) {
+            if (region.hasArray()) {
+                out.write(region.array(), region.arrayOffset() + region.position(), region.remaining());
+            } else {
+                ByteBuffer source = region.duplicate();
+                byte[] chunk = new byte[Math.min(source.remaining(), 8192)];
+                while (source.hasRemaining()) {
+                    int count = Math.min(chunk.length, source.remaining());
+                    source.get(chunk, 0, count);
+                    out.write(chunk, 0, count);
+                }
+            }
+        }
+    }
+
+    private byte wireType() {
+        if (compressed) return (byte) (type | COMPRESSED);
+        return regions.length == 0 ? type : (byte) (type | REGIONS);
+    }
+}
@@ -0,0 +1,72 @@
+package rmi;
+
+import java.lang.reflect.Constructor;
+
+/**
+ * Lookup of the stub and dispatcher classes generated for a remote interface
+ * by build.RemoteProcessor, see RemoteInterface. A generated class is used only
+ * if its FINGERPRINT matches the method table of the interface as loaded, so
+ * that a class generated from an older version of the interface, whose method
+ * ids may differ, is ignored rather than calling the wrong methods.
+ * Lookups are done once per interface.
+ */
+final class Generated {
+    static final String STUB_SUFFIX = "_Stub";
+    static final String DISPATCHER_SUFFIX = "_Dispatcher";
+
+    private static final ClassValue<Constructor<?>> stubs = new ClassValue<Constructor<?>>() {
+        @Override
+        protected Constructor<?> computeValue(Class<?> c) {
+            return constructor(c, STUB_SUFFIX, GeneratedStub.class);
+        }
+    };
+
+    private static final ClassValue<GeneratedDispatcher<?>> dispatchers = new ClassValue<GeneratedDispatcher<?>>() {
+        @Override
+        protected GeneratedDispatcher<?> computeValue(Class<?> c) {
+            Constructor<?> constructor = constructor(c, DISPATCHER_SUFFIX, GeneratedDispatcher.class);
+            try {
+                return constructor == null ? null : (GeneratedDispatcher<?>) constructor.newInstance();
+            } catch (ReflectiveOperationException e) {
+                return null;
+            }
+        }
+    };
+
+    private Generated() { }
+
+    /** @return a generated stub making its calls through the handler, or null if there is no generated stub */
+    @SuppressWarnings("unchecked")
+    static <T> T stub(Class<T> c, DynamicProxyHandler<T> handler) {
+        Constructor<?> constructor = stubs.get(c);
+        if (constructor == null) return null;
+
+        GeneratedStub<T> stub;
+        try {
+            stub = (GeneratedStub<T>) constructor.newInstance();
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+        stub.handler = handler;
+        return (T) stub;
+    }
+
+    /** @return the generated dispatcher of the interface, or null if there is none */
+    @SuppressWarnings("unchecked")
+    static <T> GeneratedDispatcher<T> dispatcher(Class<T> c) {
+        return (GeneratedDispatcher<T>) dispatchers.get(c);
+    }
+
+    // The public no-argument constructor of a valid generated class, or null
+    private static Constructor<?> constructor(Class<?> c, String suffix, Class<?> base) {
+        try {
+            Class<?> generated = Class.forName(c.getName() + suffix, false, c.getClassLoader());
+            if (!base.isAssignableFrom(generated)) return null;
+            if (base == GeneratedStub.class && !c.isAssignableFrom(generated)) return null;
+            if (generated.getField("FINGERPRINT").getInt(null) != MethodTable.of(c).fingerprint) return null;
+            return generated.getConstructor();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package rmi;
+
+/** Base class of the skeleton dispatchers generated for remote interfaces.
+
+    <p>
+    The dispatcher generated for an interface marked
+    <code>RemoteInterface</code> invokes the method with a given id on the
+    server object through a <code>switch</code>, which the JIT compiler can
+    inline, in place of the method handles a skeleton otherwise uses.
+    Dispatchers are stateless, and are created by <code>Skeleton</code>.
+
+    @param <T> The remote interface whose methods are invoked.
+ */
+public abstract class GeneratedDispatcher<T>
+{
+    /** Creates a dispatcher. */
+    protected GeneratedDispatcher()
+    {
+    }
+
+    /** Invokes a method on the server object.
+
+        @param server The server object.
+        @param methodId The id of the method, in the order of the method table
+                        of the interface.
+        @param args The arguments of the call.
+        @return The result of the method, boxed, or <code>null</code> for a
+                <code>void</code> method.
+        @throws Throwable The exception thrown by the method, or
+                          <code>RMIException</code> if the method id is
+                          unknown.
+     */
+    public abstract Object invoke(T server, int methodId, Object[] args)
+        throws Throwable;
+}
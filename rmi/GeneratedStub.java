@@ -0,0 +1,61 @@
+package rmi;
+
+import java.io.Serializable;
+
+/** Base class of the stub classes generated for remote interfaces.
+
+    <p>
+    The stub generated for an interface marked <code>RemoteInterface</code>
+    implements each remote method by a call to <code>invoke</code> with the id
+    of the method. Apart from avoiding the reflective dispatch of a dynamic
+    proxy, a generated stub behaves as a stub created with a proxy, and is
+    equal to such a stub when both refer to the same skeleton. Generated stubs
+    are created by <code>Stub.create</code>, and should not be instantiated
+    directly.
+
+    @param <T> The remote interface implemented by the stub.
+ */
+public abstract class GeneratedStub<T> implements Serializable
+{
+    // Set by Stub when the stub is created, and serialized with the stub
+    DynamicProxyHandler<T> handler;
+
+    /** Creates a stub, whose handler is set by <code>Stub</code>. */
+    protected GeneratedStub()
+    {
+    }
+
+    /** Makes a remote call.
+
+        @param methodId The id of the method, in the order of the method table
+                        of the interface.
+        @param args The arguments of the call, <code>null</code> if the method
+                    has no parameters.
+        @return The result of the call, boxed, or <code>null</code> for a
+                <code>void</code> method.
+        @throws Throwable The exception thrown by the remote method, or
+                          <code>RMIException</code> if the call fails.
+     */
+    protected final Object invoke(int methodId, Object[] args) throws Throwable
+    {
+        return handler.invoke(methodId, args);
+    }
+
+    @Override
+    public boolean equals(Object other)
+    {
+        return handler.stubEquals(other);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return handler.stubHashCode();
+    }
+
+    @Override
+    public String toString()
+    {
+        return handler.stubString();
+    }
+}
@@ -0,0 +1,28 @@
+package rmi;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/** Marks a class whose instances cannot be modified once constructed.
+
+    <p>
+    A call made through a stub to a skeleton in the same Java virtual machine
+    bypasses the network, see <code>ConnectionPool.setInProcessCalls</code>.
+    Under the <code>COPY</code> policy, arguments and results are then copied
+    to preserve the semantics of a remote call, except instances of immutable
+    types, which are passed by reference. Strings, boxed primitives and enums
+    are known to be immutable; other classes are marked with this annotation.
+
+    <p>
+    The annotation applies to instances of the marked class only, not of its
+    subclasses, which may add mutable state.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface Immutable
+{
+}
@@ -0,0 +1,95 @@
+package rmi;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Short-circuit for stubs whose skeleton runs in the same JVM. Running
+ * skeletons are registered by port, and a call through a stub whose address
+ * is a local address with the port of a registered skeleton for the same
+ * interface is executed on the calling thread, by the skeleton's Dispatcher,
+ * without serializing it to a socket. Objects exported on the endpoint of a
+ * registered skeleton are found through it. Arguments, results and exceptions are
+ * copied according to the CopyPolicy of the stub's pool.
+ */
+final class InProcess {
+    private static final Map<Integer, Skeleton<?>> skeletons = new ConcurrentHashMap<>();
+    // Whether each host address seen is local, looking it up takes a system call
+    private static final Map<InetAddress, Boolean> localHosts = new ConcurrentHashMap<>();
+
+    private static final ClassValue<Boolean> immutable = new ClassValue<Boolean>() {
+        @Override
+        protected Boolean computeValue(Class<?> type) {
+            return type == String.class || type == Boolean.class || type == Character.class
+                    || type == Byte.class || type == Short.class || type == Integer.class
+                    || type == Long.class || type == Float.class || type == Double.class
+                    || type.isEnum() || type.isAnnotationPresent(Immutable.class);
+        }
+    };
+
+    private InProcess() { }
+
+    static void register(Skeleton<?> skeleton, int port) {
+        skeletons.put(port, skeleton);
+    }
+
+    static void unregister(Skeleton<?> skeleton) {
+        skeletons.values().remove(skeleton);
+    }
+
+    /**
+     * @param objectId id of the object on the endpoint, 0 for the one its skeleton was created for
+     * @return the running skeleton a stub for the interface, address and object would reach, or null if it
+     *         is not in this JVM
+     */
+    static Skeleton<?> lookup(Class<?> c, InetSocketAddress address, int objectId) {
+        Skeleton<?> skeleton = skeletons.get(address.getPort());
+        if (skeleton != null && objectId != 0) skeleton = skeleton.exported(objectId);
+        // An interface loaded by another class loader takes the network, its argument types differ
+        if (skeleton == null || skeleton.c != c) return null;
+
+        InetAddress host = address.getAddress();
+        if (host == null) return null;
+        return localHosts.computeIfAbsent(host, h -> LocalSockets.isLocal(address)) ? skeleton : null;
+    }
+
+    /**
+     * Execute a call on a skeleton of this JVM
+     * @param timeout milliseconds the call has to complete, 0 for no limit
+     * @return the outcome of the call, with its value copied as the policy
+     *         requires, or null if the skeleton is no longer running
+     * @throws RMIException if the arguments or outcome cannot be copied
+     */
+    static Marshal.Outcome call(Skeleton<?> skeleton, int methodId, Object[] args, long timeout, CopyPolicy policy)
+            throws RMIException {
+        Dispatcher<?> dispatcher = skeleton.dispatcher;
+        if (dispatcher == null) return null;
+
+        Object[] arguments = args == null ? new Object[0] : args;
+        try {
+            if (policy == CopyPolicy.COPY) arguments = copyAll(arguments);
+
+            Marshal.Outcome outcome = dispatcher.invokeInProcess(methodId, arguments, timeout);
+            if (policy == CopyPolicy.REFERENCE) return outcome;
+            return new Marshal.Outcome(outcome.type, copy(outcome.value));
+        } catch (IOException | ClassNotFoundException e) {
+            throw new RMIException("In-process call to " + skeleton.c.getName() + " failed", e);
+        }
+    }
+
+    private static Object[] copyAll(Object[] args) throws IOException, ClassNotFoundException {
+        Object[] copies = args.clone();
+        for (int i = 0; i < copies.length; i++) copies[i] = copy(copies[i]);
+        return copies;
+    }
+
+    // A copy made as the network would make it, or the value itself if it is immutable
+    private static Object copy(Object value) throws IOException, ClassNotFoundException {
+        if (value == null || immutable.get(value.getClass())) return value;
+        byte[] bytes = Marshal.serialize(value);
+        return Marshal.deserialize(bytes, 0, bytes.length);
+    }
+}
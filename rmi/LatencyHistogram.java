@@ -0,0 +1,192 @@
+package rmi;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Histogram of durations, in nanoseconds.
+
+    <p>
+    Durations are counted in log-linear buckets, as in HDR histograms: each
+    power of two is divided into 32 buckets of equal width, so a percentile is
+    reported with a relative error of at most about 3%. Durations up to 64
+    nanoseconds are counted exactly, and durations above about 68 seconds are
+    counted in the last bucket. The maximum is recorded exactly.
+
+    <p>
+    Recording a duration takes a few atomic increments and no lock, so any
+    number of threads may record at the same time. Reading while durations are
+    being recorded gives values that may not all reflect the same set of
+    recorded durations.
+ */
+public final class LatencyHistogram
+{
+    // Each power of two above 2^SUB_BITS is split into 2^SUB_BITS buckets
+    private static final int SUB_BITS = 5;
+    // Highest bit position of a duration counted in its own bucket
+    private static final int MAX_BIT = 36;
+    private static final int BUCKETS = index((1L << MAX_BIT) - 1) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /** Records a duration. Negative durations are counted as zero. */
+    public void record(long nanos)
+    {
+        if (nanos < 0) nanos = 0;
+
+        counts.incrementAndGet(Math.min(index(nanos), BUCKETS - 1));
+        count.increment();
+        sum.add(nanos);
+        if (nanos > max.get()) max.accumulateAndGet(nanos, Math::max);
+    }
+
+    /** Clears all recorded durations. */
+    void reset()
+    {
+        for (int i = 0; i < BUCKETS; i++) counts.set(i, 0);
+        count.reset();
+        sum.reset();
+        max.set(0);
+    }
+
+    /** Returns the number of durations recorded. */
+    public long getCount()
+    {
+        return count.sum();
+    }
+
+    /** Returns the mean duration, or 0 if none has been recorded. */
+    public double getMean()
+    {
+        long n = count.sum();
+        return n == 0 ? 0 : (double) sum.sum() / n;
+    }
+
+    /** Returns the longest duration recorded, or 0 if none has been
+        recorded. */
+    public long getMax()
+    {
+        return max.get();
+    }
+
+    /** Returns the duration below which the given percentage of the recorded
+        durations fall, or 0 if none has been recorded.
+
+        @param percentile Percentage, between 0 and 100.
+        @return The highest duration counted in the bucket holding the
+                percentile, no more than the maximum.
+        @throws IllegalArgumentException If <code>percentile</code> is not
+                                         between 0 and 100.
+     */
+    public long getValueAtPercentile(double percentile)
+    {
+        if (!(percentile >= 0 && percentile <= 100))
+            throw new IllegalArgumentException("Percentile must be between 0 and 100");
+
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) return Math.min(highest(i), getMax());
+        }
+        return getMax();
+    }
+
+    /** Returns a summary of the durations recorded. */
+    public Summary getSummary()
+    {
+        return new Summary(getCount(), getMean(), getValueAtPercentile(50),
+                           getValueAtPercentile(90), getValueAtPercentile(99),
+                           getValueAtPercentile(99.9), getMax());
+    }
+
+    // Bucket of a duration: below 2^(SUB_BITS + 1) the duration itself, above
+    // the top SUB_BITS + 1 bits, offset by the number of bits shifted out
+    private static int index(long value)
+    {
+        int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - SUB_BITS);
+        return (shift << SUB_BITS) + (int) (value >>> shift);
+    }
+
+    // Highest duration counted in a bucket
+    private static long highest(int index)
+    {
+        if (index < 2 << SUB_BITS) return index;
+
+        int shift = (index >> SUB_BITS) - 1;
+        long sub = index - ((long) shift << SUB_BITS);
+        return ((sub + 1) << shift) - 1;
+    }
+
+    /** Durations recorded by a histogram at one point in time, in
+        nanoseconds. Summaries are the form in which histograms are published
+        through JMX. */
+    public static final class Summary
+    {
+        private final long      count;
+        private final double    mean;
+        private final long      p50;
+        private final long      p90;
+        private final long      p99;
+        private final long      p999;
+        private final long      max;
+
+        Summary(long count, double mean, long p50, long p90, long p99,
+                long p999, long max)
+        {
+            this.count = count;
+            this.mean = mean;
+            this.p50 = p50;
+            this.p90 = p90;
+            this.p99 = p99;
+            this.p999 = p999;
+            this.max = max;
+        }
+
+        public long getCount()
+        {
+            return count;
+        }
+
+        public double getMean()
+        {
+            return mean;
+        }
+
+        public long getP50()
+        {
+            return p50;
+        }
+
+        public long getP90()
+        {
+            return p90;
+        }
+
+        public long getP99()
+        {
+            return p99;
+        }
+
+        public long getP999()
+        {
+            return p999;
+        }
+
+        public long getMax()
+        {
+            return max;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package rmi;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Unix domain sockets of the skeletons running on this host. A skeleton
+ * listening on TCP port p may also listen at the socket file rmi-p.sock, in
+ * the directory named by the rmi.socketDirectory system property, or else the
+ * temporary directory. A stub whose skeleton address is local finds the socket
+ * from the port alone, and connects through it rather than the TCP loopback.
+ * The TCP port being exclusive, a socket file can only belong to the skeleton
+ * that holds the port, or be left over by a skeleton that is gone, in which
+ * case connecting to it fails and the stub uses TCP.
+ */
+final class LocalSockets {
+    static final String DIRECTORY_PROPERTY = "rmi.socketDirectory";
+
+    private LocalSockets() { }
+
+    /** @return the socket file of the skeleton listening on the given TCP port */
+    static Path path(int port) {
+        String directory = System.getProperty(DIRECTORY_PROPERTY, System.getProperty("java.io.tmpdir"));
+        return Paths.get(directory, "rmi-" + port + ".sock");
+    }
+
+    /** @return true if the address is one of this host's addresses */
+    static boolean isLocal(InetSocketAddress address) {
+        InetAddress host = address.getAddress();
+        if (host == null) return false;
+        if (host.isLoopbackAddress() || host.isAnyLocalAddress()) return true;
+        try {
+            return NetworkInterface.getByInetAddress(host) != null;
+        } catch (SocketException e) {
+            return false;
+        }
+    }
+}
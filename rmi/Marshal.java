@@ -0,0 +1,334 @@
+package rmi;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * Encoding of frame bodies. Each body is independent, so frames can be decoded
+ * in any order and on any thread. A call body starts with the fingerprint of
+ * the remote interface's MethodTable and the id of the method, followed by the
+ * arguments; a reply body is the result or the exception thrown.
+ * The encoding depends on the protocol version agreed for the connection with
+ * HELLO frames:
+ * <ul>
+ * <li>SERIALIZED: ints for the fingerprint and id, and the argument array or
+ *     result as a Java object stream. Used on connections that never sent HELLO.</li>
+ * <li>COMPACT: an int fingerprint, a varint id, a varint argument count and
+ *     each argument or the result tagged as described in WireCodec.</li>
+ * <li>BULK: as COMPACT, and large byte arrays are moved to bulk regions of
+ *     the frame.</li>
+ * <li>BATCH: as BULK, and BATCH frames carrying several calls may be sent.
+ *     A BATCH body is an int fingerprint and a varint call count, followed
+ *     by the varint id and arguments of each call as in a COMPACT call. It
+ *     is answered by one RETURN frame whose body is a varint count followed,
+ *     for each call, by the type RETURN or THROW and the tagged value.</li>
+ * <li>ONEWAY: as BATCH, and ONEWAY frames, encoded as CALL frames, may be
+ *     sent for calls to OneWay methods.</li>
+ * <li>COMPRESSION: as ONEWAY, and either side may send compressed frames,
+ *     see Compressor, if the stub offered compression in its HELLO and the
+ *     skeleton accepted it in its answer, see Frame. A side only offers or
+ *     accepts compression if its configuration enables it.</li>
+ * <li>DEADLINE: as COMPRESSION, and the fingerprint of CALL, ONEWAY and
+ *     BATCH bodies is followed by a varint timeout in milliseconds, counted
+ *     from the reception of the frame, 0 for none. A relative timeout does
+ *     not depend on the clocks of the two hosts agreeing.</li>
+ * <li>OBJECT_ID: as DEADLINE, and the timeout of CALL, ONEWAY and BATCH
+ *     bodies is followed by the varint id of the remote object the frame is
+ *     addressed to, 0 for the object the skeleton was created for. Earlier
+ *     versions can only address that object.</li>
+ * </ul>
+ */
+final class Marshal {
+    static final int SERIALIZED = 1;
+    static final int COMPACT = 2;
+    static final int BULK = 3;
+    static final int BATCH = 4;
+    static final int ONEWAY = 5;
+    static final int COMPRESSION = 6;
+    static final int DEADLINE = 7;
+    static final int OBJECT_ID = 8;
+    /** Highest protocol version supported. */
+    static final int VERSION = OBJECT_ID;
+
+    private static final Object[] NO_ARGS = new Object[0];
+
+    private Marshal() { }
+
+    /** @return the version to use on a connection whose peer supports up to the given version */
+    static int negotiate(int offered) {
+        return Math.max(SERIALIZED, Math.min(offered, VERSION));
+    }
+
+    /** @return the CALL frame without timeout, its call id is assigned when it is sent */
+    static Frame call(int version, int fingerprint, int methodId, Object[] args) throws IOException {
+        return call(version, fingerprint, methodId, args, 0);
+    }
+
+    /**
+     * @param timeout milliseconds the skeleton has to execute the call, 0 for
+     *                no limit; not sent before the DEADLINE version
+     * @return the CALL frame, its call id is assigned when it is sent
+     */
+    static Frame call(int version, int fingerprint, int methodId, Object[] args, long timeout) throws IOException {
+        return call(version, 0, fingerprint, methodId, args, timeout);
+    }
+
+    /**
+     * @param objectId id of the remote object on the skeleton's endpoint, 0
+     *                 for the object the skeleton was created for
+     * @return the CALL frame, its call id is assigned when it is sent
+     */
+    static Frame call(int version, int objectId, int fingerprint, int methodId, Object[] args, long timeout)
+            throws IOException {
+        WireCodec.Output out = new WireCodec.Output(128, version >= BULK);
+        out.writeInt(fingerprint);
+        writeHeader(out, version, objectId, timeout);
+
+        if (version == SERIALIZED) {
+            out.writeInt(methodId);
+            byte[] serialized = serialize(args);
+            out.write(serialized, 0, serialized.length);
+            return new Frame(Frame.CALL, 0, out.toByteArray());
+        }
+
+        out.writeVarLong(methodId);
+        writeArgs(out, args);
+        return new Frame(Frame.CALL, 0, out.toByteArray(), out.regions());
+    }
+
+    /** @return the ONEWAY frame, as the CALL frame but answered only if the call fails */
+    static Frame oneWay(int version, int objectId, int fingerprint, int methodId, Object[] args, long timeout)
+            throws IOException {
+        Frame call = call(version, objectId, fingerprint, methodId, args, timeout);
+        return new Frame(Frame.ONEWAY, 0, call.body, call.regions);
+    }
+
+    /** @return the BATCH frame making the given calls in order */
+    static Frame batch(int version, int objectId, int fingerprint, int[] methodIds, Object[][] args, long timeout)
+            throws IOException {
+        WireCodec.Output out = new WireCodec.Output(256, true);
+        out.writeInt(fingerprint);
+        writeHeader(out, version, objectId, timeout);
+        out.writeVarLong(methodIds.length);
+        for (int i = 0; i < methodIds.length; i++) {
+            out.writeVarLong(methodIds[i]);
+            writeArgs(out, args[i]);
+        }
+        return new Frame(Frame.BATCH, 0, out.toByteArray(), out.regions());
+    }
+
+    // The fields following the fingerprint, for the versions that have them
+    private static void writeHeader(WireCodec.Output out, int version, int objectId, long timeout)
+            throws IOException {
+        if (objectId != 0 && version < OBJECT_ID)
+            throw new InvalidObjectException("Protocol version " + version + " cannot address object " + objectId);
+        if (version >= DEADLINE) out.writeVarLong(timeout);
+        if (version >= OBJECT_ID) out.writeVarLong(objectId);
+    }
+
+    private static void writeArgs(WireCodec.Output out, Object[] args) throws IOException {
+        int count = args == null ? 0 : args.length;
+        out.writeVarLong(count);
+        for (int i = 0; i < count; i++) WireCodec.write(out, args[i]);
+    }
+
+    static Call decodeCall(int version, Frame call) throws IOException, ClassNotFoundException {
+        byte[] body = call.body;
+        WireCodec.Input input = new WireCodec.Input(body, call.regions);
+        ByteBuffer in = input.buffer;
+        if (in.remaining() < (version == SERIALIZED ? 8 : 4)) throw new EOFException("Truncated call");
+        int fingerprint = in.getInt();
+
+        if (version == SERIALIZED) {
+            int methodId = in.getInt();
+            Object[] args = (Object[]) deserialize(body, in.position(), in.remaining());
+            return new Call(fingerprint, methodId, args == null ? NO_ARGS : args);
+        }
+
+        long timeout = version >= DEADLINE ? readTimeout(in) : 0;
+        if (version >= OBJECT_ID) readObjectId(in);
+        int methodId = (int) WireCodec.readVarLong(in);
+        return new Call(fingerprint, methodId, readArgs(input), timeout);
+    }
+
+    static Call[] decodeBatch(int version, Frame batch) throws IOException, ClassNotFoundException {
+        WireCodec.Input input = new WireCodec.Input(batch.body, batch.regions);
+        ByteBuffer in = input.buffer;
+        if (in.remaining() < 4) throw new EOFException("Truncated batch");
+        int fingerprint = in.getInt();
+        long timeout = version >= DEADLINE ? readTimeout(in) : 0;
+        if (version >= OBJECT_ID) readObjectId(in);
+
+        Call[] calls = new Call[readCount(in)];
+        for (int i = 0; i < calls.length; i++) {
+            int methodId = (int) WireCodec.readVarLong(in);
+            calls[i] = new Call(fingerprint, methodId, readArgs(input), timeout);
+        }
+        return calls;
+    }
+
+    private static long readTimeout(ByteBuffer in) throws IOException {
+        long timeout = WireCodec.readVarLong(in);
+        if (timeout < 0) throw new StreamCorruptedException("Invalid timeout " + timeout);
+        return timeout;
+    }
+
+    /**
+     * Peek at the object a CALL, ONEWAY or BATCH frame is addressed to, without
+     * decoding the arguments.
+     * @return the object id, 0 before the OBJECT_ID version
+     */
+    static int objectId(int version, Frame call) throws IOException {
+        if (version < OBJECT_ID) return 0;
+        ByteBuffer in = ByteBuffer.wrap(call.body);
+        if (in.remaining() < 4) throw new EOFException("Truncated call");
+        in.position(4);
+        readTimeout(in);
+        return readObjectId(in);
+    }
+
+    /**
+     * Peek at the method a CALL or ONEWAY frame calls, without decoding the
+     * arguments.
+     * @return the method id
+     */
+    static int methodId(int version, Frame call) throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(call.body);
+        if (in.remaining() < (version == SERIALIZED ? 8 : 4)) throw new EOFException("Truncated call");
+        in.position(4);
+        if (version == SERIALIZED) return in.getInt();
+
+        if (version >= DEADLINE) readTimeout(in);
+        if (version >= OBJECT_ID) readObjectId(in);
+        return (int) WireCodec.readVarLong(in);
+    }
+
+    private static int readObjectId(ByteBuffer in) throws IOException {
+        long objectId = WireCodec.readVarLong(in);
+        if (objectId < 0 || objectId > Integer.MAX_VALUE)
+            throw new StreamCorruptedException("Invalid object id " + objectId);
+        return (int) objectId;
+    }
+
+    private static Object[] readArgs(WireCodec.Input input) throws IOException, ClassNotFoundException {
+        int count = readCount(input.buffer);
+        Object[] args = count == 0 ? NO_ARGS : new Object[count];
+        for (int i = 0; i < args.length; i++) args[i] = WireCodec.read(input);
+        return args;
+    }
+
+    // Every counted item takes at least one byte
+    private static int readCount(ByteBuffer in) throws IOException {
+        long count = WireCodec.readVarLong(in);
+        if (count < 0 || count > in.remaining()) throw new StreamCorruptedException("Invalid count " + count);
+        return (int) count;
+    }
+
+    /**
+     * Encode a reply
+     * @param type RETURN or THROW
+     * @param value result or exception
+     */
+    static Frame reply(int version, byte type, int callId, Object value) throws IOException {
+        if (version == SERIALIZED) return new Frame(type, callId, serialize(value));
+
+        WireCodec.Output out = new WireCodec.Output(64, version >= BULK);
+        WireCodec.write(out, value);
+        return new Frame(type, callId, out.toByteArray(), out.regions());
+    }
+
+    /** Encode a reply whose value is known to be serializable. */
+    static Frame replyUnchecked(int version, byte type, int callId, Object value) {
+        try {
+            return reply(version, type, callId, value);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Encode the reply to a BATCH frame
+     * @param outcomes result or exception of each call, in order
+     */
+    static Frame batchReply(int callId, Outcome[] outcomes) throws IOException {
+        WireCodec.Output out = new WireCodec.Output(256, true);
+        out.writeVarLong(outcomes.length);
+        for (Outcome outcome : outcomes) {
+            out.write(outcome.type);
+            WireCodec.write(out, outcome.value);
+        }
+        return new Frame(Frame.RETURN, callId, out.toByteArray(), out.regions());
+    }
+
+    static Outcome[] decodeBatchReply(Frame reply) throws IOException, ClassNotFoundException {
+        WireCodec.Input input = new WireCodec.Input(reply.body, reply.regions);
+        Outcome[] outcomes = new Outcome[readCount(input.buffer)];
+        for (int i = 0; i < outcomes.length; i++) {
+            if (!input.buffer.hasRemaining()) throw new EOFException("Truncated batch reply");
+            byte type = input.buffer.get();
+            if (type != Frame.RETURN && type != Frame.THROW)
+                throw new StreamCorruptedException("Invalid outcome type " + type);
+            outcomes[i] = new Outcome(type, WireCodec.read(input));
+        }
+        return outcomes;
+    }
+
+    /** @return the result or exception carried by a reply */
+    static Object decode(int version, Frame reply) throws IOException, ClassNotFoundException {
+        if (version == SERIALIZED) return deserialize(reply.body, 0, reply.body.length);
+        return WireCodec.read(new WireCodec.Input(reply.body, reply.regions));
+    }
+
+    static byte[] serialize(Object value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(value);
+        }
+        return bytes.toByteArray();
+    }
+
+    static Object deserialize(byte[] bytes, int offset, int length) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes, offset, length))) {
+            return in.readObject();
+        }
+    }
+
+    /** Result or exception of one call of a batch. */
+    static final class Outcome {
+        /** RETURN or THROW */
+        final byte type;
+        final Object value;
+        // Set by the dispatcher for a call whose deadline expired, for its metrics
+        final boolean expired;
+
+        Outcome(byte type, Object value) {
+            this(type, value, false);
+        }
+
+        Outcome(byte type, Object value, boolean expired) {
+            this.type = type;
+            this.value = value;
+            this.expired = expired;
+        }
+    }
+
+    /** Decoded call body. The arguments are never null. */
+    static final class Call {
+        final int fingerprint;
+        final int methodId;
+        final Object[] args;
+        // Milliseconds from the reception of the call, 0 for no limit
+        final long timeout;
+
+        Call(int fingerprint, int methodId, Object[] args) {
+            this(fingerprint, methodId, args, 0);
+        }
+
+        Call(int fingerprint, int methodId, Object[] args, long timeout) {
+            this.fingerprint = fingerprint;
+            this.methodId = methodId;
+            this.args = args;
+            this.timeout = timeout;
+        }
+    }
+}
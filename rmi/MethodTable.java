@@ -0,0 +1,136 @@
+package rmi;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.*;
+
+/**
+ * Numbering of the methods of a remote interface.
+ * Methods are sorted by name and parameter types, so a stub and a skeleton
+ * built from the same interface assign the same id to each method without
+ * exchanging any names. A call frame carries the id and the fingerprint of the
+ * table, a hash of all method signatures; a skeleton refuses calls whose
+ * fingerprint differs from its own, since the ids would then refer to
+ * different methods.
+ * Tables are computed once per interface and shared.
+ * Building a table checks that every method marked OneWay returns void.
+ * The table also holds the priority class of each method, from its Priority
+ * annotation or else the interface's.
+ */
+final class MethodTable {
+    private static final ClassValue<MethodTable> tables = new ClassValue<MethodTable>() {
+        @Override
+        protected MethodTable computeValue(Class<?> c) {
+            return new MethodTable(c);
+        }
+    };
+
+    // Type of the handles returned by bind: (Object[] args) -> Object
+    private static final MethodType SPREAD_TYPE = MethodType.methodType(Object.class, Object[].class);
+
+    final Class<?> c;
+    final int fingerprint;
+    private final Method[] methods;
+    private final boolean[] oneWay;
+    private final CallPriority[] priorities;
+    // Priority of the interface, for batches and unknown method ids
+    private final CallPriority priority;
+    private final Map<Method, Integer> ids = new HashMap<>();
+
+    private MethodTable(Class<?> c) {
+        this.c = c;
+
+        List<Method> list = new ArrayList<>();
+        for (Method method : c.getMethods()) {
+            if (!Modifier.isStatic(method.getModifiers())) list.add(method);
+        }
+        list.sort(Comparator.comparing(MethodTable::signature));
+        methods = list.toArray(new Method[0]);
+
+        oneWay = new boolean[methods.length];
+        for (int id = 0; id < methods.length; id++) {
+            if (!methods[id].isAnnotationPresent(OneWay.class)) continue;
+            if (methods[id].getReturnType() != void.class)
+                throw new Error("One-way method " + methods[id] + " must return void");
+            oneWay[id] = true;
+        }
+
+        priority = priority(c.getAnnotation(Priority.class), CallPriority.NORMAL);
+        priorities = new CallPriority[methods.length];
+        for (int id = 0; id < methods.length; id++)
+            priorities[id] = priority(methods[id].getAnnotation(Priority.class), priority);
+
+        int hash = 1;
+        for (int id = 0; id < methods.length; id++) {
+            ids.put(methods[id], id);
+            hash = 31 * hash + signature(methods[id]).hashCode();
+        }
+        fingerprint = hash;
+    }
+
+    static MethodTable of(Class<?> c) {
+        return tables.get(c);
+    }
+
+    /** @return the id of a method of the interface, or -1 if it is not one */
+    int idOf(Method method) {
+        Integer id = ids.get(method);
+        return id == null ? -1 : id;
+    }
+
+    /** @return the method with the given id, or null if there is none */
+    Method method(int id) {
+        return id >= 0 && id < methods.length ? methods[id] : null;
+    }
+
+    boolean isOneWay(int id) {
+        return oneWay[id];
+    }
+
+    /** @return the priority class of the method with the given id, the interface's for -1 or an unknown id */
+    CallPriority priority(int id) {
+        return id >= 0 && id < priorities.length ? priorities[id] : priority;
+    }
+
+    private static CallPriority priority(Priority annotation, CallPriority otherwise) {
+        return annotation == null ? otherwise : annotation.value();
+    }
+
+    int size() {
+        return methods.length;
+    }
+
+    /**
+     * Handles invoking each method, by id, on the given object. Each handle
+     * takes the arguments as an array and returns the result boxed, or null
+     * for a void method. Exceptions thrown by the method are not wrapped.
+     */
+    MethodHandle[] bind(Object target) {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        MethodHandle[] handles = new MethodHandle[methods.length];
+
+        for (int id = 0; id < methods.length; id++) {
+            Method method = methods[id];
+            // Interfaces that are not public are still served, as they were by reflection
+            method.trySetAccessible();
+            try {
+                handles[id] = lookup.unreflect(method)
+                        .bindTo(target)
+                        .asSpreader(Object[].class, method.getParameterCount())
+                        .asType(SPREAD_TYPE);
+            } catch (IllegalAccessException e) {
+                throw new Error("Remote method " + method + " is not accessible", e);
+            }
+        }
+        return handles;
+    }
+
+    private static String signature(Method method) {
+        StringBuilder s = new StringBuilder(method.getName()).append('(');
+        for (Class<?> type : method.getParameterTypes()) s.append(type.getName()).append(';');
+        return s.append(')').toString();
+    }
+}
@@ -0,0 +1,31 @@
+package rmi;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/** Marks a method of a remote interface as one-way.
+
+    <p>
+    A call to a one-way method returns as soon as the call has been written to
+    the connection to the skeleton; the stub does not wait for the method to be
+    executed, and the skeleton sends no reply when the method completes
+    normally. One-way methods must return <code>void</code>.
+
+    <p>
+    A stub still throws <code>RMIException</code> if the call cannot be sent.
+    Exceptions that occur later, including exceptions thrown by the method
+    itself and rejection of the call by a busy skeleton, are reported to the
+    skeleton's <code>service_error</code> method and, if one is set, to the
+    error listener of the stub's <code>ConnectionPool</code>. A one-way call
+    therefore suits commands whose failure the caller does not need to handle
+    immediately.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface OneWay
+{
+}
@@ -0,0 +1,26 @@
+package rmi;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/** Sets the priority class of the calls to a remote interface or method.
+
+    <p>
+    An annotation on a method takes precedence over an annotation on the
+    remote interface; methods with neither have the priority
+    <code>NORMAL</code>. A batch of calls has the priority of the interface.
+    The priority only orders the execution of calls waiting for a worker
+    thread of the skeleton, see <code>CallPriority</code>. It is not sent to
+    the skeleton, which reads it from its own copy of the interface.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.TYPE, ElementType.METHOD})
+public @interface Priority
+{
+    /** The priority class. */
+    CallPriority value();
+}
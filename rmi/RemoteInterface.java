@@ -0,0 +1,34 @@
+package rmi;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/** Marks a remote interface for which a stub class and a skeleton dispatcher
+    are generated at compile time.
+
+    <p>
+    When the interface is compiled with the annotation processor
+    <code>build.RemoteProcessor</code>, as the Makefile does, the processor
+    generates two classes in the package of the interface: a stub, named after
+    the interface with the suffix <code>_Stub</code>, which implements each
+    method by a direct call, and a dispatcher, with the suffix
+    <code>_Dispatcher</code>, which invokes the methods of the server object
+    through a <code>switch</code> on the method id. <code>Stub.create</code> and
+    <code>Skeleton</code> then use these classes in place of dynamic proxies and
+    reflection. When the classes are absent, or were generated from a different
+    version of the interface, stubs and skeletons fall back to dynamic proxies
+    and reflection, with the same behavior.
+
+    <p>
+    The interface must be public, and must not be generic or declare generic
+    methods; the processor generates nothing for other interfaces.
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface RemoteInterface
+{
+}
@@ -0,0 +1,179 @@
+package rmi;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Endpoints of a remote object replicated on several skeletons, and the choice
+ * of the endpoint of each call of a stub.
+ * Each endpoint tracks its calls in flight and an exponentially weighted
+ * moving average of the latency of its calls. A call goes to the better of
+ * two endpoints drawn at random, the power of two choices: the one whose
+ * average latency, multiplied by its calls in flight plus one, is lower. This
+ * avoids both comparing every endpoint and sending every call to the same
+ * best one. An endpoint without latency sample yet is preferred, so that it
+ * is measured.
+ * An endpoint whose calls fail to connect, fail on the connection or time out
+ * FAILURES times in a row is ejected for a backoff period, which doubles at
+ * each ejection up to MAX_BACKOFF. Once the period is over, a single call
+ * probes the endpoint: it rejoins if the call succeeds, and is ejected again
+ * if it fails. A probe that ends without either, such as a one-way call or a
+ * call that fails before it is sent, is released for a later call to probe
+ * again. While every endpoint is ejected, calls go to the one whose period
+ * ends first. A rejected call doubles the average latency of its endpoint,
+ * which is overloaded but not unhealthy.
+ */
+final class ReplicaSet {
+    static final int FAILURES = 3;
+    static final long MIN_BACKOFF = TimeUnit.SECONDS.toNanos(1);
+    static final long MAX_BACKOFF = TimeUnit.SECONDS.toNanos(30);
+    // Weight of a new sample in the average latency
+    private static final double ALPHA = 0.2;
+    // Average latency of an endpoint without sample that rejects a call
+    private static final double REJECTED_LATENCY = TimeUnit.MILLISECONDS.toNanos(1);
+
+    final Endpoint[] endpoints;
+
+    ReplicaSet(InetSocketAddress[] addresses) {
+        endpoints = new Endpoint[addresses.length];
+        for (int i = 0; i < addresses.length; i++) endpoints[i] = new Endpoint(addresses[i]);
+    }
+
+    /** @return the endpoint of the next call, whose calls in flight include that call */
+    Endpoint choose() {
+        long now = System.nanoTime();
+        Endpoint chosen = probe(now);
+        if (chosen != null) return chosen;
+
+        chosen = twoChoices(now);
+        chosen.inFlight.incrementAndGet();
+        return chosen;
+    }
+
+    // An ejected endpoint whose backoff is over, claimed for a probe
+    private Endpoint probe(long now) {
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint.claimProbe(now)) return endpoint;
+        }
+        return null;
+    }
+
+    private Endpoint twoChoices(long now) {
+        int[] healthy = new int[endpoints.length];
+        int count = 0;
+        Endpoint soonest = endpoints[0];
+        for (int i = 0; i < endpoints.length; i++) {
+            if (!endpoints[i].isEjected(now)) healthy[count++] = i;
+            else if (endpoints[i].ejectedUntil < soonest.ejectedUntil) soonest = endpoints[i];
+        }
+
+        if (count == 0) return soonest;
+        if (count == 1) return endpoints[healthy[0]];
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(count);
+        int second = random.nextInt(count - 1);
+        if (second >= first) second++;
+
+        Endpoint a = endpoints[healthy[first]], b = endpoints[healthy[second]];
+        return a.cost() <= b.cost() ? a : b;
+    }
+
+    /** State of one endpoint, shared by the stubs for the replica set. */
+    static final class Endpoint {
+        final InetSocketAddress address;
+        final AtomicInteger inFlight = new AtomicInteger();
+
+        // Average latency in nanoseconds, 0 until the first sample
+        private volatile double latency = 0;
+        // Guarded by this
+        private int failures = 0;
+        private long backoff = MIN_BACKOFF;
+        // System.nanoTime at which the ejection ends, 0 if the endpoint is not ejected
+        private volatile long ejectedUntil = 0;
+        private final AtomicBoolean probing = new AtomicBoolean();
+
+        // Metrics of the stubs' calls to the endpoint, looked up on first use
+        volatile StubMetrics metrics;
+
+        Endpoint(InetSocketAddress address) {
+            this.address = address;
+        }
+
+        // An endpoint is ejected while a probe is in flight too
+        boolean isEjected(long now) {
+            long until = ejectedUntil;
+            return until != 0 && (now - until < 0 || probing.get());
+        }
+
+        // The probe is counted in flight as it is claimed, so that it is not released before it starts
+        synchronized boolean claimProbe(long now) {
+            long until = ejectedUntil;
+            if (until == 0 || now - until < 0 || !probing.compareAndSet(false, true)) return false;
+            inFlight.incrementAndGet();
+            return true;
+        }
+
+        double cost() {
+            return latency * (inFlight.get() + 1);
+        }
+
+        /** A further call is made to the endpoint, on behalf of the call it was chosen for. */
+        void started() {
+            inFlight.incrementAndGet();
+        }
+
+        /**
+         * The call made to the endpoint is over, whatever its outcome. A probe
+         * still claimed once no call is in flight recorded no outcome, and is
+         * released.
+         */
+        void finished() {
+            if (inFlight.decrementAndGet() == 0 && probing.get()) releaseProbe();
+        }
+
+        private synchronized void releaseProbe() {
+            if (inFlight.get() == 0) probing.set(false);
+        }
+
+        /** A reply was received, after the given nanoseconds. */
+        synchronized void succeeded(long nanos) {
+            double current = latency;
+            latency = current == 0 ? nanos : current + ALPHA * (nanos - current);
+            failures = 0;
+            backoff = MIN_BACKOFF;
+            ejectedUntil = 0;
+            probing.set(false);
+        }
+
+        /** The call was rejected because the skeleton is busy. */
+        synchronized void rejected() {
+            double current = latency;
+            latency = current == 0 ? REJECTED_LATENCY : 2 * current;
+            if (probing.get()) {
+                ejectedUntil = 0;
+                probing.set(false);
+            }
+        }
+
+        /** The call failed to connect, failed on the connection or timed out. */
+        synchronized void failed() {
+            failures++;
+            if (probing.get()) {
+                eject();
+                probing.set(false);
+            } else if (failures >= FAILURES && ejectedUntil == 0) {
+                eject();
+            }
+        }
+
+        private void eject() {
+            long until = System.nanoTime() + backoff;
+            ejectedUntil = until == 0 ? 1 : until;
+            backoff = Math.min(2 * backoff, MAX_BACKOFF);
+        }
+    }
+}
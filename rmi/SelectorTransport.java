@@ -0,0 +1,457 @@
+package rmi;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Selector-based transport. A few event loop threads, each with its own
+ * Selector, accept connections and do all socket reads and writes in
+ * non-blocking mode. Complete call frames are handed to the skeleton's worker
+ * pool, and the replies are queued back to the event loop that owns the connection.
+ * Connection state is only touched by its event loop thread.
+ * The transport listens on TCP, or on a Unix domain socket whose file is
+ * deleted when the transport stops. With several acceptors, a TCP transport
+ * binds one listening channel per acceptor to its port with SO_REUSEPORT, and
+ * each channel is accepted by one of the event loops in turn.
+ * Reads and writes go through direct buffers of the BufferPool: each
+ * connection holds a read buffer while it is open, and each reply is encoded
+ * into a pooled buffer that is released once it has been written.
+ */
+class SelectorTransport<T> implements SkeletonTransport {
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Skeleton<T> skeleton;
+    private final Dispatcher<T> dispatcher;
+    // Listening channels, the one of index i accepted by the loop of index i modulo the loop count
+    private List<ServerSocketChannel> servers;
+    // The socket file when listening on a Unix domain socket, null on TCP
+    private UnixDomainSocketAddress local;
+    private List<EventLoop> loops;
+    private volatile boolean stopping = false;
+    // Accepting loops hand connections to the loops in turn
+    private final AtomicInteger nextLoop = new AtomicInteger();
+
+    SelectorTransport(Skeleton<T> skeleton, Dispatcher<T> dispatcher) {
+        this.skeleton = skeleton;
+        this.dispatcher = dispatcher;
+    }
+
+    @Override
+    public int start(SocketAddress address) throws IOException {
+        local = address instanceof UnixDomainSocketAddress ? (UnixDomainSocketAddress) address : null;
+        int acceptors = local != null ? 1 : SkeletonTransport.acceptors(skeleton);
+        int port = local != null || address == null ? 0 : ((InetSocketAddress) address).getPort();
+        servers = new ArrayList<>();
+        loops = new ArrayList<>();
+        try {
+            for (int i = 0; i < skeleton.config.getIoThreads(); i++) loops.add(new EventLoop(this, i));
+
+            // The first channel is bound to the requested port, the others to the one it got
+            for (int i = 0; i < acceptors; i++) {
+                ServerSocketChannel server = local != null
+                        ? ServerSocketChannel.open(StandardProtocolFamily.UNIX) : ServerSocketChannel.open();
+                servers.add(server);
+                if (local != null) {
+                    server.bind(local);
+                } else {
+                    if (acceptors > 1) server.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+                    server.bind(new InetSocketAddress(port));
+                    port = ((InetSocketAddress) server.getLocalAddress()).getPort();
+                }
+                server.configureBlocking(false);
+                server.register(acceptor(i).selector, SelectionKey.OP_ACCEPT);
+            }
+        } catch (IOException e) {
+            for (ServerSocketChannel server : servers) server.close();
+            for (EventLoop loop : loops) loop.selector.close();
+            throw e;
+        }
+
+        for (EventLoop loop : loops) loop.thread.start();
+
+        return port;
+    }
+
+    // The event loop accepting on the listening channel of the given index
+    private EventLoop acceptor(int index) {
+        return loops.get(index % loops.size());
+    }
+
+    @Override
+    public void stop() {
+        stopping = true;
+
+        CountDownLatch closed = new CountDownLatch(servers.size());
+        closeServers(closed);
+        for (EventLoop loop : loops) loop.selector.wakeup();
+
+        boolean interrupted = false;
+        while (true) {
+            try {
+                closed.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    // A registered channel is only really closed once its key is flushed by a
+    // select, so each listening channel is closed by its accepting loop
+    private void closeServers(CountDownLatch closed) {
+        for (int i = 0; i < servers.size(); i++) {
+            ServerSocketChannel server = servers.get(i);
+            EventLoop loop = acceptor(i);
+            loop.execute(() -> {
+                closeServer(server, loop);
+                closed.countDown();
+            });
+        }
+    }
+
+    private void closeServer(ServerSocketChannel server, EventLoop loop) {
+        try {
+            server.close();
+            loop.selector.selectNow();
+        } catch (IOException e) { }
+
+        if (local != null) {
+            try {
+                Files.deleteIfExists(local.getPath());
+            } catch (IOException e) { }
+        }
+    }
+
+    private boolean serversOpen() {
+        for (ServerSocketChannel server : servers) {
+            if (server.isOpen()) return true;
+        }
+        return false;
+    }
+
+    private void accept(ServerSocketChannel server) {
+        SocketChannel channel;
+        try {
+            channel = server.accept();
+            if (channel == null) return;
+
+            channel.configureBlocking(false);
+            if (local == null) channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        } catch (IOException e) {
+            if (stopping) return;
+            if (skeleton.listen_error(e)) return;
+
+            // Connections already accepted are drained as on stop, and the other acceptors stop accepting
+            stopping = true;
+            closeServers(new CountDownLatch(servers.size()));
+            skeleton.transportFailed(this, e);
+            return;
+        }
+
+        System.out.println(local != null ? "New connection on " + local
+                : "New connection from " + channel.socket().getRemoteSocketAddress());
+
+        EventLoop loop = loops.get(Math.floorMod(nextLoop.getAndIncrement(), loops.size()));
+        loop.execute(() -> loop.register(channel));
+    }
+
+    // An event loop is exiting on a failure: the transport stops as when
+    // accepting fails, returns false if it was already stopping
+    private boolean loopFailed() {
+        if (stopping) return false;
+        stopping = true;
+        closeServers(new CountDownLatch(servers.size()));
+        for (EventLoop loop : loops) loop.selector.wakeup();
+        return true;
+    }
+
+    /**
+     * Event loop thread with its own Selector and connections. The loop and
+     * its connections are static classes, so that the connection attached to
+     * a key is not of a type that depends on T.
+     */
+    private static class EventLoop implements Runnable {
+        private final SelectorTransport<?> transport;
+        final Selector selector;
+        final Thread thread;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final Set<SelectorConnection> connections = new HashSet<>();
+
+        EventLoop(SelectorTransport<?> transport, int index) throws IOException {
+            this.transport = transport;
+            selector = Selector.open();
+            // Not a daemon, so that a started skeleton keeps the JVM running, as the
+            // listening thread of the blocking transport does; it exits once stopped
+            thread = new Thread(this, "rmi-selector-" + index);
+        }
+
+        /** Run a task on the loop thread. */
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        void register(SocketChannel channel) {
+            try {
+                SelectorConnection connection = new SelectorConnection(this, channel, transport.dispatcher);
+                connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                connections.add(connection);
+                if (transport.stopping) connection.shutdown();
+            } catch (IOException e) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) { }
+            }
+        }
+
+        // A failure in serving one connection closes that connection, not the loop
+        void serve(SelectorConnection connection, Runnable action) {
+            try {
+                action.run();
+            } catch (RuntimeException | Error e) {
+                connection.close();
+                transport.skeleton.service_error(new RMIException("Connection failed", e));
+            }
+        }
+
+        @Override
+        public void run() {
+            Throwable failure = null;
+            try {
+                while (true) {
+                    selector.select(1000);
+
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) task.run();
+
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        if (!key.isValid()) continue;
+
+                        if (key.isAcceptable()) {
+                            transport.accept((ServerSocketChannel) key.channel());
+                            continue;
+                        }
+
+                        SelectorConnection connection = (SelectorConnection) key.attachment();
+                        serve(connection, () -> {
+                            if (key.isReadable()) connection.read();
+                            if (key.isValid() && key.isWritable()) connection.flush();
+                        });
+                    }
+
+                    long now = System.currentTimeMillis();
+                    for (SelectorConnection connection : new ArrayList<>(connections)) {
+                        if (transport.stopping) connection.shutdown();
+                        else if (connection.isIdle(now)) connection.close();
+                    }
+
+                    // A stopped loop exits once its connections are drained. The
+                    // listening sockets are closed last by the accepting loops, so
+                    // connections they have handed over are already queued.
+                    if (transport.stopping && connections.isEmpty() && tasks.isEmpty() && !transport.serversOpen())
+                        break;
+                }
+            } catch (IOException | RuntimeException | Error e) {
+                // Nothing more can be served by this loop
+                failure = e;
+            } finally {
+                boolean failed = failure != null && transport.loopFailed();
+                if (failure != null) {
+                    // Close the listening channels this loop accepts on, among others
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        try {
+                            task.run();
+                        } catch (RuntimeException | Error e) { }
+                    }
+                }
+                for (SelectorConnection connection : new ArrayList<>(connections)) connection.close();
+                try {
+                    selector.close();
+                } catch (IOException e) { }
+                if (failed) transport.skeleton.transportFailed(transport, failure);
+            }
+        }
+    }
+
+    /** State of one stub connection, owned by its event loop. */
+    private static class SelectorConnection {
+        private final EventLoop loop;
+        private final SocketChannel channel;
+        private final Dispatcher<?> dispatcher;
+        SelectionKey key;
+
+        private ByteBuffer input = BufferPool.SHARED.acquire(BUFFER_SIZE);
+        private final ArrayDeque<ByteBuffer> output = new ArrayDeque<>();
+        // The buffers of output taken from the pool, in the same order
+        private final ArrayDeque<ByteBuffer> pooled = new ArrayDeque<>();
+        // Reused to pass output to the gathering write
+        private ByteBuffer[] writing = new ByteBuffer[4];
+        private int inFlight = 0;
+        private boolean closing = false;
+        private long lastActive = System.currentTimeMillis();
+        private int version = Marshal.SERIALIZED;
+        private Compressor compressor;
+
+        SelectorConnection(EventLoop loop, SocketChannel channel, Dispatcher<?> dispatcher) {
+            this.loop = loop;
+            this.channel = channel;
+            this.dispatcher = dispatcher;
+        }
+
+        void read() {
+            int count;
+            try {
+                count = channel.read(input);
+            } catch (IOException e) {
+                close();
+                return;
+            }
+            if (count < 0) {
+                close();
+                return;
+            }
+            lastActive = System.currentTimeMillis();
+
+            input.flip();
+            try {
+                Frame call;
+                while ((call = Frame.parse(input)) != null) {
+                    if (call.type == Frame.HELLO) {
+                        hello(call);
+                    } else {
+                        Dispatcher.checkCompression(call, compressor);
+                        submit(call);
+                    }
+                    // Answering the HELLO may have closed the connection and released the buffer
+                    if (!channel.isOpen()) return;
+                }
+
+                // Grow the buffer if the next frame does not fit in it
+                int length = Frame.pendingLength(input);
+                if (length >= 0 && 4 + length > input.capacity()) {
+                    input = BufferPool.SHARED.grow(input, 4 + length);
+                    return;
+                }
+                // and give a buffer grown for a large call back once it is drained
+                if (!input.hasRemaining() && input.capacity() > BUFFER_SIZE) {
+                    BufferPool.SHARED.release(input);
+                    input = BufferPool.SHARED.acquire(BUFFER_SIZE);
+                    return;
+                }
+            } catch (StreamCorruptedException e) {
+                dispatcher.protocolError(e);
+                close();
+                return;
+            }
+            input.compact();
+        }
+
+        private void hello(Frame hello) throws StreamCorruptedException {
+            version = dispatcher.negotiate(hello);
+            compressor = dispatcher.compressor(hello, version);
+            queue(Frame.hello(version, compressor != null));
+            flush();
+        }
+
+        private void submit(Frame call) {
+            if (closing) return;
+
+            inFlight++;
+            // Replies are compressed by the worker thread rather than the event loop
+            Compressor compressor = this.compressor;
+            dispatcher.submit(call, version, reply -> {
+                Frame frame = reply == null || compressor == null ? reply : compressor.compress(reply);
+                loop.execute(() -> loop.serve(this, () -> complete(frame)));
+            });
+        }
+
+        private void complete(Frame reply) {
+            inFlight--;
+            if (!channel.isOpen()) return;
+
+            // A one-way call that completed normally has no reply, flushing may still close
+            if (reply != null) queue(reply);
+            flush();
+        }
+
+        // Bulk regions are queued as buffers of their own for the gathering write
+        private void queue(Frame frame) {
+            ByteBuffer header = BufferPool.SHARED.acquire(frame.headerLength());
+            try {
+                frame.encodeHeader(header);
+            } catch (IOException e) {
+                // The dispatcher only produces frames within the length limit
+                BufferPool.SHARED.release(header);
+                throw new IllegalStateException(e);
+            }
+            pooled.add(header.flip());
+            output.add(header);
+            for (ByteBuffer region : frame.regions) output.add(region.duplicate());
+        }
+
+        void flush() {
+            int count = output.size();
+            if (writing.length < count) writing = new ByteBuffer[Math.max(count, 2 * writing.length)];
+            output.toArray(writing);
+            try {
+                channel.write(writing, 0, count);
+            } catch (IOException e) {
+                close();
+                return;
+            } finally {
+                Arrays.fill(writing, 0, count, null);
+            }
+            while (!output.isEmpty() && !output.peek().hasRemaining()) {
+                if (output.poll() == pooled.peek()) BufferPool.SHARED.release(pooled.poll());
+            }
+            lastActive = System.currentTimeMillis();
+
+            if (closing && inFlight == 0 && output.isEmpty()) {
+                close();
+                return;
+            }
+            key.interestOps(output.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+
+        /** Close once the calls in progress have been answered. */
+        void shutdown() {
+            closing = true;
+            if (inFlight == 0 && output.isEmpty()) close();
+        }
+
+        boolean isIdle(long now) {
+            return inFlight == 0 && output.isEmpty() && now - lastActive >= Skeleton.KEEP_ALIVE_TIMEOUT;
+        }
+
+        void close() {
+            loop.connections.remove(this);
+            if (key != null) key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) { }
+
+            // Only the loop thread uses the buffers, and not after the channel is closed
+            if (input != null) BufferPool.SHARED.release(input);
+            input = null;
+            while (!pooled.isEmpty()) BufferPool.SHARED.release(pooled.poll());
+            output.clear();
+        }
+    }
+}
@@ -1,11 +1,19 @@
 package rmi;
 
 import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.management.ManagementFactory;
 import java.lang.reflect.Method;
 import java.net.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import javax.management.JMException;
+import javax.management.ObjectName;
 import java.util.Arrays;
+import java.util.Map;
 import java.util.Objects;
-import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /** RMI skeleton
 
@@ -28,13 +36,47 @@ import java.util.Random;
     The skeleton's response to these exceptions can be customized by deriving
     a class from <code>Skeleton</code> and overriding <code>listen_error</code>
     or <code>service_error</code>.
+
+    <p>
+    Several remote objects, of the same or of different interfaces, may share
+    one endpoint. A skeleton created with a <i>host</i> skeleton does not
+    listen itself: it exports its object on the host's port under an object
+    ID, and requests from stubs created for it carry that ID. The host's
+    worker threads execute the calls of all the objects it serves.
 */
 public class Skeleton<T>
 {
+    /** Time, in milliseconds, an idle stub connection is kept open. This is
+        longer than the stub connection pool idle timeout, so that connections
+        are normally closed by the stub side. */
+    static final int KEEP_ALIVE_TIMEOUT = 60000;
+
     Class<T> c;
     T server;
     InetSocketAddress address;
-    SkeletonListeningThread<T> thread;
+    SkeletonConfig config = new SkeletonConfig();
+    SkeletonTransport transport;
+    // Serves the Unix domain socket, if the configuration enables it and it could be created
+    SkeletonTransport localTransport;
+    volatile Dispatcher<T> dispatcher;
+
+    // Skeleton on whose endpoint this one is exported, and the id of its
+    // object there; null and 0 for a skeleton that listens itself
+    Skeleton<?> host;
+    int objectId;
+    // Running skeletons exported on this one's endpoint, by object id
+    private final Map<Integer, Skeleton<?>> exported = new ConcurrentHashMap<>();
+    private final AtomicInteger lastObjectId = new AtomicInteger();
+
+    // Method ids of the remote interface, and either the dispatcher generated
+    // for it or handles invoking the methods on server
+    MethodTable methods;
+    GeneratedDispatcher<T> generated;
+    MethodHandle[] handles;
+
+    final SkeletonMetrics metrics;
+    // Name of the metrics MBean while the skeleton is running and it is registered
+    private ObjectName metricsName;
 
     /** Creates a <code>Skeleton</code> with no initial server address. The
         address will be determined by the system when <code>start</code> is
@@ -78,7 +120,10 @@ public class Skeleton<T>
 
         this.c = c;
         this.server = server;
-
+        this.methods = MethodTable.of(c);
+        this.generated = Generated.dispatcher(c);
+        if (this.generated == null) this.handles = this.methods.bind(server);
+        this.metrics = new SkeletonMetrics(this, this.methods);
     }
 
     /** Creates a <code>Skeleton</code> with the given initial server address.
@@ -105,6 +150,76 @@ public class Skeleton<T>
         this.address = address;
     }
 
+    /** Creates a <code>Skeleton</code> with the given initial server address
+        and configuration.
+
+        <p>
+        The configuration selects, among other things, the transport used to
+        serve stub connections. It is read when the skeleton is started.
+
+        @param c An object representing the class of the interface for which the
+                 skeleton server is to handle method call requests.
+        @param server An object implementing said interface. Requests for method
+                      calls are forwarded by the skeleton to this object.
+        @param address The address at which the skeleton is to run. If
+                       <code>null</code>, the address will be chosen by the
+                       system when <code>start</code> is called.
+        @param config The skeleton configuration.
+        @throws Error If <code>c</code> does not represent a remote interface -
+                      an interface whose methods are all marked as throwing
+                      <code>RMIException</code>.
+        @throws NullPointerException If any of <code>c</code>,
+                                     <code>server</code> or <code>config</code>
+                                     is <code>null</code>.
+     */
+    public Skeleton(Class<T> c, T server, InetSocketAddress address,
+                    SkeletonConfig config)
+    {
+        this(c, server, address);
+        if (config == null)
+            throw new NullPointerException("Arguments cannot be null");
+        this.config = config;
+    }
+
+    /** Creates a <code>Skeleton</code> exported on the endpoint of another
+        skeleton.
+
+        <p>
+        The skeleton is assigned an object ID on the host's endpoint, which
+        identifies it for as long as the host exists, and is reached at the
+        host's address. It may be started only while the host is running, and
+        it is stopped when the host stops. Its calls are executed by the host's
+        worker threads, under the host's configuration.
+
+        @param host The skeleton serving the endpoint. It must not itself be
+                    exported on another skeleton.
+        @param c An object representing the class of the interface for which the
+                 skeleton server is to handle method call requests.
+        @param server An object implementing said interface. Requests for method
+                      calls are forwarded by the skeleton to this object.
+        @throws Error If <code>c</code> does not represent a remote interface -
+                      an interface whose methods are all marked as throwing
+                      <code>RMIException</code>.
+        @throws NullPointerException If any of <code>host</code>,
+                                     <code>c</code> or <code>server</code> is
+                                     <code>null</code>.
+        @throws IllegalArgumentException If <code>host</code> is exported on
+                                         another skeleton.
+     */
+    public Skeleton(Skeleton<?> host, Class<T> c, T server)
+    {
+        this(c, server);
+        if (host == null)
+            throw new NullPointerException("Arguments cannot be null");
+        if (host.host != null)
+            throw new IllegalArgumentException("Host skeleton is itself exported on another skeleton");
+
+        this.host = host;
+        this.objectId = host.lastObjectId.incrementAndGet();
+        this.address = host.address;
+        this.config = host.config;
+    }
+
     /** Called when the listening thread exits.
 
         <p>
@@ -166,38 +281,66 @@ public class Skeleton<T>
         accepted. The network address used for the server is determined by which
         constructor was used to create the <code>Skeleton</code> object.
 
+        <p>
+        A skeleton created with a host skeleton creates no thread: it starts
+        accepting the calls addressed to its object on the host's endpoint.
+
         @throws RMIException When the listening socket cannot be created or
                              bound, when the listening thread cannot be created,
-                             or when the server has already been started and has
-                             not since stopped.
+                             when the server has already been started and has
+                             not since stopped, or when the host of the
+                             skeleton is not running.
      */
     public synchronized void start() throws RMIException
     {
-        ServerSocket serverSocket;
-        if (thread != null && thread.isAlive())
-            throw new RMIException("Listening thread already running.");
+        if (host != null) {
+            startExported();
+            return;
+        }
 
-        try {
-            if (address == null) {
-                // Computer assign randomly an available port
-                serverSocket = new ServerSocket(0);
-                address = new InetSocketAddress(serverSocket.getLocalPort());
-            }
-            else {
-                serverSocket = new ServerSocket(address.getPort());
-            }
-            System.out.println("Server created successfully, port = " + address.getPort());
+        if (transport != null)
+            throw new RMIException("Skeleton already running.");
 
+        if (config.isVirtualThreads() && !Threads.virtualSupported())
+            throw new RMIException("Virtual threads are not supported by this Java runtime");
 
-            // create a listening thread
-            thread = new SkeletonListeningThread<T>(server, serverSocket);
-            thread.start();
+        Dispatcher<T> d = new Dispatcher<T>(this);
+        SkeletonTransport t;
+        if (config.getTransport() == SkeletonConfig.Transport.SELECTOR)
+            t = new SelectorTransport<T>(this, d);
+        else
+            t = new BlockingTransport<T>(this, d);
 
+        int port;
+        try {
+            // Computer assign randomly an available port if there is no address
+            port = t.start(address);
+            if (address == null) address = new InetSocketAddress(port);
         } catch (IOException e) {
+            d.shutdown();
             throw new RMIException("I/O exception, unable to create listening socket", e);
         }
 
+        dispatcher = d;
+        transport = t;
+        if (config.isLocalSocket()) localTransport = startLocal(d, port);
+        InProcess.register(this, port);
+        registerMetrics();
+        System.out.println("Server created successfully, port = " + address.getPort());
+    }
+
+    private void startExported() throws RMIException {
+        if (dispatcher != null)
+            throw new RMIException("Skeleton already running.");
 
+        synchronized (host) {
+            if (host.transport == null)
+                throw new RMIException("Host skeleton not running");
+            address = host.address;
+            dispatcher = new Dispatcher<T>(this, host.dispatcher);
+            host.exported.put(objectId, this);
+        }
+        registerMetrics();
     }
 
     /** Stops the skeleton server, if it is already running.
@@ -209,22 +352,158 @@ public class Skeleton<T>
         <code>stopped</code> is called at that point. The server may then be
         restarted.
      */
-    public synchronized void stop() {
-        if (thread == null || !thread.isAlive()) return;
+    public void stop() {
+        if (host != null) {
+            unexport(null);
+            return;
+        }
 
-        thread.stopListening();
+        SkeletonTransport t, local;
+        synchronized (this) {
+            if (transport == null) return;
+            t = transport;
+            local = localTransport;
+            transport = null;
+            localTransport = null;
+            InProcess.unregister(this);
+        }
 
-        try {
-            thread.join();
+        // Wait for the transports outside the lock, their listening threads may
+        // be reporting a failure through transportFailed
+        if (local != null) local.stop();
+        t.stop();
+        dispatcher.shutdown();
+
+        synchronized (this) {
+            unregisterMetrics();
             stopped(null);
-        } catch (Exception e) {
-            stopped(e);
-            e.printStackTrace();
         }
+        unexportAll(null);
 
         System.out.println("Server stopped, port = " + address.getPort());
     }
 
+    // Stop serving the object of a skeleton exported on a host's endpoint,
+    // calls already executing complete on the host's worker threads
+    private synchronized void unexport(Throwable cause) {
+        if (dispatcher == null) return;
+        host.exported.remove(objectId, this);
+        dispatcher = null;
+        unregisterMetrics();
+        stopped(cause);
+    }
+
+    // Called without the lock of the host, exported skeletons take it when they start
+    private void unexportAll(Throwable cause) {
+        for (Skeleton<?> skeleton : exported.values()) skeleton.unexport(cause);
+    }
+
+    /** @return the running skeleton exported on this one's endpoint under the id, or null */
+    Skeleton<?> exported(int objectId) {
+        return exported.get(objectId);
+    }
+
+    /** Called by a transport whose listening thread exits because of an
+        exception for which <code>listen_error</code> returned
+        <code>false</code>. */
+    void transportFailed(SkeletonTransport t, Throwable cause) {
+        SkeletonTransport local;
+        synchronized (this) {
+            // Stubs on this host fall back to TCP once the domain socket is gone
+            if (t == localTransport) {
+                localTransport = null;
+                service_error(new RMIException("Local socket failed, serving TCP only", cause));
+                return;
+            }
+
+            // Ignore a transport that is already being stopped
+            if (transport != t) return;
+            transport = null;
+            local = localTransport;
+            localTransport = null;
+            InProcess.unregister(this);
+            dispatcher.shutdown();
+            unregisterMetrics();
+            stopped(cause);
+        }
+
+        if (local != null) local.stop();
+        unexportAll(cause);
+    }
+
+    /* Listens on the Unix domain socket of the port, see LocalSockets. A
+       failure leaves the skeleton serving TCP only, which stubs fall back to. */
+    private SkeletonTransport startLocal(Dispatcher<T> d, int port) {
+        SelectorTransport<T> local = new SelectorTransport<T>(this, d);
+        try {
+            Path path = LocalSockets.path(port);
+            // Left over by a skeleton that held the port before and did not stop
+            Files.deleteIfExists(path);
+            local.start(UnixDomainSocketAddress.of(path));
+            return local;
+        } catch (IOException | RuntimeException e) {
+            service_error(new RMIException("Unable to listen on local socket, serving TCP only", e));
+            return null;
+        }
+    }
+
+    /** Returns the metrics of the calls executed by the skeleton. */
+    public SkeletonMetrics metrics()
+    {
+        return metrics;
+    }
+
+    // Publish the metrics through JMX, a failure does not prevent the skeleton from running
+    private void registerMetrics() {
+        try {
+            ObjectName name = new ObjectName("rmi:type=Skeleton,interface=" + c.getName()
+                    + ",port=" + address.getPort() + (objectId == 0 ? "" : ",object=" + objectId));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, name);
+            metricsName = name;
+        } catch (JMException | RuntimeException e) {
+            service_error(new RMIException("Unable to register metrics MBean", e));
+        }
+    }
+
+    private void unregisterMetrics() {
+        if (metricsName == null) return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(metricsName);
+        } catch (JMException e) { }
+        metricsName = null;
+    }
+
+    /** Returns the number of calls waiting in the execution queue for a
+        worker thread. */
+    public int queuedCalls()
+    {
+        Dispatcher<T> d = dispatcher;
+        return d == null ? 0 : d.executor.queueDepth();
+    }
+
+    /** Returns the number of calls of the given priority class waiting in
+        the execution queue for a worker thread. */
+    public int queuedCalls(CallPriority priority)
+    {
+        Dispatcher<T> d = dispatcher;
+        return d == null ? 0 : d.executor.queueDepth(priority);
+    }
+
+    /** Returns the number of calls currently being executed. */
+    public int activeCalls()
+    {
+        Dispatcher<T> d = dispatcher;
+        return d == null ? 0 : d.executor.activeCalls();
+    }
+
+    /** Returns the number of calls rejected because the execution queue was
+        full, since the skeleton was last started. */
+    public long rejectedCalls()
+    {
+        Dispatcher<T> d = dispatcher;
+        return d == null ? 0 : d.executor.rejectedCalls();
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -233,11 +512,11 @@ public class Skeleton<T>
         return Objects.equals(c, skeleton.c) &&
                 Objects.equals(server, skeleton.server) &&
                 Objects.equals(address, skeleton.address) &&
-                Objects.equals(thread, skeleton.thread);
+                Objects.equals(transport, skeleton.transport);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(c, server, address, thread);
+        return Objects.hash(c, server, address, transport);
     }
 }
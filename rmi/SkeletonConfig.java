@@ -0,0 +1,243 @@
+package rmi;
+
+/** Skeleton configuration.
+
+    <p>
+    A configuration object is given to a <code>Skeleton</code> when it is
+    constructed and is read when the skeleton is started. Skeletons created
+    without a configuration use the defaults described below. Setters return
+    the configuration object, so that several settings can be chained.
+ */
+public class SkeletonConfig
+{
+    /** Skeleton transport implementations. */
+    public enum Transport
+    {
+        /** A listening thread accepts connections, and each connection is
+            served by its own thread. This is the default. */
+        BLOCKING,
+        /** Connections are served by a small number of selector event loop
+            threads, which hand decoded calls to a worker pool. This scales to
+            many more connections than <code>BLOCKING</code>. */
+        SELECTOR
+    }
+
+    private Transport   transport = Transport.BLOCKING;
+    private int         ioThreads =
+        Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+    private int         maxWorkerThreads = 256;
+    private int         queueCapacity = 1024;
+    private int         maxConnections = 4096;
+    private int         acceptors = 1;
+    private final int[] priorityWeights = {16, 4, 1};
+    private boolean     virtualThreads = false;
+    private boolean     compression = false;
+    private int         maxInflatedLength = Compressor.MAX_INFLATED;
+    private boolean     localSocket = false;
+
+    /** Selects the transport used by the skeleton. */
+    public SkeletonConfig setTransport(Transport transport)
+    {
+        if (transport == null) throw new NullPointerException("Transport is null");
+        this.transport = transport;
+        return this;
+    }
+
+    public Transport getTransport()
+    {
+        return transport;
+    }
+
+    /** Sets the number of event loop threads used by the
+        <code>SELECTOR</code> transport. The first loop also accepts
+        connections. The default is half the number of processors, between one
+        and four. */
+    public SkeletonConfig setIoThreads(int ioThreads)
+    {
+        if (ioThreads < 1) throw new IllegalArgumentException("At least one I/O thread is required");
+        this.ioThreads = ioThreads;
+        return this;
+    }
+
+    public int getIoThreads()
+    {
+        return ioThreads;
+    }
+
+    /** Sets the maximum number of threads executing calls at the same time.
+        The default is 256. */
+    public SkeletonConfig setMaxWorkerThreads(int maxWorkerThreads)
+    {
+        if (maxWorkerThreads < 1) throw new IllegalArgumentException("At least one worker thread is required");
+        this.maxWorkerThreads = maxWorkerThreads;
+        return this;
+    }
+
+    public int getMaxWorkerThreads()
+    {
+        return maxWorkerThreads;
+    }
+
+    /** Sets the number of calls of each priority class that may wait for a
+        worker thread. Each class has its own queue, so that a flood of calls
+        of one class does not cause the calls of another to be rejected. Calls
+        arriving when the queue of their class is full are rejected, and the
+        stub throws <code>CallRejectedException</code>. With a capacity of
+        zero, calls are rejected as soon as all worker threads are busy. The
+        default is 1024. */
+    public SkeletonConfig setQueueCapacity(int queueCapacity)
+    {
+        if (queueCapacity < 0) throw new IllegalArgumentException("Queue capacity is negative");
+        this.queueCapacity = queueCapacity;
+        return this;
+    }
+
+    public int getQueueCapacity()
+    {
+        return queueCapacity;
+    }
+
+    /** Sets the maximum number of open connections for the
+        <code>BLOCKING</code> transport, each of which has its own thread. When
+        the limit is reached, the skeleton stops accepting until a connection
+        is closed, and new connections wait in the operating system backlog.
+        The default is 4096. */
+    public SkeletonConfig setMaxConnections(int maxConnections)
+    {
+        if (maxConnections < 1) throw new IllegalArgumentException("At least one connection is required");
+        this.maxConnections = maxConnections;
+        return this;
+    }
+
+    public int getMaxConnections()
+    {
+        return maxConnections;
+    }
+
+    /** Sets the weight of a priority class. When calls of several classes
+        are waiting for a worker thread, each class gets a share of the
+        threads that become free proportional to its weight, in a smooth
+        round robin so that no class waits for long. The defaults are 16 for
+        <code>CONTROL</code>, 4 for <code>NORMAL</code> and 1 for
+        <code>BULK</code>. */
+    public SkeletonConfig setPriorityWeight(CallPriority priority, int weight)
+    {
+        if (priority == null) throw new NullPointerException("Priority is null");
+        if (weight < 1) throw new IllegalArgumentException("Weight must be at least one");
+        priorityWeights[priority.ordinal()] = weight;
+        return this;
+    }
+
+    public int getPriorityWeight(CallPriority priority)
+    {
+        return priorityWeights[priority.ordinal()];
+    }
+
+    /** Sets the number of sockets accepting TCP connections. With more than
+        one, each acceptor binds its own listening socket to the skeleton's
+        port with the <code>SO_REUSEPORT</code> option, and the operating
+        system spreads new connections among them, so that a storm of
+        connections, such as all clients reconnecting at once, is not accepted
+        by a single thread. The <code>BLOCKING</code> transport runs a
+        listening thread per acceptor, and the <code>SELECTOR</code> transport
+        spreads the acceptors over its event loops. The acceptors share the
+        skeleton's connection limit and <code>listen_error</code>, and the
+        failure of one stops them all. Where <code>SO_REUSEPORT</code> is not
+        supported, a single acceptor is used and the skeleton reports it to
+        <code>service_error</code>. The default is 1. */
+    public SkeletonConfig setAcceptors(int acceptors)
+    {
+        if (acceptors < 1) throw new IllegalArgumentException("At least one acceptor is required");
+        this.acceptors = acceptors;
+        return this;
+    }
+
+    public int getAcceptors()
+    {
+        return acceptors;
+    }
+
+    /** Runs connections and calls on virtual threads instead of platform
+        threads. With the <code>BLOCKING</code> transport each connection and
+        each call gets its own virtual thread; with the <code>SELECTOR</code>
+        transport the event loops remain platform threads and each call gets a
+        virtual thread. The listening thread is always a platform thread. The
+        worker and queue limits still apply, so <code>maxWorkerThreads</code>
+        should normally be raised as well.
+
+        <p>
+        Virtual threads require Java 21 or later. On older runtimes, a skeleton
+        configured to use them fails to start.
+     */
+    public SkeletonConfig setVirtualThreads(boolean virtualThreads)
+    {
+        this.virtualThreads = virtualThreads;
+        return this;
+    }
+
+    public boolean isVirtualThreads()
+    {
+        return virtualThreads;
+    }
+
+    /** Enables compression on the connections of stubs whose
+        <code>ConnectionPool</code> enables it too. Calls and replies larger
+        than a threshold are then compressed, and a connection stops
+        compressing while the data sent on it does not compress well.
+        Compressed calls on other connections are protocol errors. The default
+        is <code>false</code>. */
+    public SkeletonConfig setCompression(boolean compression)
+    {
+        this.compression = compression;
+        return this;
+    }
+
+    public boolean isCompression()
+    {
+        return compression;
+    }
+
+    /** Sets the largest size, in bytes, to which a compressed call may
+        inflate. Larger calls fail without being inflated. The default is 64
+        MiB. */
+    public SkeletonConfig setMaxInflatedLength(int maxInflatedLength)
+    {
+        if (maxInflatedLength < 0 || maxInflatedLength > Frame.MAX_LENGTH)
+            throw new IllegalArgumentException("Invalid inflated length " + maxInflatedLength);
+        this.maxInflatedLength = maxInflatedLength;
+        return this;
+    }
+
+    public int getMaxInflatedLength()
+    {
+        return maxInflatedLength;
+    }
+
+    /** Enables listening on a Unix domain socket in addition to TCP. Stubs
+        whose skeleton address is an address of the local host then connect
+        through the domain socket, avoiding the TCP loopback, unless their
+        <code>ConnectionPool</code> disables it. The domain socket is served by
+        selector event loops, whichever transport serves TCP. The socket file is
+        named after the TCP port, in the directory given by the
+        <code>rmi.socketDirectory</code> system property, or else in the
+        temporary directory. If the domain socket cannot be created, the
+        skeleton serves TCP only and reports the failure to
+        <code>service_error</code>. The default is <code>false</code>. */
+    public SkeletonConfig setLocalSocket(boolean localSocket)
+    {
+        this.localSocket = localSocket;
+        return this;
+    }
+
+    public boolean isLocalSocket()
+    {
+        return localSocket;
+    }
+
+    /** Returns <code>true</code> if the Java runtime supports virtual
+        threads. */
+    public static boolean isVirtualThreadSupported()
+    {
+        return Threads.virtualSupported();
+    }
+}
@@ -1,58 +1,135 @@
 package rmi;
 
 import java.io.*;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
 
-public class SkeletonExecutionThread<T> extends Thread {
+/**
+ * Serves one stub connection. Call frames are read in a loop and handed to the
+ * skeleton's worker pool, so that calls multiplexed on the connection run
+ * concurrently; replies are written as the calls complete.
+ */
+public class SkeletonExecutionThread<T> implements Runnable {
     private Socket client;
-    private T server;
-    private ObjectInputStream ois;
-    private ObjectOutputStream oos;
+    private SkeletonListeningThread<T> listener;
+    private Dispatcher<T> dispatcher;
+    private DataInputStream in;
+    private DataOutputStream out;
+    // A lock rather than a monitor, so that a virtual thread blocked in a write does not pin its carrier
+    private final ReentrantLock writeLock = new ReentrantLock();
 
-    public SkeletonExecutionThread(Socket client, T server) {
+    // Set when the skeleton stops; the connection is closed once the calls in progress have been answered
+    private boolean closing = false;
+    private int inFlight = 0;
+    // Protocol version, agreed by the first frame if the stub sends HELLO
+    private int version = Marshal.SERIALIZED;
+    // Compresses the replies, null if compression is off for the connection
+    private Compressor compressor;
+
+    public SkeletonExecutionThread(Socket client, Dispatcher<T> dispatcher, SkeletonListeningThread<T> listener) {
         this.client = client;
-        this.server = server;
+        this.dispatcher = dispatcher;
+        this.listener = listener;
     }
 
     @Override
     public void run() {
         try {
-            process();
+            client.setTcpNoDelay(true);
+            client.setSoTimeout(Skeleton.KEEP_ALIVE_TIMEOUT);
+
+            in = new DataInputStream(new BufferedInputStream(client.getInputStream()));
+            out = new DataOutputStream(new BufferedOutputStream(client.getOutputStream()));
+
+            // Keep-alive: serve calls until the stub closes the connection
+            while (true) {
+                int first;
+                try {
+                    first = in.read();
+                } catch (SocketTimeoutException e) {
+                    // Only an idle connection is closed, a call may legitimately run longer than the timeout
+                    if (isIdle()) break;
+                    continue;
+                }
+                if (first < 0) break;
+
+                Frame frame = Frame.read(first, in);
+                if (!begin()) continue;
+
+                if (frame.type == Frame.HELLO) {
+                    version = dispatcher.negotiate(frame);
+                    compressor = dispatcher.compressor(frame, version);
+                    respond(Frame.hello(version, compressor != null));
+                    continue;
+                }
+                Dispatcher.checkCompression(frame, compressor);
+                dispatcher.submit(frame, version, this::respond);
+            }
+        }
+        catch (StreamCorruptedException e) {
+            dispatcher.protocolError(e);
+        }
+        catch (IOException e) { }  // connection closed or timed out
+        finally {
+            synchronized (this) {
+                closing = true;
+            }
+            close();
+            listener.removeConnection(this);
         }
-        catch (IOException e) { }
-        catch (Exception e) { e.printStackTrace(); }
     }
 
-    private void process() throws Exception {
-        // Read method name and arguments from InputStream
-        ois = new ObjectInputStream(client.getInputStream());
-        String methodName = (String) ois.readObject();
-        Class<?>[] argsTypes = (Class<?>[]) ois.readObject();
-        Object[] args = (Object[]) ois.readObject();
+    // A one-way call that completed normally has no reply
+    private void respond(Frame reply) {
+        if (reply == null) {
+            end();
+            return;
+        }
+        // Compressed by the worker thread, outside the write lock
+        if (compressor != null) reply = compressor.compress(reply);
+        try {
+            writeLock.lock();
+            try {
+                reply.write(out);
+                out.flush();
+            } finally {
+                writeLock.unlock();
+            }
+        } catch (IOException e) {
+            close();
+        } finally {
+            end();
+        }
+    }
 
+    /**
+     * Stop serving the connection. An idle connection is closed immediately,
+     * a busy one after its calls in progress have been answered.
+     */
+    public synchronized void shutdown() {
+        closing = true;
+        if (inFlight == 0) close();
+    }
 
-        // Execute method
-        Boolean hasException = false;
-        Throwable exception = null;
-        Object result = null;
-        Method method = server.getClass().getMethod(methodName, argsTypes);
+    private void close() {
         try {
-            result = method.invoke(server, args);
-        } catch (InvocationTargetException e) {
-            hasException = true;
-            exception = e.getCause();
-        }
+            client.close();
+        } catch (IOException e) { }
+    }
 
-        // Write result to OutputStream
-        oos = new ObjectOutputStream(client.getOutputStream());
-        oos.writeObject(hasException);
-        if (hasException) {
-            oos.writeObject(exception);
-        } else {
-            oos.writeObject(result);
-        }
-        oos.flush();
+    private synchronized boolean isIdle() {
+        return inFlight == 0;
+    }
+
+    private synchronized boolean begin() {
+        if (closing) return false;
+        inFlight++;
+        return true;
+    }
+
+    private synchronized void end() {
+        inFlight--;
+        if (closing && inFlight == 0) close();
     }
 }
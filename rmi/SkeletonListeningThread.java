@@ -1,42 +1,123 @@
 package rmi;
 
 import java.io.IOException;
-import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadFactory;
 
-public class SkeletonListeningThread<T> extends Thread {
-    private final T server;
+public class SkeletonListeningThread<T> implements Runnable {
+    private final Skeleton<T> skeleton;
+    private final SkeletonTransport transport;
+    private final Dispatcher<T> dispatcher;
+    private final ThreadFactory connectionThreads;
     private ServerSocket ss;
-    private boolean stop = false;
+    private volatile boolean stop = false;
 
-    public SkeletonListeningThread(T server, ServerSocket ss) {
-        this.server = server;
+    // Open keep-alive connections, closed when the skeleton stops; shared by
+    // the listening threads of the transport's acceptors
+    private final Set<SkeletonExecutionThread<T>> connections;
+
+    public SkeletonListeningThread(Skeleton<T> skeleton, SkeletonTransport transport, Dispatcher<T> dispatcher,
+                                   ServerSocket ss, ThreadFactory connectionThreads) {
+        this(skeleton, transport, dispatcher, ss, connectionThreads, new HashSet<>());
+    }
+
+    /** A listening thread of several bound to the same port, sharing their connections and connection limit. */
+    SkeletonListeningThread(Skeleton<T> skeleton, SkeletonTransport transport, Dispatcher<T> dispatcher,
+                            ServerSocket ss, ThreadFactory connectionThreads,
+                            Set<SkeletonExecutionThread<T>> connections) {
+        this.skeleton = skeleton;
+        this.transport = transport;
+        this.dispatcher = dispatcher;
         this.ss = ss;
+        this.connectionThreads = connectionThreads;
+        this.connections = connections;
     }
 
     @Override
     public void run() {
-        try  {
-            // long running thread, listening for connections
-            while (!stop) {
-                // server waiting for connections
-                Socket client = ss.accept();
-                System.out.println("New connection from " + client.getRemoteSocketAddress());
+        Exception cause = null;
 
-                // create a new thread to handle client's request
-                SkeletonExecutionThread<T> et = new SkeletonExecutionThread<T>(client, server);
-                et.start();
+        // long running thread, listening for connections
+        while (!stop) {
+            // Stop accepting at the connection limit, further clients wait in the backlog
+            if (!awaitCapacity()) break;
 
+            // server waiting for connections
+            Socket client;
+            try {
+                client = ss.accept();
+            } catch (IOException e) {
+                if (stop) break;
+
+                // The skeleton decides whether to keep accepting, unless the socket itself is gone
+                if (!ss.isClosed() && skeleton.listen_error(e)) continue;
+                cause = e;
+                break;
             }
+            System.out.println("New connection from " + client.getRemoteSocketAddress());
 
-        } catch (IOException e) {
+            // create a new thread to serve the client's requests until the connection is closed
+            SkeletonExecutionThread<T> et = new SkeletonExecutionThread<T>(client, dispatcher, this);
+            synchronized (connections) {
+                if (stop) {
+                    close(client);
+                    break;
+                }
+                connections.add(et);
+            }
+            connectionThreads.newThread(et).start();
+        }
 
+        if (cause != null) {
+            closeListeningSocket();
+            failed(cause);
+        }
+    }
+
+    /** Called when the thread stops accepting because of an exception. */
+    void failed(Exception cause) {
+        skeleton.transportFailed(transport, cause);
+    }
+
+    private boolean awaitCapacity() {
+        synchronized (connections) {
+            while (!stop && connections.size() >= skeleton.config.getMaxConnections()) {
+                try {
+                    connections.wait();
+                } catch (InterruptedException e) {
+                    return false;
+                }
+            }
+            return !stop;
+        }
+    }
+
+    void removeConnection(SkeletonExecutionThread<T> et) {
+        synchronized (connections) {
+            connections.remove(et);
+            connections.notifyAll();
         }
     }
 
     public void stopListening() {
+        stopAccepting();
+
+        synchronized (connections) {
+            for (SkeletonExecutionThread<T> et : connections) et.shutdown();
+            connections.notifyAll();
+        }
+    }
+
+    /** Close the listening socket, leaving the connections already accepted open. */
+    void stopAccepting() {
         stop = true;
+        closeListeningSocket();
+    }
+
+    private void closeListeningSocket() {
         if (ss != null && !ss.isClosed()) {
             try {
                 ss.close();
@@ -45,4 +126,10 @@ public class SkeletonListeningThread<T> extends Thread {
             }
         }
     }
+
+    private static void close(Socket client) {
+        try {
+            client.close();
+        } catch (IOException e) { }
+    }
 }
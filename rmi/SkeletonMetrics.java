@@ -0,0 +1,341 @@
+package rmi;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Metrics of the calls executed by a skeleton.
+
+    <p>
+    Each method of the remote interface has its own counters of calls, of
+    calls that threw an exception, of calls whose deadline expired, and of
+    bytes received and sent, and
+    histograms of the time taken to decode the call, to invoke the method on
+    the server object, and to encode the reply. The byte counts are frame
+    sizes, before compression. Calls made in a batch record their invocation
+    time and outcome only, since decoding and encoding are done for the batch
+    as a whole.
+
+    <p>
+    Metrics are recorded from the time the skeleton is created, across
+    restarts, until <code>reset</code> is called. Recording takes no lock.
+    The metrics of a skeleton are obtained from <code>Skeleton.metrics</code>,
+    and are also published through JMX while the skeleton is running, see
+    <code>SkeletonMetricsMXBean</code>.
+ */
+public class SkeletonMetrics implements SkeletonMetricsMXBean
+{
+    private final Skeleton<?> skeleton;
+    private final MethodMetrics[] methods;
+
+    SkeletonMetrics(Skeleton<?> skeleton, MethodTable table)
+    {
+        this.skeleton = skeleton;
+        methods = new MethodMetrics[table.size()];
+        for (int id = 0; id < methods.length; id++) methods[id] = new MethodMetrics(table.method(id));
+    }
+
+    /** Returns the metrics of a method, by id, or null if there is none. */
+    MethodMetrics method(int id)
+    {
+        return id >= 0 && id < methods.length ? methods[id] : null;
+    }
+
+    /** Returns the metrics of a method of the remote interface.
+
+        @throws IllegalArgumentException If <code>method</code> is not a method
+                                         of the remote interface.
+     */
+    public MethodMetrics method(Method method)
+    {
+        for (MethodMetrics metrics : methods) {
+            if (metrics.method.equals(method)) return metrics;
+        }
+        throw new IllegalArgumentException(method + " is not a method of the remote interface");
+    }
+
+    /** Returns the metrics of every method of the remote interface, in method
+        id order. */
+    public List<MethodMetrics> methods()
+    {
+        List<MethodMetrics> list = new ArrayList<>(methods.length);
+        Collections.addAll(list, methods);
+        return Collections.unmodifiableList(list);
+    }
+
+    @Override
+    public String getInterfaceName()
+    {
+        return skeleton.c.getName();
+    }
+
+    @Override
+    public long getCalls()
+    {
+        long calls = 0;
+        for (MethodMetrics metrics : methods) calls += metrics.getCalls();
+        return calls;
+    }
+
+    @Override
+    public long getErrors()
+    {
+        long errors = 0;
+        for (MethodMetrics metrics : methods) errors += metrics.getErrors();
+        return errors;
+    }
+
+    @Override
+    public long getExpired()
+    {
+        long expired = 0;
+        for (MethodMetrics metrics : methods) expired += metrics.getExpired();
+        return expired;
+    }
+
+    @Override
+    public int getQueuedCalls()
+    {
+        return skeleton.queuedCalls();
+    }
+
+    @Override
+    public int getActiveCalls()
+    {
+        return skeleton.activeCalls();
+    }
+
+    @Override
+    public long getRejectedCalls()
+    {
+        return skeleton.rejectedCalls();
+    }
+
+    @Override
+    public MethodSummary[] getMethods()
+    {
+        MethodSummary[] summaries = new MethodSummary[methods.length];
+        for (int id = 0; id < methods.length; id++) summaries[id] = methods[id].getSummary();
+        return summaries;
+    }
+
+    @Override
+    public void reset()
+    {
+        for (MethodMetrics metrics : methods) metrics.reset();
+    }
+
+    /** Metrics of one remote method. */
+    public static final class MethodMetrics
+    {
+        private final Method                method;
+        private final LongAdder             calls = new LongAdder();
+        private final LongAdder             errors = new LongAdder();
+        private final LongAdder             expired = new LongAdder();
+        private final LongAdder             bytesIn = new LongAdder();
+        private final LongAdder             bytesOut = new LongAdder();
+        private final LatencyHistogram      deserialize = new LatencyHistogram();
+        private final LatencyHistogram      invoke = new LatencyHistogram();
+        private final LatencyHistogram      serialize = new LatencyHistogram();
+
+        MethodMetrics(Method method)
+        {
+            this.method = method;
+        }
+
+        /** Records a call.
+
+            @param in Size of the call frame, 0 if unknown.
+            @param out Size of the reply frame, 0 if there is none.
+            @param decoding Time taken to decode the call, negative if unknown.
+            @param invocation Time taken by the method.
+            @param encoding Time taken to encode the reply, negative if there is
+                            none.
+            @param failed Whether the method threw an exception.
+            @param expired Whether the call was dropped or interrupted
+                           because its deadline expired, in which case it
+                           also failed.
+         */
+        void record(long in, long out, long decoding, long invocation,
+                    long encoding, boolean failed, boolean expired)
+        {
+            calls.increment();
+            // The error is counted first, a call seen as expired is also seen as failed
+            if (failed) errors.increment();
+            if (expired) this.expired.increment();
+            if (in > 0) bytesIn.add(in);
+            if (out > 0) bytesOut.add(out);
+            if (decoding >= 0) deserialize.record(decoding);
+            invoke.record(invocation);
+            if (encoding >= 0) serialize.record(encoding);
+        }
+
+        void reset()
+        {
+            calls.reset();
+            errors.reset();
+            expired.reset();
+            bytesIn.reset();
+            bytesOut.reset();
+            deserialize.reset();
+            invoke.reset();
+            serialize.reset();
+        }
+
+        /** Returns the method. */
+        public Method getMethod()
+        {
+            return method;
+        }
+
+        /** Returns the number of calls executed. */
+        public long getCalls()
+        {
+            return calls.sum();
+        }
+
+        /** Returns the number of calls that threw an exception. */
+        public long getErrors()
+        {
+            return errors.sum();
+        }
+
+        /** Returns the number of calls that were not started, or were
+            interrupted, because their deadline expired. */
+        public long getExpired()
+        {
+            return expired.sum();
+        }
+
+        /** Returns the number of bytes of the call frames received. */
+        public long getBytesIn()
+        {
+            return bytesIn.sum();
+        }
+
+        /** Returns the number of bytes of the reply frames sent. */
+        public long getBytesOut()
+        {
+            return bytesOut.sum();
+        }
+
+        /** Returns the histogram of the time taken to decode calls. */
+        public LatencyHistogram getDeserializeLatency()
+        {
+            return deserialize;
+        }
+
+        /** Returns the histogram of the time taken by the method. */
+        public LatencyHistogram getInvokeLatency()
+        {
+            return invoke;
+        }
+
+        /** Returns the histogram of the time taken to encode replies. */
+        public LatencyHistogram getSerializeLatency()
+        {
+            return serialize;
+        }
+
+        /** Returns a summary of the metrics of the method. */
+        public MethodSummary getSummary()
+        {
+            return new MethodSummary(signature(method), getCalls(), getErrors(),
+                                     getExpired(), getBytesIn(), getBytesOut(),
+                                     deserialize.getSummary(),
+                                     invoke.getSummary(),
+                                     serialize.getSummary());
+        }
+
+        private static String signature(Method method)
+        {
+            StringBuilder s = new StringBuilder(method.getName()).append('(');
+            Class<?>[] types = method.getParameterTypes();
+            for (int i = 0; i < types.length; i++) {
+                if (i > 0) s.append(", ");
+                s.append(types[i].getSimpleName());
+            }
+            return s.append(')').toString();
+        }
+    }
+
+    /** Metrics of one remote method at one point in time, in the form in
+        which they are published through JMX. */
+    public static final class MethodSummary
+    {
+        private final String                    method;
+        private final long                      calls;
+        private final long                      errors;
+        private final long                      expired;
+        private final long                      bytesIn;
+        private final long                      bytesOut;
+        private final LatencyHistogram.Summary  deserialize;
+        private final LatencyHistogram.Summary  invoke;
+        private final LatencyHistogram.Summary  serialize;
+
+        MethodSummary(String method, long calls, long errors, long expired,
+                      long bytesIn, long bytesOut,
+                      LatencyHistogram.Summary deserialize,
+                      LatencyHistogram.Summary invoke,
+                      LatencyHistogram.Summary serialize)
+        {
+            this.method = method;
+            this.calls = calls;
+            this.errors = errors;
+            this.expired = expired;
+            this.bytesIn = bytesIn;
+            this.bytesOut = bytesOut;
+            this.deserialize = deserialize;
+            this.invoke = invoke;
+            this.serialize = serialize;
+        }
+
+        /** Returns the name and parameter types of the method. */
+        public String getMethod()
+        {
+            return method;
+        }
+
+        public long getCalls()
+        {
+            return calls;
+        }
+
+        public long getErrors()
+        {
+            return errors;
+        }
+
+        public long getExpired()
+        {
+            return expired;
+        }
+
+        public long getBytesIn()
+        {
+            return bytesIn;
+        }
+
+        public long getBytesOut()
+        {
+            return bytesOut;
+        }
+
+        public LatencyHistogram.Summary getDeserialize()
+        {
+            return deserialize;
+        }
+
+        public LatencyHistogram.Summary getInvoke()
+        {
+            return invoke;
+        }
+
+        public LatencyHistogram.Summary getSerialize()
+        {
+            return serialize;
+        }
+    }
+}
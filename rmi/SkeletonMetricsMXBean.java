@@ -0,0 +1,41 @@
+package rmi;
+
+/** Management interface of <code>SkeletonMetrics</code>.
+
+    <p>
+    A skeleton registers its metrics with the platform MBean server while it is
+    running, under the name
+    <code>rmi:type=Skeleton,interface=</code><em>interface</em><code>,port=</code><em>port</em>.
+    Durations are in nanoseconds.
+ */
+public interface SkeletonMetricsMXBean
+{
+    /** Returns the name of the remote interface of the skeleton. */
+    String getInterfaceName();
+
+    /** Returns the number of calls executed, by all methods. */
+    long getCalls();
+
+    /** Returns the number of calls that threw an exception, by all methods. */
+    long getErrors();
+
+    /** Returns the number of calls not started, or interrupted, because
+        their deadline expired, by all methods. */
+    long getExpired();
+
+    /** Returns the number of calls waiting for a worker thread. */
+    int getQueuedCalls();
+
+    /** Returns the number of calls being executed. */
+    int getActiveCalls();
+
+    /** Returns the number of calls rejected since the skeleton was last
+        started. */
+    long getRejectedCalls();
+
+    /** Returns a summary of the metrics of each remote method. */
+    SkeletonMetrics.MethodSummary[] getMethods();
+
+    /** Clears the metrics of all methods. */
+    void reset();
+}
@@ -0,0 +1,50 @@
+package rmi;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+
+/**
+ * Network side of a skeleton: accepts stub connections, reads call frames,
+ * passes them to the skeleton's Dispatcher and writes the replies back.
+ */
+interface SkeletonTransport {
+    /**
+     * Bind the listening socket and start accepting connections
+     * @param address address to listen at, or null for a system-assigned
+     *                port; only the selector transport accepts a
+     *                UnixDomainSocketAddress
+     * @return the port the transport is listening on, 0 for a domain socket
+     * @throws IOException if the listening socket cannot be created or bound
+     */
+    int start(SocketAddress address) throws IOException;
+
+    /**
+     * Stop accepting connections. When this returns the listening socket is
+     * closed; idle connections are closed, and busy ones once their calls in
+     * progress have been answered.
+     */
+    void stop();
+
+    /**
+     * @return the number of TCP listening sockets to bind to the skeleton's
+     *         port, one unless SO_REUSEPORT is supported
+     */
+    static int acceptors(Skeleton<?> skeleton) {
+        int acceptors = skeleton.config.getAcceptors();
+        if (acceptors > 1 && !reusePortSupported()) {
+            skeleton.service_error(new RMIException("SO_REUSEPORT is not supported, using a single acceptor"));
+            return 1;
+        }
+        return acceptors;
+    }
+
+    private static boolean reusePortSupported() {
+        try (ServerSocketChannel channel = ServerSocketChannel.open()) {
+            return channel.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
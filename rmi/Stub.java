@@ -4,6 +4,9 @@ import java.lang.reflect.Method;
 import java.net.*;
 import java.lang.reflect.Proxy;
 import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 
 /** RMI stub factory.
 
@@ -17,6 +20,11 @@ import java.util.Arrays;
     may not be modified afterwards. Two stubs are equal if they implement the
     same interface and carry the same remote server address - and would
     therefore connect to the same skeleton. Stubs are serializable.
+
+    <p>
+    When a stub class has been generated for the interface at compile time, see
+    <code>RemoteInterface</code>, stubs are instances of that class. Otherwise
+    they are dynamic proxies.
  */
 public abstract class Stub
 {
@@ -25,7 +33,9 @@ public abstract class Stub
         <p>
         The stub is assigned the address of the skeleton. The skeleton must
         either have been created with a fixed address, or else it must have
-        already been started.
+        already been started. A stub for a skeleton exported on the endpoint of
+        a host skeleton is assigned the host's address and addresses its calls
+        to the skeleton's object ID.
 
         <p>
         This method should be used when the stub is created together with the
@@ -66,13 +76,7 @@ public abstract class Stub
                 skeleton.address.getHostName(), skeleton.address.getPort()
         );
 
-        @SuppressWarnings("unchecked")
-        T proxy = (T) Proxy.newProxyInstance(
-                c.getClassLoader(),
-                new Class[] { c },
-                new DynamicProxyHandler<T>(c, socketAddress)
-        );
-        return proxy;
+        return stub(c, new DynamicProxyHandler<T>(c, socketAddress, skeleton.objectId));
     }
 
     /** Creates a stub, given a skeleton with an assigned address and a hostname
@@ -141,16 +145,191 @@ public abstract class Stub
 
         validate(c);
 
+        return stub(c, new DynamicProxyHandler<T>(c, address));
+    }
+
+    /** Creates a stub for a remote object replicated on several servers.
+
+        <p>
+        Each call made through the stub goes to one of the replicas. The stub
+        tracks the calls in flight and the average latency of each replica,
+        and sends each call to the better of two replicas chosen at random. A
+        replica whose calls repeatedly fail to connect, fail on the connection
+        or time out is left out for a backoff period, after which a single
+        call probes it. The stub is intended for read-only interfaces, whose
+        replicas answer any call alike; it does not retry a failed call on
+        another replica.
+
+        @param c A <code>Class</code> object representing the interface
+                 implemented by the remote object.
+        @param replicas The network addresses of the skeletons of the
+                        replicas.
+        @return The stub created.
+        @throws NullPointerException If any argument or address is
+                                     <code>null</code>.
+        @throws IllegalArgumentException If no address is given.
+        @throws Error If <code>c</code> does not represent a remote interface
+                      - an interface in which each method is marked as throwing
+                      <code>RMIException</code>, or if an object implementing
+                      this interface cannot be dynamically created.
+     */
+    public static <T> T createReplicated(Class<T> c,
+                                         InetSocketAddress... replicas)
+    {
+        /* Ensure that null arguments throw NullPointerException */
+        if (c == null || replicas == null)
+            throw new NullPointerException("Arguments cannot be null");
+        for (InetSocketAddress replica : replicas) {
+            if (replica == null)
+                throw new NullPointerException("Arguments cannot be null");
+        }
+        if (replicas.length == 0)
+            throw new IllegalArgumentException("No replica address");
+
+        validate(c);
+
+        return stub(c, new DynamicProxyHandler<T>(c, replicas));
+    }
+
+    /** Creates an asynchronous stub, given the address of a remote server.
+
+        <p>
+        The futures returned by the stub are completed on the common
+        <code>ForkJoinPool</code>.
+
+        @param c A <code>Class</code> object representing the interface
+                 implemented by the remote object.
+        @param address The network address of the remote skeleton.
+        @return The asynchronous stub created.
+        @throws NullPointerException If any argument is <code>null</code>.
+        @throws Error If <code>c</code> does not represent a remote interface
+                      - an interface in which each method is marked as throwing
+                      <code>RMIException</code>.
+     */
+    public static <T> AsyncStub<T> createAsync(Class<T> c,
+                                               InetSocketAddress address)
+    {
+        return createAsync(c, address, ForkJoinPool.commonPool());
+    }
+
+    /** Creates an asynchronous stub, given the address of a remote server and
+        the executor on which the futures returned by the stub are completed.
+
+        @param c A <code>Class</code> object representing the interface
+                 implemented by the remote object.
+        @param address The network address of the remote skeleton.
+        @param executor The executor completing the futures, and therefore
+                        running the callbacks attached to them without an
+                        executor of their own.
+        @return The asynchronous stub created.
+        @throws NullPointerException If any argument is <code>null</code>.
+        @throws Error If <code>c</code> does not represent a remote interface
+                      - an interface in which each method is marked as throwing
+                      <code>RMIException</code>.
+     */
+    public static <T> AsyncStub<T> createAsync(Class<T> c,
+                                               InetSocketAddress address,
+                                               Executor executor)
+    {
+        /* Ensure that null arguments throw NullPointerException */
+        if (c == null || address == null || executor == null)
+            throw new NullPointerException("Arguments cannot be null");
+
+        validate(c);
+
+        return new AsyncStub<T>(new DynamicProxyHandler<T>(c, address), executor);
+    }
+
+    /** Opens a batch of calls to the skeleton of a stub.
+
+        <p>
+        The futures of the calls in the batch are completed on the common
+        <code>ForkJoinPool</code>.
+
+        @param stub A stub created by one of the <code>create</code> methods.
+        @return The batch opened.
+        @throws IllegalArgumentException If <code>stub</code> is not a stub
+                                         created by this class.
+        @throws NullPointerException If <code>stub</code> is
+                                     <code>null</code>.
+     */
+    public static <T> Batch<T> batch(T stub)
+    {
+        if (stub == null)
+            throw new NullPointerException("Argument cannot be null");
+
+        return new Batch<T>(handler(stub), ForkJoinPool.commonPool());
+    }
+
+    /** Returns a stub for the same remote object as the given stub, whose
+        calls time out.
+
+        <p>
+        A call made through the stub returned throws
+        <code>CallTimeoutException</code> if its reply is not received within
+        the timeout. The timeout is also sent to the skeleton, which does not
+        start a call that has already timed out, and interrupts the thread
+        executing a call when it times out. The timeout applies to each call,
+        and to each batch opened on the stub as a whole. A
+        <code>Deadline</code> opened by the calling thread shortens it.
+
+        @param stub A stub created by one of the <code>create</code> methods,
+                    or by this method.
+        @param timeout The time each call has to complete, 0 for no limit.
+        @param unit The unit of <code>timeout</code>.
+        @return The stub created.
+        @throws IllegalArgumentException If <code>stub</code> is not a stub
+                                         created by this class, or if
+                                         <code>timeout</code> is negative.
+        @throws NullPointerException If <code>stub</code> or
+                                     <code>unit</code> is <code>null</code>.
+     */
+    public static <T> T withTimeout(T stub, long timeout, TimeUnit unit)
+    {
+        if (stub == null || unit == null)
+            throw new NullPointerException("Arguments cannot be null");
+
+        if (timeout < 0)
+            throw new IllegalArgumentException("Timeout cannot be negative");
+
+        DynamicProxyHandler<T> handler = handler(stub);
+
+        // A timeout under a millisecond is rounded up rather than lost
+        long millis = unit.toMillis(timeout);
+        if (millis == 0 && timeout > 0) millis = 1;
+
+        return stub(handler.getInterface(), handler.withTimeout(millis));
+    }
+
+    /* Creates the stub object: an instance of the stub class generated for the
+       interface if there is one, a dynamic proxy otherwise. */
+    private static <T> T stub(Class<T> c, DynamicProxyHandler<T> handler)
+    {
+        T generated = Generated.stub(c, handler);
+        if (generated != null) return generated;
+
         @SuppressWarnings("unchecked")
         T proxy = (T) Proxy.newProxyInstance(
                 c.getClassLoader(),
                 new Class[] { c },
-                new DynamicProxyHandler<T>(c, address)
+                handler
         );
 
         return proxy;
     }
 
+    /* Returns the handler making the calls of a stub created by this class. */
+    private static <T> DynamicProxyHandler<T> handler(T stub)
+    {
+        @SuppressWarnings("unchecked")
+        DynamicProxyHandler<T> handler =
+            (DynamicProxyHandler<T>) DynamicProxyHandler.of(stub);
+        if (handler == null)
+            throw new IllegalArgumentException("Not an RMI stub");
+
+        return handler;
+    }
+
     private static <T> void validate(Class<T> c) throws Error{
         /* Ensure class rejected */
         if (!c.isInterface()) throw new Error("c is not an interface");
@@ -0,0 +1,299 @@
+package rmi;
+
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Metrics of the calls made by the stubs for one remote interface and one
+    skeleton address.
+
+    <p>
+    Each method of the remote interface has its own histograms of the time
+    taken to obtain a connection, to encode the call, to receive the first byte
+    of the reply after the call is sent, and to decode the reply, counters of
+    calls sent and of bytes sent and received, and counts of failures by cause.
+    Byte counts are frame sizes, before compression. The time to obtain a
+    connection includes opening one when the pool has to. Calls made through
+    <code>Batch</code> are not recorded.
+
+    <p>
+    All stubs for the same interface and address share one
+    <code>StubMetrics</code> object, created when the first of them makes a
+    call. The objects are kept in a registry, read with <code>get</code> and
+    <code>all</code>. Counters are striped, and recording takes no lock, so the
+    metrics are always collected.
+ */
+public final class StubMetrics
+{
+    /** Causes of failed calls. */
+    public enum Failure
+    {
+        /** No connection to the skeleton could be obtained. */
+        CONNECT,
+        /** The arguments could not be encoded. */
+        SERIALIZE,
+        /** The connection failed before the reply was received, or the
+            calling thread was interrupted while waiting. */
+        CONNECTION,
+        /** The deadline of the call expired before the reply was received,
+            or before the call was sent. */
+        TIMEOUT,
+        /** The skeleton was too busy to accept the call. */
+        REJECTED,
+        /** The remote method, or the skeleton executing it, threw an
+            exception. */
+        REMOTE,
+        /** The reply could not be decoded. */
+        DESERIALIZE
+    }
+
+    private static final Map<Key, StubMetrics> registry = new ConcurrentHashMap<>();
+
+    private final Class<?> c;
+    private final InetSocketAddress address;
+    private final MethodMetrics[] methods;
+
+    private StubMetrics(Class<?> c, InetSocketAddress address)
+    {
+        this.c = c;
+        this.address = address;
+
+        MethodTable table = MethodTable.of(c);
+        methods = new MethodMetrics[table.size()];
+        for (int id = 0; id < methods.length; id++) methods[id] = new MethodMetrics(table.method(id));
+    }
+
+    /** Returns the metrics of the stubs for the given interface and address,
+        or <code>null</code> if none of them has made a call. */
+    public static StubMetrics get(Class<?> c, InetSocketAddress address)
+    {
+        if (c == null || address == null) throw new NullPointerException("Arguments cannot be null");
+        return registry.get(new Key(c, address));
+    }
+
+    /** Returns the metrics of all interfaces and addresses for which a stub
+        has made a call. */
+    public static List<StubMetrics> all()
+    {
+        return Collections.unmodifiableList(new ArrayList<>(registry.values()));
+    }
+
+    /** Returns the metrics for the given interface and address, created if
+        needed. */
+    static StubMetrics register(Class<?> c, InetSocketAddress address)
+    {
+        return registry.computeIfAbsent(new Key(c, address), key -> new StubMetrics(c, address));
+    }
+
+    /** Returns the remote interface. */
+    public Class<?> getInterface()
+    {
+        return c;
+    }
+
+    /** Returns the skeleton address. */
+    public InetSocketAddress getAddress()
+    {
+        return address;
+    }
+
+    /** Returns the metrics of a method of the remote interface.
+
+        @throws IllegalArgumentException If <code>method</code> is not a method
+                                         of the remote interface.
+     */
+    public MethodMetrics method(Method method)
+    {
+        for (MethodMetrics metrics : methods) {
+            if (metrics.method.equals(method)) return metrics;
+        }
+        throw new IllegalArgumentException(method + " is not a method of the remote interface");
+    }
+
+    /** Returns the metrics of every method of the remote interface, in method
+        id order. */
+    public List<MethodMetrics> methods()
+    {
+        List<MethodMetrics> list = new ArrayList<>(methods.length);
+        Collections.addAll(list, methods);
+        return Collections.unmodifiableList(list);
+    }
+
+    /** Clears the metrics of all methods. */
+    public void reset()
+    {
+        for (MethodMetrics metrics : methods) metrics.reset();
+    }
+
+    // Recording, by method id; ids that are not methods of the interface are ignored
+
+    void connected(int methodId, long nanos)
+    {
+        MethodMetrics metrics = method(methodId);
+        if (metrics != null) metrics.connect.record(nanos);
+    }
+
+    void sent(int methodId, long serializeNanos, long bytes)
+    {
+        MethodMetrics metrics = method(methodId);
+        if (metrics == null) return;
+
+        metrics.calls.increment();
+        metrics.serialize.record(serializeNanos);
+        metrics.bytesSent.add(bytes);
+    }
+
+    /**
+     * @param firstByteNanos time from sending the call to the first byte of
+     *                       the reply, negative if unknown
+     */
+    void received(int methodId, long firstByteNanos, long deserializeNanos, long bytes)
+    {
+        MethodMetrics metrics = method(methodId);
+        if (metrics == null) return;
+
+        if (firstByteNanos >= 0) metrics.firstByte.record(firstByteNanos);
+        metrics.deserialize.record(deserializeNanos);
+        metrics.bytesReceived.add(bytes);
+    }
+
+    void failed(int methodId, Failure cause)
+    {
+        MethodMetrics metrics = method(methodId);
+        if (metrics != null) metrics.failures[cause.ordinal()].increment();
+    }
+
+    private MethodMetrics method(int id)
+    {
+        return id >= 0 && id < methods.length ? methods[id] : null;
+    }
+
+    /** Metrics of the calls to one remote method. */
+    public static final class MethodMetrics
+    {
+        private final Method            method;
+        private final LongAdder         calls = new LongAdder();
+        private final LongAdder         bytesSent = new LongAdder();
+        private final LongAdder         bytesReceived = new LongAdder();
+        private final LongAdder[]       failures =
+            new LongAdder[Failure.values().length];
+        private final LatencyHistogram  connect = new LatencyHistogram();
+        private final LatencyHistogram  serialize = new LatencyHistogram();
+        private final LatencyHistogram  firstByte = new LatencyHistogram();
+        private final LatencyHistogram  deserialize = new LatencyHistogram();
+
+        MethodMetrics(Method method)
+        {
+            this.method = method;
+            for (int i = 0; i < failures.length; i++) failures[i] = new LongAdder();
+        }
+
+        void reset()
+        {
+            calls.reset();
+            bytesSent.reset();
+            bytesReceived.reset();
+            for (LongAdder failure : failures) failure.reset();
+            connect.reset();
+            serialize.reset();
+            firstByte.reset();
+            deserialize.reset();
+        }
+
+        /** Returns the method. */
+        public Method getMethod()
+        {
+            return method;
+        }
+
+        /** Returns the number of calls sent to the skeleton. */
+        public long getCalls()
+        {
+            return calls.sum();
+        }
+
+        /** Returns the number of calls that failed for the given cause. */
+        public long getFailures(Failure cause)
+        {
+            return failures[cause.ordinal()].sum();
+        }
+
+        /** Returns the number of calls that failed, for any cause. */
+        public long getFailures()
+        {
+            long total = 0;
+            for (LongAdder failure : failures) total += failure.sum();
+            return total;
+        }
+
+        /** Returns the number of bytes of the call frames sent. */
+        public long getBytesSent()
+        {
+            return bytesSent.sum();
+        }
+
+        /** Returns the number of bytes of the reply frames received. */
+        public long getBytesReceived()
+        {
+            return bytesReceived.sum();
+        }
+
+        /** Returns the histogram of the time taken to obtain a
+            connection. */
+        public LatencyHistogram getConnectLatency()
+        {
+            return connect;
+        }
+
+        /** Returns the histogram of the time taken to encode calls. */
+        public LatencyHistogram getSerializeLatency()
+        {
+            return serialize;
+        }
+
+        /** Returns the histogram of the time from sending a call to receiving
+            the first byte of its reply. */
+        public LatencyHistogram getFirstByteLatency()
+        {
+            return firstByte;
+        }
+
+        /** Returns the histogram of the time taken to decode replies. */
+        public LatencyHistogram getDeserializeLatency()
+        {
+            return deserialize;
+        }
+    }
+
+    private static final class Key
+    {
+        final Class<?> c;
+        final InetSocketAddress address;
+
+        Key(Class<?> c, InetSocketAddress address)
+        {
+            this.c = c;
+            this.address = address;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return c.equals(key.c) && address.equals(key.address);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(c, address);
+        }
+    }
+}
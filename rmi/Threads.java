@@ -0,0 +1,69 @@
+package rmi;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Factories for the threads used by skeletons and stubs. Virtual threads are
+ * created through reflection, so the library still compiles and runs on
+ * runtimes that do not have them.
+ */
+final class Threads {
+    private static final Method OF_VIRTUAL;
+    private static final Method NAME;
+    private static final Method FACTORY;
+
+    static {
+        Method ofVirtual = null, name = null, factory = null;
+        try {
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            name = builder.getMethod("name", String.class, long.class);
+            factory = builder.getMethod("factory");
+        } catch (ReflectiveOperationException e) {
+            ofVirtual = null;
+        }
+        OF_VIRTUAL = ofVirtual;
+        NAME = name;
+        FACTORY = factory;
+    }
+
+    private Threads() { }
+
+    /** @return true if the runtime supports virtual threads */
+    static boolean virtualSupported() { return OF_VIRTUAL != null; }
+
+    /**
+     * Factory of daemon platform threads named prefix-1, prefix-2 and so on
+     */
+    static ThreadFactory platform(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return task -> {
+            Thread thread = new Thread(task, prefix + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Factory of virtual threads named prefix-0, prefix-1 and so on
+     * @throws UnsupportedOperationException if the runtime has no virtual threads
+     */
+    static ThreadFactory virtual(String prefix) {
+        if (!virtualSupported())
+            throw new UnsupportedOperationException("Virtual threads require Java 21 or later");
+
+        try {
+            Object builder = OF_VIRTUAL.invoke(null);
+            builder = NAME.invoke(builder, prefix + "-", 0L);
+            return (ThreadFactory) FACTORY.invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("Unable to create virtual thread factory", e);
+        }
+    }
+
+    static ThreadFactory create(boolean virtual, String prefix) {
+        return virtual ? virtual(prefix) : platform(prefix);
+    }
+}
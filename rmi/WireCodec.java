@@ -0,0 +1,260 @@
+package rmi;
+
+import common.Path;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compact tagged binary encoding of values, used from protocol version
+ * Marshal.COMPACT on. Each value is a one byte tag followed by its payload:
+ * <pre>
+ * NULL, FALSE, TRUE        no payload
+ * INT, LONG                zigzag varint
+ * STRING                   varint byte length, UTF-8 bytes
+ * BYTES                    varint length, bytes
+ * STRING_ARRAY             varint length, then each element as a tagged value
+ * PATH                     path string, as STRING without the tag
+ * SERIALIZED               varint length, a Java object stream of the value
+ * BULK_BYTES, BULK_BUFFER  no payload, the value is the next bulk region
+ * </pre>
+ * The types the filesystem passes on nearly every call have their own tags;
+ * anything else, including exceptions, falls back to Java serialization.
+ * From protocol version Marshal.BULK on, byte arrays of at least
+ * BULK_THRESHOLD bytes and all ByteBuffers are sent as bulk regions of the
+ * frame (see Frame) instead of being copied into the body.
+ */
+final class WireCodec {
+    static final byte NULL = 0;
+    static final byte FALSE = 1;
+    static final byte TRUE = 2;
+    static final byte INT = 3;
+    static final byte LONG = 4;
+    static final byte STRING = 5;
+    static final byte BYTES = 6;
+    static final byte STRING_ARRAY = 7;
+    static final byte PATH = 8;
+    static final byte SERIALIZED = 9;
+    static final byte BULK_BYTES = 10;
+    static final byte BULK_BUFFER = 11;
+
+    /** Smallest byte array sent as a bulk region. */
+    static final int BULK_THRESHOLD = 8192;
+
+    private WireCodec() { }
+
+    static void write(Output out, Object value) throws IOException {
+        if (value == null) {
+            out.write(NULL);
+        } else if (value instanceof Boolean) {
+            out.write((Boolean) value ? TRUE : FALSE);
+        } else if (value instanceof Integer) {
+            out.write(INT);
+            out.writeVarLong(zigzag((Integer) value));
+        } else if (value instanceof Long) {
+            out.write(LONG);
+            out.writeVarLong(zigzag((Long) value));
+        } else if (value instanceof String) {
+            out.write(STRING);
+            writeString(out, (String) value);
+        } else if (value instanceof byte[] && out.regions != null && ((byte[]) value).length >= BULK_THRESHOLD) {
+            out.write(BULK_BYTES);
+            out.regions.add(ByteBuffer.wrap((byte[]) value));
+        } else if (value instanceof ByteBuffer && out.regions != null) {
+            out.write(BULK_BUFFER);
+            out.regions.add(((ByteBuffer) value).slice());
+        } else if (value instanceof byte[]) {
+            byte[] bytes = (byte[]) value;
+            out.write(BYTES);
+            out.writeVarLong(bytes.length);
+            out.write(bytes, 0, bytes.length);
+        } else if (value.getClass() == String[].class) {
+            String[] strings = (String[]) value;
+            out.write(STRING_ARRAY);
+            out.writeVarLong(strings.length);
+            for (String s : strings) write(out, s);
+        } else if (value.getClass() == Path.class) {
+            out.write(PATH);
+            writeString(out, value.toString());
+        } else {
+            byte[] serialized = Marshal.serialize(value);
+            out.write(SERIALIZED);
+            out.writeVarLong(serialized.length);
+            out.write(serialized, 0, serialized.length);
+        }
+    }
+
+    static Object read(Input input) throws IOException, ClassNotFoundException {
+        ByteBuffer in = input.buffer;
+        try {
+            byte tag = in.get();
+            switch (tag) {
+                case NULL: return null;
+                case FALSE: return Boolean.FALSE;
+                case TRUE: return Boolean.TRUE;
+                case INT: return (int) unzigzag(readVarLong(in));
+                case LONG: return unzigzag(readVarLong(in));
+                case STRING: return readString(in);
+                case BYTES: {
+                    byte[] bytes = new byte[readLength(in)];
+                    in.get(bytes);
+                    return bytes;
+                }
+                case STRING_ARRAY: {
+                    String[] strings = new String[readLength(in)];
+                    for (int i = 0; i < strings.length; i++) {
+                        Object s = read(input);
+                        if (s != null && !(s instanceof String))
+                            throw new StreamCorruptedException("String array element is not a string");
+                        strings[i] = (String) s;
+                    }
+                    return strings;
+                }
+                case PATH:
+                    try {
+                        return new Path(readString(in));
+                    } catch (IllegalArgumentException e) {
+                        throw new StreamCorruptedException("Invalid path: " + e.getMessage());
+                    }
+                case SERIALIZED: {
+                    int length = readLength(in);
+                    Object value = Marshal.deserialize(in.array(), in.arrayOffset() + in.position(), length);
+                    in.position(in.position() + length);
+                    return value;
+                }
+                case BULK_BYTES: {
+                    ByteBuffer region = input.region();
+                    if (region.hasArray() && region.arrayOffset() == 0 && region.position() == 0
+                            && region.remaining() == region.array().length)
+                        return region.array();
+
+                    byte[] bytes = new byte[region.remaining()];
+                    region.duplicate().get(bytes);
+                    return bytes;
+                }
+                case BULK_BUFFER:
+                    return input.region();
+                default:
+                    throw new StreamCorruptedException("Unknown value tag " + tag);
+            }
+        } catch (BufferUnderflowException e) {
+            throw new EOFException("Truncated value");
+        }
+    }
+
+    private static void writeString(Output out, String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeVarLong(bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static String readString(ByteBuffer in) throws IOException {
+        int length = readLength(in);
+        String s = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return s;
+    }
+
+    static long readVarLong(ByteBuffer in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (!in.hasRemaining()) throw new EOFException("Truncated varint");
+            byte b = in.get();
+            value |= (long) (b & 0x7f) << shift;
+            if (b >= 0) return value;
+        }
+        throw new StreamCorruptedException("Malformed varint");
+    }
+
+    // A length that cannot exceed the bytes left in the body
+    private static int readLength(ByteBuffer in) throws IOException {
+        long length = readVarLong(in);
+        if (length < 0 || length > in.remaining())
+            throw new StreamCorruptedException("Invalid length " + length);
+        return (int) length;
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /** Growable output buffer. Unlike ByteArrayOutputStream it is not synchronized and its array can be used directly. */
+    static final class Output {
+        byte[] bytes;
+        int length = 0;
+        // Bulk regions referred to by the values written, null if they must be written inline
+        final List<ByteBuffer> regions;
+
+        Output(int capacity, boolean bulk) {
+            bytes = new byte[capacity];
+            regions = bulk ? new ArrayList<>() : null;
+        }
+
+        void write(int b) {
+            ensure(1);
+            bytes[length++] = (byte) b;
+        }
+
+        void write(byte[] b, int offset, int count) {
+            ensure(count);
+            System.arraycopy(b, offset, bytes, length, count);
+            length += count;
+        }
+
+        void writeInt(int value) {
+            ensure(4);
+            bytes[length++] = (byte) (value >>> 24);
+            bytes[length++] = (byte) (value >>> 16);
+            bytes[length++] = (byte) (value >>> 8);
+            bytes[length++] = (byte) value;
+        }
+
+        void writeVarLong(long value) {
+            ensure(10);
+            while ((value & ~0x7fL) != 0) {
+                bytes[length++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            bytes[length++] = (byte) value;
+        }
+
+        byte[] toByteArray() {
+            return length == bytes.length ? bytes : Arrays.copyOf(bytes, length);
+        }
+
+        ByteBuffer[] regions() {
+            return regions == null || regions.isEmpty() ? Frame.NO_REGIONS : regions.toArray(new ByteBuffer[0]);
+        }
+
+        private void ensure(int count) {
+            if (length + count > bytes.length)
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + count));
+        }
+    }
+
+    /** Body being decoded, with the bulk regions of its frame. */
+    static final class Input {
+        final ByteBuffer buffer;
+        private final ByteBuffer[] regions;
+        private int next = 0;
+
+        Input(byte[] body, ByteBuffer[] regions) {
+            this.buffer = ByteBuffer.wrap(body);
+            this.regions = regions;
+        }
+
+        ByteBuffer region() throws StreamCorruptedException {
+            if (next >= regions.length) throw new StreamCorruptedException("Missing bulk region");
+            return regions[next++];
+        }
+    }
+}
@@ -3,7 +3,10 @@ package storage;
 import java.io.*;
 
 import common.*;
+import rmi.CallPriority;
+import rmi.Priority;
 import rmi.RMIException;
+import rmi.RemoteInterface;
 
 /** Storage server command interface.
 
@@ -16,6 +19,8 @@ import rmi.RMIException;
     passed <code>null</code> for arguments or {@link SecurityException} if the
     security manager on the server does not allow an operation.
  */
+@RemoteInterface
+@Priority(CallPriority.CONTROL)
 public interface Command
 {
     /** Creates a file on the storage server.
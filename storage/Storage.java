@@ -3,7 +3,10 @@ package storage;
 import java.io.*;
 
 import common.*;
+import rmi.CallPriority;
+import rmi.Priority;
 import rmi.RMIException;
+import rmi.RemoteInterface;
 
 /** Storage server client interface.
 
@@ -12,6 +15,7 @@ import rmi.RMIException;
     passed <code>null</code> for arguments or {@link SecurityException} if the
     security manager on the server does not allow an operation.
  */
+@RemoteInterface
 public interface Storage
 {
     /** Returns the length of a file, in bytes.
@@ -43,6 +47,7 @@ public interface Storage
         @throws RMIException If the call cannot be completed due to a network
                              error.
      */
+    @Priority(CallPriority.BULK)
     public byte[] read(Path file, long offset, int length)
         throws RMIException, FileNotFoundException, IOException;
 
@@ -58,6 +63,7 @@ public interface Storage
         @throws RMIException If the call cannot be completed due to a network
                              error.
      */
+    @Priority(CallPriority.BULK)
     public void write(Path file, long offset, byte[] data)
         throws RMIException, FileNotFoundException, IOException;
 }
@@ -2,6 +2,9 @@ package storage;
 
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -18,7 +21,7 @@ import naming.*;
  */
 public class StorageServer implements Storage, Command
 {
-    // Two skeletons
+    // Two skeletons sharing one port, the command interface is exported on the storage skeleton
     private Skeleton<Command> commandSkeleton;
     private Skeleton<Storage> storageSkeleton;
 
@@ -42,9 +45,10 @@ public class StorageServer implements Storage, Command
         this.root = root;
         this.rootString = root.getAbsolutePath();
 
-        commandSkeleton = new Skeleton<Command>(Command.class, this);
-        storageSkeleton = new Skeleton<Storage>(Storage.class, this);
-
+        // Clients on the same host read through a Unix domain socket
+        storageSkeleton = new Skeleton<Storage>(Storage.class, this, null,
+            new SkeletonConfig().setLocalSocket(true));
+        commandSkeleton = new Skeleton<Command>(storageSkeleton, Command.class, this);
     }
 
     /** Starts the storage server and registers it with the given naming
@@ -74,8 +78,8 @@ public class StorageServer implements Storage, Command
 
         if (hostname == null || naming_server == null) throw new NullPointerException("Argument is null");
 
-        commandSkeleton.start();
         storageSkeleton.start();
+        commandSkeleton.start();
         // create stubs
         Command commandStub = Stub.create(Command.class, commandSkeleton, hostname);
         Storage storageStub = Stub.create(Storage.class, storageSkeleton, hostname);
@@ -176,11 +180,15 @@ public class StorageServer implements Storage, Command
         if (offset < 0 || length < 0) throw new IndexOutOfBoundsException("Negative offset or length");
         if (length + offset > f.length()) throw new IndexOutOfBoundsException("Read file out of bound");
 
-        RandomAccessFile randomAccessFile = new RandomAccessFile(f, "r");
-
-        byte[] dest = new byte[length];
-        randomAccessFile.read(dest, (int) offset, length);
-        return dest;
+        // Read straight into the array that is returned, and sent as a bulk region
+        ByteBuffer dest = ByteBuffer.allocate(length);
+        try (FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+            while (dest.hasRemaining()) {
+                if (channel.read(dest, offset + dest.position()) < 0)
+                    throw new EOFException("File truncated during read");
+            }
+        }
+        return dest.array();
     }
 
     @Override
@@ -196,9 +204,10 @@ public class StorageServer implements Storage, Command
 
         if (offset < 0) throw new IndexOutOfBoundsException("offset is negative");
 
-        RandomAccessFile randomAccessFile = new RandomAccessFile(f, "rw");
-        randomAccessFile.seek(offset);
-        randomAccessFile.write(data);
+        ByteBuffer source = ByteBuffer.wrap(data);
+        try (FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.WRITE)) {
+            while (source.hasRemaining()) channel.write(source, offset + source.position());
+        }
 
     }
 
@@ -8,6 +8,27 @@ import test.*;
     Tests run are:
     <ul>
     <li>{@link common.SampleUnitTest}</li>
+    <li>{@link rmi.ConnectionPoolTest}</li>
+    <li>{@link rmi.MultiplexTest}</li>
+    <li>{@link rmi.SelectorTransportTest}</li>
+    <li>{@link rmi.BackpressureTest}</li>
+    <li>{@link rmi.MethodTableTest}</li>
+    <li>{@link rmi.MarshalTest}</li>
+    <li>{@link rmi.AsyncStubTest}</li>
+    <li>{@link rmi.BatchTest}</li>
+    <li>{@link rmi.OneWayTest}</li>
+    <li>{@link rmi.CompressionTest}</li>
+    <li>{@link rmi.SkeletonMetricsTest}</li>
+    <li>{@link rmi.StubMetricsTest}</li>
+    <li>{@link rmi.DeadlineTest}</li>
+    <li>{@link rmi.GeneratedStubTest}</li>
+    <li>{@link rmi.LocalSocketTest}</li>
+    <li>{@link rmi.InProcessTest}</li>
+    <li>{@link rmi.BufferPoolTest}</li>
+    <li>{@link rmi.ObjectIdTest}</li>
+    <li>{@link rmi.AcceptorTest}</li>
+    <li>{@link rmi.PriorityTest}</li>
+    <li>{@link rmi.ReplicaTest}</li>
     </ul>
  */
 public class UnitTests
@@ -21,7 +42,28 @@ public class UnitTests
         // Create the test list, the series object, and run the test series.
         @SuppressWarnings("unchecked")
         Class<? extends Test>[]     tests =
-            new Class[] {common.SampleUnitTest.class};
+            new Class[] {common.SampleUnitTest.class,
+                         rmi.ConnectionPoolTest.class,
+                         rmi.MultiplexTest.class,
+                         rmi.SelectorTransportTest.class,
+                         rmi.BackpressureTest.class,
+                         rmi.MethodTableTest.class,
+                         rmi.MarshalTest.class,
+                         rmi.AsyncStubTest.class,
+                         rmi.BatchTest.class,
+                         rmi.OneWayTest.class,
+                         rmi.CompressionTest.class,
+                         rmi.SkeletonMetricsTest.class,
+                         rmi.StubMetricsTest.class,
+                         rmi.DeadlineTest.class,
+                         rmi.GeneratedStubTest.class,
+                         rmi.LocalSocketTest.class,
+                         rmi.InProcessTest.class,
+                         rmi.BufferPoolTest.class,
+                         rmi.ObjectIdTest.class,
+                         rmi.AcceptorTest.class,
+                         rmi.PriorityTest.class,
+                         rmi.ReplicaTest.class};
         Series                      series = new Series(tests);
         SeriesReport                report = series.run(3, System.out);
 
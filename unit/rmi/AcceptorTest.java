@@ -0,0 +1,141 @@
+package rmi;
+
+import test.*;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Unit test for skeletons accepting connections on several sockets.
+
+    <p>
+    For each transport, a skeleton with several acceptors is started, and many
+    connections are opened at once; each must be accepted and must answer the
+    HELLO frame. The <code>BLOCKING</code> transport must run a listening
+    thread per acceptor. Once the skeleton is stopped, its port must be free
+    to be bound again by a skeleton with several acceptors.
+ */
+public class AcceptorTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice =
+        "checking skeletons with several acceptors";
+
+    /** Number of acceptors of the skeletons. */
+    private static final int    ACCEPTORS = 4;
+    /** Number of connections opened at once. */
+    private static final int    CONNECTIONS = 64;
+
+    /** Skeleton used in the test. */
+    private Skeleton<EchoInterface> skeleton;
+    /** Connections opened by the test. */
+    private final List<Socket>  sockets = new ArrayList<Socket>();
+
+    /** Performs the test. */
+    @Override
+    protected void perform() throws Throwable
+    {
+        int                         port = 0;
+
+        for(SkeletonConfig.Transport transport :
+                SkeletonConfig.Transport.values())
+        {
+            skeleton = new Skeleton<EchoInterface>(
+                EchoInterface.class, new EchoServer(),
+                port == 0 ? null : new InetSocketAddress(port),
+                new SkeletonConfig()
+                    .setTransport(transport)
+                    .setAcceptors(ACCEPTORS));
+            skeleton.start();
+            port = skeleton.address.getPort();
+
+            if(transport == SkeletonConfig.Transport.BLOCKING &&
+               listeners(port) != ACCEPTORS)
+            {
+                throw new TestFailed("no listening thread per acceptor");
+            }
+
+            checkConnections(port);
+
+            EchoInterface           stub = Stub.create(
+                EchoInterface.class, new InetSocketAddress("127.0.0.1", port));
+            if(!"value".equals(stub.echo("value")))
+                throw new TestFailed("incorrect result from stub");
+
+            skeleton.stop();
+            skeleton = null;
+            ConnectionPool.getDefault().clear();
+        }
+    }
+
+    /** Opens many connections before reading any HELLO reply, then checks
+        that each connection is answered. */
+    private void checkConnections(int port) throws Throwable
+    {
+        for(int index = 0; index < CONNECTIONS; ++index)
+        {
+            Socket                  socket = new Socket("127.0.0.1", port);
+            sockets.add(socket);
+            Frame.hello(Marshal.VERSION)
+                .write(new DataOutputStream(socket.getOutputStream()));
+        }
+
+        for(Socket socket : sockets)
+        {
+            socket.setSoTimeout(10000);
+            Frame                   reply = Frame.read(
+                new DataInputStream(socket.getInputStream()));
+            if(reply.type != Frame.HELLO ||
+               reply.version() != Marshal.VERSION)
+            {
+                throw new TestFailed("connection not answered with HELLO");
+            }
+        }
+
+        closeSockets();
+    }
+
+    /** Returns the number of listening threads of the given port. */
+    private static int listeners(int port)
+    {
+        int                         count = 0;
+
+        for(Thread thread : Thread.getAllStackTraces().keySet())
+        {
+            if(thread.getName().startsWith("rmi-listener-" + port + "-"))
+                ++count;
+        }
+
+        return count;
+    }
+
+    /** Closes the connections opened by the test. */
+    private void closeSockets()
+    {
+        for(Socket socket : sockets)
+        {
+            try
+            {
+                socket.close();
+            }
+            catch(Exception e) { }
+        }
+
+        sockets.clear();
+    }
+
+    /** Stops the skeleton and closes the connections. */
+    @Override
+    protected void clean()
+    {
+        closeSockets();
+
+        if(skeleton != null)
+            skeleton.stop();
+
+        ConnectionPool.getDefault().clear();
+    }
+}
@@ -0,0 +1,113 @@
+package rmi;
+
+import test.*;
+
+import java.io.FileNotFoundException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/** Unit test for asynchronous stubs.
+
+    <p>
+    Many slow calls are started from a single thread, and must all complete in
+    about the time of one call. Exceptions thrown by the remote method must
+    complete the future exceptionally, and lambdas that do not make exactly one
+    call on the stub must be refused.
+ */
+public class AsyncStubTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice =
+        "checking asynchronous stub calls";
+
+    /** Number of concurrent calls. */
+    private static final int    CALLS = 100;
+    /** Duration of each call, in milliseconds. */
+    private static final long   DELAY = 500;
+
+    /** Skeleton used in the test. */
+    private Skeleton<EchoInterface> skeleton;
+
+    /** Starts the skeleton. */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        skeleton = new Skeleton<EchoInterface>(EchoInterface.class,
+                                               new EchoServer());
+        try
+        {
+            skeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+    }
+
+    /** Performs the test. */
+    @Override
+    protected void perform() throws Throwable
+    {
+        InetSocketAddress           address =
+            new InetSocketAddress(skeleton.address.getHostName(),
+                                  skeleton.address.getPort());
+        AsyncStub<EchoInterface>    stub =
+            Stub.createAsync(EchoInterface.class, address);
+
+        // Start all calls from this thread, then wait for them together.
+        long                        start = System.currentTimeMillis();
+        CompletableFuture<?>[]      results = new CompletableFuture<?>[CALLS];
+        for(int index = 0; index < CALLS; ++index)
+        {
+            final int   value = index;
+            results[index] = stub.call(s -> s.delay(DELAY, value));
+        }
+
+        CompletableFuture.allOf(results).get();
+        long                        elapsed = System.currentTimeMillis() - start;
+
+        for(int index = 0; index < CALLS; ++index)
+        {
+            if(!Integer.valueOf(index).equals(results[index].get()))
+                throw new TestFailed("incorrect result for call " + index);
+        }
+
+        if(elapsed > DELAY * 5)
+            throw new TestFailed("asynchronous calls did not overlap");
+
+        // Exceptions thrown by the remote method complete the future.
+        try
+        {
+            stub.run(s -> s.fail("missing")).get();
+            throw new TestFailed("exception not propagated");
+        }
+        catch(ExecutionException e)
+        {
+            if(!(e.getCause() instanceof FileNotFoundException))
+                throw new TestFailed("incorrect exception propagated", e);
+        }
+
+        // Lambdas must make exactly one call.
+        try
+        {
+            stub.call(s -> "no call");
+            throw new TestFailed("lambda making no call accepted");
+        }
+        catch(IllegalArgumentException e) { }
+
+        try
+        {
+            stub.call(s -> s.echo(s.echo("twice")));
+            throw new TestFailed("lambda making two calls accepted");
+        }
+        catch(IllegalArgumentException e) { }
+    }
+
+    /** Stops the skeleton. */
+    @Override
+    protected void clean()
+    {
+        skeleton.stop();
+    }
+}
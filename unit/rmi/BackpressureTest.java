@@ -0,0 +1,89 @@
+package rmi;
+
+import test.*;
+
+/** Unit test for the bounded skeleton execution queue.
+
+    <p>
+    With one worker thread and a queue of one call, a first slow call occupies
+    the worker and a second waits in the queue. A third call must be rejected
+    with <code>CallRejectedException</code>, and the skeleton must report the
+    queue depth and the rejection.
+ */
+public class BackpressureTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice =
+        "checking skeleton execution queue limits";
+
+    /** Skeleton used in the test. */
+    private Skeleton<EchoInterface> skeleton;
+
+    /** Starts the skeleton. */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        skeleton = new Skeleton<EchoInterface>(EchoInterface.class,
+            new EchoServer(), null,
+            new SkeletonConfig().setMaxWorkerThreads(1).setQueueCapacity(1));
+        try
+        {
+            skeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+    }
+
+    /** Performs the test. */
+    @Override
+    protected void perform() throws Throwable
+    {
+        final EchoInterface stub = Stub.create(EchoInterface.class, skeleton);
+
+        Thread[]    slow = new Thread[2];
+        for(int index = 0; index < slow.length; ++index)
+        {
+            slow[index] = new Thread(() -> {
+                try
+                {
+                    stub.delay(500, null);
+                }
+                catch(Throwable t)
+                {
+                    failure(new TestFailed("accepted call failed", t));
+                }
+            });
+            slow[index].start();
+            Thread.sleep(100);
+        }
+
+        if(skeleton.activeCalls() != 1 || skeleton.queuedCalls() != 1)
+            throw new TestFailed("expected one active and one queued call");
+
+        try
+        {
+            stub.echo("rejected");
+            throw new TestFailed("call beyond queue capacity was accepted");
+        }
+        catch(CallRejectedException e) { }
+
+        if(skeleton.rejectedCalls() != 1)
+            throw new TestFailed("rejection was not counted");
+
+        for(Thread thread : slow)
+            thread.join();
+
+        // Once the queue has drained, calls are accepted again.
+        if(!"accepted".equals(stub.echo("accepted")))
+            throw new TestFailed("call rejected after queue drained");
+    }
+
+    /** Stops the skeleton. */
+    @Override
+    protected void clean()
+    {
+        skeleton.stop();
+    }
+}
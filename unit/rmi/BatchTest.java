@@ -0,0 +1,113 @@
+package rmi;
+
+import test.*;
+
+import java.io.FileNotFoundException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/** Unit test for batches of calls.
+
+    <p>
+    A batch mixing successful calls and a call that throws is flushed, and each
+    call must receive its own result or exception. Calls of a batch are
+    executed in order, so a batch of slow calls must take the sum of their
+    durations. Nothing may be sent before the batch is flushed.
+ */
+public class BatchTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice =
+        "checking batches of calls";
+
+    /** Skeleton used in the test. */
+    private Skeleton<EchoInterface> skeleton;
+
+    /** Starts the skeleton. */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        skeleton = new Skeleton<EchoInterface>(EchoInterface.class,
+                                               new EchoServer());
+        try
+        {
+            skeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+    }
+
+    /** Performs the test. */
+    @Override
+    protected void perform() throws Throwable
+    {
+        EchoInterface               stub =
+            Stub.create(EchoInterface.class, skeleton);
+        Batch<EchoInterface>        batch = Stub.batch(stub);
+
+        CompletableFuture<?>[]      results = new CompletableFuture<?>[20];
+        CompletableFuture<Void>     failed = null;
+        for(int index = 0; index < results.length; ++index)
+        {
+            final int   value = index;
+            results[index] = batch.call(s -> s.echo(value));
+
+            if(index == 10)
+                failed = batch.run(s -> s.fail("missing"));
+        }
+
+        if(batch.size() != results.length + 1)
+            throw new TestFailed("incorrect number of queued calls");
+
+        Thread.sleep(100);
+        if(results[0].isDone())
+            throw new TestFailed("call completed before flush");
+
+        batch.flush().get();
+
+        if(batch.size() != 0)
+            throw new TestFailed("calls still queued after flush");
+
+        for(int index = 0; index < results.length; ++index)
+        {
+            if(!Integer.valueOf(index).equals(results[index].get()))
+                throw new TestFailed("incorrect result for call " + index);
+        }
+
+        try
+        {
+            failed.get();
+            throw new TestFailed("exception not propagated");
+        }
+        catch(ExecutionException e)
+        {
+            if(!(e.getCause() instanceof FileNotFoundException))
+                throw new TestFailed("incorrect exception propagated", e);
+        }
+
+        // Calls of a batch are executed one after the other.
+        long                        start = System.currentTimeMillis();
+        CompletableFuture<Object>   last = null;
+        for(int index = 0; index < 5; ++index)
+        {
+            final int   value = index;
+            last = batch.call(s -> s.delay(100, value));
+        }
+        batch.flush().get();
+
+        if(System.currentTimeMillis() - start < 500)
+            throw new TestFailed("calls of a batch executed concurrently");
+
+        if(!Integer.valueOf(4).equals(last.get()))
+            throw new TestFailed("incorrect result for last call");
+    }
+
+    /** Stops the skeleton. */
+    @Override
+    protected void clean()
+    {
+        skeleton.stop();
+    }
+}
@@ -0,0 +1,143 @@
+package rmi;
+
+import test.*;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+
+/** Unit test for the pool of direct buffers used by the transports.
+
+    <p>
+    Checks that buffers are rounded up to their size class, direct up to the
+    largest class, reused once released, and that a size class retains a
+    bounded number of bytes. The test then makes calls, some of them with
+    arguments larger than the read buffers, through a skeleton with the
+    <code>SELECTOR</code> transport, and checks that once the connection is
+    warmed up no further buffer is allocated by the shared pool.
+ */
+public class BufferPoolTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking pooled transport buffers";
+
+    /** Skeleton used in the test. */
+    private Skeleton<EchoInterface> skeleton;
+
+    /** Performs the test. */
+    @Override
+    protected void perform() throws Throwable
+    {
+        checkPool();
+        checkCalls();
+    }
+
+    /** Checks size classes, reuse and retention on a private pool. */
+    private void checkPool() throws TestFailed
+    {
+        BufferPool                  pool = new BufferPool();
+
+        ByteBuffer                  small = pool.acquire(10);
+        if(!small.isDirect() || small.capacity() != BufferPool.MIN_SIZE)
+            throw new TestFailed("small buffer not rounded up to direct " +
+                                 "buffer of smallest size class");
+
+        ByteBuffer                  medium = pool.acquire(5000);
+        if(medium.capacity() != 2 * BufferPool.MIN_SIZE)
+            throw new TestFailed("buffer not rounded up to its size class");
+
+        ByteBuffer                  huge = pool.acquire(BufferPool.MAX_SIZE + 1);
+        if(huge.isDirect())
+            throw new TestFailed("buffer beyond largest size class is direct");
+
+        medium.putInt(7);
+        pool.release(medium);
+        pool.release(huge);
+        ByteBuffer                  reused = pool.acquire(6000);
+        if(reused != medium)
+            throw new TestFailed("released buffer not reused");
+        if(reused.position() != 0 || reused.limit() != reused.capacity())
+            throw new TestFailed("reused buffer not cleared");
+        if(pool.allocated() != 2)
+            throw new TestFailed("unexpected number of buffers allocated");
+
+        // The largest class retains a single buffer.
+        ByteBuffer                  first = pool.acquire(BufferPool.MAX_SIZE);
+        ByteBuffer                  second = pool.acquire(BufferPool.MAX_SIZE);
+        pool.release(first);
+        pool.release(second);
+        if(pool.acquire(BufferPool.MAX_SIZE) != first)
+            throw new TestFailed("retained buffer not reused");
+        if(pool.acquire(BufferPool.MAX_SIZE) == second)
+            throw new TestFailed("size class retained more than its limit");
+
+        ByteBuffer                  grown = pool.grow(
+            pool.acquire(100).putInt(42).flip(), 10000);
+        if(grown.capacity() < 10000 || grown.position() != 4 ||
+           grown.getInt(0) != 42)
+        {
+            throw new TestFailed("grown buffer does not hold the content " +
+                                 "of the original buffer");
+        }
+    }
+
+    /** Checks that calls through a warmed up connection allocate no buffer.
+
+        @throws TestFailed If calls return incorrect results or the shared
+                           pool allocates buffers after the warm-up.
+     */
+    private void checkCalls() throws Throwable
+    {
+        skeleton = new Skeleton<EchoInterface>(
+            EchoInterface.class, new EchoServer(), null,
+            new SkeletonConfig()
+                .setTransport(SkeletonConfig.Transport.SELECTOR)
+                .setIoThreads(1));
+        skeleton.start();
+
+        InetSocketAddress           address =
+            new InetSocketAddress("127.0.0.1", skeleton.address.getPort());
+        EchoInterface               stub =
+            Stub.create(EchoInterface.class, address);
+
+        byte[]                      large = new byte[64 * 1024];
+        large[large.length - 1] = 7;
+
+        for(int round = 0; round < 2; ++round)
+        {
+            long                    allocated = BufferPool.SHARED.allocated();
+
+            for(int call = 0; call < 500; ++call)
+            {
+                if(!"value".equals(stub.echo("value")))
+                    throw new TestFailed("incorrect result from stub");
+
+                if(call % 50 == 0)
+                {
+                    byte[]          echoed = (byte[])stub.echo(large);
+                    if(echoed.length != large.length ||
+                       echoed[echoed.length - 1] != 7)
+                    {
+                        throw new TestFailed("incorrect large result");
+                    }
+                }
+            }
+
+            // The first round warms up the connection and the pool.
+            if(round == 1 && BufferPool.SHARED.allocated() != allocated)
+            {
+                throw new TestFailed("buffers allocated by calls on a " +
+                                     "warmed up connection");
+            }
+        }
+    }
+
+    /** Stops the skeleton. */
+    @Override
+    protected void clean()
+    {
+        if(skeleton != null)
+            skeleton.stop();
+
+        ConnectionPool.getDefault().clear();
+    }
+}
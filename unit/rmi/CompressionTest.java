@@ -0,0 +1,228 @@
+package rmi;
+
+import test.*;
+
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+/** Unit test for frame compression.
+
+    <p>
+    A compressible frame with bulk regions must shrink and be restored exactly
+    when read back from a stream and from a buffer. Small frames must be sent
+    as they are. A compressor given incompressible data must stop compressing
+    it, and resume once the data becomes compressible again. Finally, stub
+    calls are made with compression enabled on both sides, with both skeleton
+    transports. A forged compressed call declaring a huge content must close
+    the connection of a skeleton that did not agree to compression, and fail
+    without being inflated on one that did, the skeleton serving other calls
+    in both cases.
+ */
+public class CompressionTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice =
+        "checking adaptive frame compression";
+
+    /** Performs the test. */
+    @Override
+    protected void perform() throws Throwable
+    {
+        byte[]          text = text(100000);
+        Frame           frame =
+            Marshal.call(Marshal.VERSION, 1, 2, new Object[] {"name", text});
+        Compressor      compressor = new Compressor();
+        Frame           compressed = compressor.compress(frame);
+
+        if(frame.regions.length != 1)
+            throw new TestFailed("test frame has no bulk region");
+        if(compressed.length() >= frame.length() / 4)
+            throw new TestFailed("compressible frame not compressed");
+
+        for(boolean stream : new boolean[] {true, false})
+        {
+            Frame       received = transmit(compressed.withCallId(9), stream);
+            if(received.type != Frame.CALL || received.callId != 9 ||
+               !Arrays.equals(received.body, frame.body) ||
+               received.regions.length != 1 ||
+               !received.regions[0].equals(frame.regions[0]))
+            {
+                throw new TestFailed("compressed frame not restored");
+            }
+        }
+
+        Frame           small = Marshal.call(Marshal.VERSION, 1, 2,
+                                             new Object[] {"name"});
+        if(compressor.compress(small) != small)
+            throw new TestFailed("small frame compressed");
+
+        // Incompressible data turns compression off, except for probes.
+        byte[]          noise = new byte[100000];
+        new Random(1).nextBytes(noise);
+        Frame           random =
+            Marshal.call(Marshal.VERSION, 1, 2, new Object[] {noise});
+
+        for(int index = 0; index < 100; ++index)
+        {
+            if(compressor.compress(random) != random)
+                throw new TestFailed("incompressible frame compressed");
+        }
+
+        if(compressor.isCompressing())
+            throw new TestFailed("compression not turned off");
+
+        // A probe must find that the data compresses again.
+        int             sent = 0;
+        for(int index = 0; index < 100; ++index)
+        {
+            if(compressor.compress(frame) != frame)
+                ++sent;
+        }
+
+        if(sent == 0 || !compressor.isCompressing())
+            throw new TestFailed("compression not resumed");
+
+        call(SkeletonConfig.Transport.BLOCKING, text);
+        call(SkeletonConfig.Transport.SELECTOR, text);
+
+        forged(SkeletonConfig.Transport.BLOCKING, false);
+        forged(SkeletonConfig.Transport.SELECTOR, false);
+        forged(SkeletonConfig.Transport.BLOCKING, true);
+        forged(SkeletonConfig.Transport.SELECTOR, true);
+    }
+
+    /** Sends a forged compressed call, declaring a body of the maximum frame
+        length, to a skeleton with or without compression. */
+    private void forged(SkeletonConfig.Transport transport,
+                        boolean compression) throws Throwable
+    {
+        SkeletonConfig              config =
+            new SkeletonConfig().setTransport(transport)
+                .setCompression(compression).setMaxInflatedLength(1 << 20);
+        Skeleton<EchoInterface>     skeleton =
+            new Skeleton<EchoInterface>(EchoInterface.class, new EchoServer(),
+                                        null, config);
+        ByteBuffer                  body = ByteBuffer.allocate(12);
+        body.putInt(Frame.MAX_LENGTH).putInt(0).putInt(0);
+
+        skeleton.start();
+        Socket                      socket =
+            new Socket("127.0.0.1", skeleton.address.getPort());
+        try
+        {
+            socket.setSoTimeout(10000);
+            DataOutputStream        out =
+                new DataOutputStream(socket.getOutputStream());
+            DataInputStream         in =
+                new DataInputStream(socket.getInputStream());
+
+            Frame.hello(Marshal.VERSION, true).write(out);
+            if(Frame.read(in).offersCompression() != compression)
+                throw new TestFailed("compression incorrectly negotiated");
+
+            Frame.compressed(Frame.CALL, 7, body.array()).write(out);
+            out.flush();
+
+            if(compression)
+            {
+                Frame               reply = Frame.read(in);
+                if(reply.type != Frame.THROW || reply.callId != 7)
+                    throw new TestFailed("forged call not failed");
+            }
+            else if(in.read() >= 0)
+                throw new TestFailed("connection not closed after forged call");
+
+            EchoInterface           stub =
+                Stub.create(EchoInterface.class, skeleton);
+            if(!"value".equals(stub.echo("value")))
+                throw new TestFailed("skeleton not serving after forged call");
+        }
+        finally
+        {
+            socket.close();
+            ConnectionPool.getDefault().clear();
+            skeleton.stop();
+        }
+    }
+
+    /** Echoes compressible data through a skeleton and stub that both
+        compress. */
+    private void call(SkeletonConfig.Transport transport, byte[] text)
+        throws Throwable
+    {
+        SkeletonConfig              config =
+            new SkeletonConfig().setTransport(transport).setCompression(true);
+        Skeleton<EchoInterface>     skeleton =
+            new Skeleton<EchoInterface>(EchoInterface.class, new EchoServer(),
+                                        null, config);
+        ConnectionPool              pool = ConnectionPool.getDefault();
+
+        skeleton.start();
+        pool.setCompression(true);
+        try
+        {
+            EchoInterface   stub = Stub.create(EchoInterface.class, skeleton);
+            String          string = new String(text, "US-ASCII");
+
+            for(int index = 0; index < 5; ++index)
+            {
+                if(!Arrays.equals(text, (byte[])stub.echo(text)))
+                    throw new TestFailed("incorrect compressed result");
+
+                if(!string.equals(stub.echo(string)))
+                    throw new TestFailed("incorrect compressed string");
+            }
+        }
+        finally
+        {
+            pool.setCompression(false);
+            pool.clear();
+            skeleton.stop();
+        }
+    }
+
+    /** Sends a compressed frame through a stream or a buffer and returns the
+        frame received, inflated. */
+    private static Frame transmit(Frame frame, boolean stream)
+        throws IOException
+    {
+        if(stream)
+        {
+            ByteArrayOutputStream   bytes = new ByteArrayOutputStream();
+            DataOutputStream        out = new DataOutputStream(bytes);
+            frame.write(out);
+            out.flush();
+
+            return Compressor.inflate(Frame.read(new DataInputStream(
+                new ByteArrayInputStream(bytes.toByteArray()))),
+                Compressor.MAX_INFLATED);
+        }
+
+        ByteBuffer[]    buffers = frame.encode();
+        int             length = 0;
+        for(ByteBuffer buffer : buffers)
+            length += buffer.remaining();
+
+        ByteBuffer      received = ByteBuffer.allocate(length);
+        for(ByteBuffer buffer : buffers)
+            received.put(buffer);
+        received.flip();
+
+        return Compressor.inflate(Frame.parse(received),
+                                  Compressor.MAX_INFLATED);
+    }
+
+    /** Returns repetitive text of the given length, as log files are. */
+    private static byte[] text(int length)
+    {
+        byte[]  line = "2024-01-01 12:00:00 INFO request served\n".getBytes();
+        byte[]  bytes = new byte[length];
+        for(int index = 0; index < length; ++index)
+            bytes[index] = line[index % line.length];
+
+        return bytes;
+    }
+}
@@ -0,0 +1,125 @@
+package rmi;
+
+import test.*;
+
+import java.io.FileNotFoundException;
+import java.net.InetSocketAddress;
+
+/** Unit test for <code>ConnectionPool</code>.
+
+    <p>
+    Checks that sequential calls through a stub reuse one pooled connection,
+    including calls that return a remote exception, and that a pooled
+    connection closed by a stopped skeleton is detected and replaced when the
+    skeleton is restarted. Finally, a connection left idle for longer than the
+    idle timeout must be closed by the pool and replaced on the next call.
+ */
+public class ConnectionPoolTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking stub connection pooling";
+
+    /** Skeleton used in the test. */
+    private Skeleton<EchoInterface> skeleton;
+
+    /** Starts the skeleton. */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        skeleton = new Skeleton<EchoInterface>(EchoInterface.class,
+                                               new EchoServer());
+        try
+        {
+            skeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+    }
+
+    /** Performs the test. */
+    @Override
+    protected void perform() throws Throwable
+    {
+        EchoInterface       stub = Stub.create(EchoInterface.class, skeleton);
+        InetSocketAddress   address =
+            new InetSocketAddress(skeleton.address.getHostName(),
+                                  skeleton.address.getPort());
+        ConnectionPool      pool = ConnectionPool.getDefault();
+
+        for(int call = 0; call < 10; ++call)
+        {
+            if(!Integer.valueOf(call).equals(stub.echo(call)))
+                throw new TestFailed("incorrect result from stub");
+        }
+
+        try
+        {
+            stub.fail("expected");
+            throw new TestFailed("remote exception not received");
+        }
+        catch(FileNotFoundException e) { }
+
+        if(pool.openConnections(address) != 1)
+            throw new TestFailed("sequential calls opened " +
+                                 pool.openConnections(address) +
+                                 " connections");
+
+        // Restart the skeleton. The pooled connection is closed by the
+        // skeleton and must be replaced on the next call.
+        skeleton.stop();
+        skeleton.start();
+        Thread.sleep(100);
+
+        if(!"again".equals(stub.echo("again")))
+            throw new TestFailed("incorrect result after skeleton restart");
+
+        if(pool.openConnections(address) != 1)
+            throw new TestFailed("stale connection was not discarded");
+
+        checkIdle(stub, address, pool);
+    }
+
+    /** Lowers the idle timeout and waits for the pool to close the idle
+        connection. */
+    private void checkIdle(EchoInterface stub, InetSocketAddress address,
+                           ConnectionPool pool) throws Throwable
+    {
+        Connection          idle = pool.acquire(address);
+        long                timeout = pool.getIdleTimeout();
+
+        pool.setIdleTimeout(200);
+        try
+        {
+            long            deadline = System.currentTimeMillis() + 2000;
+            while(idle.isHealthy() && System.currentTimeMillis() < deadline)
+                Thread.sleep(10);
+
+            if(idle.isHealthy())
+                throw new TestFailed("idle connection was not closed");
+            if(pool.openConnections(address) != 0)
+                throw new TestFailed("idle connection was not removed");
+
+            if(!"idle".equals(stub.echo("idle")))
+                throw new TestFailed("incorrect result after idle timeout");
+
+            if(pool.openConnections(address) != 1 ||
+               pool.acquire(address) == idle)
+            {
+                throw new TestFailed("idle connection was not replaced");
+            }
+        }
+        finally
+        {
+            pool.setIdleTimeout(timeout);
+        }
+    }
+
+    /** Stops the skeleton. */
+    @Override
+    protected void clean()
+    {
+        skeleton.stop();
+    }
+}
@@ -0,0 +1,183 @@
+package rmi;
+
+import test.*;
+
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+/** Unit test for call deadlines.
+
+    <p>
+    A call through a stub with a timeout, or made within a <code>Deadline</code>,
+    must throw <code>CallTimeoutException</code> soon after the timeout, and the
+    skeleton must interrupt the thread executing it. A call made after its
+    deadline has expired must throw without being sent. Calls that complete in
+    time must be unaffected.
+ */
+public class DeadlineTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice =
+        "checking call deadlines";
+
+    /** Skeleton used in the test. */
+    private Skeleton<EchoInterface> skeleton;
+
+    /** Starts the skeleton. */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        skeleton = new Skeleton<EchoInterface>(EchoInterface.class,
+                                               new EchoServer());
+        try
+        {
+            skeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+    }
+
+    /** Performs the test. */
+    @Override
+    protected void perform() throws Throwable
+    {
+        InetSocketAddress           address =
+            new InetSocketAddress(skeleton.address.getHostName(),
+                                  skeleton.address.getPort());
+        EchoInterface               stub =
+            Stub.create(EchoInterface.class, address);
+        EchoInterface               timed =
+            Stub.withTimeout(stub, 200, TimeUnit.MILLISECONDS);
+        Method                      delay =
+            EchoInterface.class.getMethod("delay", long.class, Object.class);
+        Method                      echo =
+            EchoInterface.class.getMethod("echo", Object.class);
+
+        checkArguments(stub);
+
+        if(!"value".equals(timed.delay(10, "value")))
+            throw new TestFailed("call completing in time failed");
+
+        // The stub gives up after its timeout, and the skeleton interrupts the
+        // method.
+        expectTimeout(timed, 2000);
+
+        SkeletonMetrics.MethodMetrics   server =
+            skeleton.metrics().method(delay);
+        long                        limit = System.currentTimeMillis() + 1500;
+        while((server.getExpired() == 0 || server.getErrors() == 0) &&
+              System.currentTimeMillis() < limit)
+        {
+            Thread.sleep(10);
+        }
+
+        if(server.getExpired() != 1 || server.getErrors() != 1)
+            throw new TestFailed("expired call not interrupted by skeleton");
+
+        // A deadline applies to calls through any stub, and an inner deadline
+        // cannot extend an outer one.
+        Deadline                    outer =
+            Deadline.after(200, TimeUnit.MILLISECONDS);
+        try
+        {
+            try(Deadline inner = Deadline.after(10, TimeUnit.SECONDS))
+            {
+                if(inner.remainingMillis() > 200)
+                    throw new TestFailed("inner deadline extends outer one");
+
+                expectTimeout(stub, 2000);
+            }
+        }
+        finally
+        {
+            outer.close();
+        }
+
+        // A call made once the deadline has expired is not sent.
+        long                        sent =
+            StubMetrics.get(EchoInterface.class, address).method(echo)
+                .getCalls();
+        Deadline                    deadline =
+            Deadline.after(1, TimeUnit.MILLISECONDS);
+        try
+        {
+            Thread.sleep(20);
+
+            try
+            {
+                stub.echo("value");
+                throw new TestFailed("call made after deadline expired");
+            }
+            catch(CallTimeoutException e) { }
+        }
+        finally
+        {
+            deadline.close();
+        }
+
+        StubMetrics.MethodMetrics   client =
+            StubMetrics.get(EchoInterface.class, address).method(echo);
+        if(client.getCalls() != sent ||
+           client.getFailures(StubMetrics.Failure.TIMEOUT) != 1)
+        {
+            throw new TestFailed("expired call sent or not counted");
+        }
+
+        // Once the deadline is closed, calls have no time limit again.
+        if(!"value".equals(stub.delay(300, "value")))
+            throw new TestFailed("deadline not closed");
+    }
+
+    /** Checks that a call to <code>delay</code> times out well before it
+        completes. */
+    private void expectTimeout(EchoInterface stub, long millis)
+        throws Throwable
+    {
+        long                        start = System.currentTimeMillis();
+
+        try
+        {
+            stub.delay(millis, null);
+            throw new TestFailed("call did not time out");
+        }
+        catch(CallTimeoutException e) { }
+
+        if(System.currentTimeMillis() - start > millis / 2)
+            throw new TestFailed("call timed out late");
+    }
+
+    /** Checks that <code>Stub.withTimeout</code> rejects bad arguments. */
+    private void checkArguments(EchoInterface stub) throws TestFailed
+    {
+        try
+        {
+            Stub.withTimeout(null, 1, TimeUnit.SECONDS);
+            throw new TestFailed("null stub accepted");
+        }
+        catch(NullPointerException e) { }
+
+        try
+        {
+            Stub.withTimeout(stub, -1, TimeUnit.SECONDS);
+            throw new TestFailed("negative timeout accepted");
+        }
+        catch(IllegalArgumentException e) { }
+
+        try
+        {
+            Stub.withTimeout(new EchoServer(), 1, TimeUnit.SECONDS);
+            throw new TestFailed("object that is not a stub accepted");
+        }
+        catch(IllegalArgumentException e) { }
+    }
+
+    /** Stops the skeleton. */
+    @Override
+    protected void clean()
+    {
+        skeleton.stop();
+    }
+}
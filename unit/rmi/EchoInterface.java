@@ -0,0 +1,25 @@
+package rmi;
+
+import java.io.FileNotFoundException;
+
+/** Remote interface used by the RMI unit tests. */
+public interface EchoInterface
+{
+    /** Returns its argument. */
+    public Object echo(Object value) throws RMIException;
+
+    /** Returns <code>value</code> after sleeping for the given number of
+        milliseconds. */
+    public Object delay(long millis, Object value) throws RMIException;
+
+    /** Throws <code>FileNotFoundException</code> with the given message. */
+    public void fail(String message)
+        throws RMIException, FileNotFoundException;
+
+    /** One-way call that sleeps for the given number of milliseconds, then
+        throws <code>FileNotFoundException</code> if <code>failure</code> is
+        not <code>null</code>. */
+    @OneWay
+    public void post(long millis, String failure)
+        throws RMIException, FileNotFoundException;
+}
@@ -0,0 +1,60 @@
+package rmi;
+
+import java.io.FileNotFoundException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Implementation of <code>EchoInterface</code> used by the RMI unit tests. */
+public class EchoServer implements EchoInterface
+{
+    /** Number of calls to <code>post</code> completed, normally or not. */
+    final AtomicInteger     posted = new AtomicInteger();
+
+    @Override
+    public Object echo(Object value) throws RMIException
+    {
+        return value;
+    }
+
+    @Override
+    public Object delay(long millis, Object value) throws RMIException
+    {
+        try
+        {
+            Thread.sleep(millis);
+        }
+        catch(InterruptedException e)
+        {
+            throw new RMIException("interrupted", e);
+        }
+
+        return value;
+    }
+
+    @Override
+    public void fail(String message)
+        throws RMIException, FileNotFoundException
+    {
+        throw new FileNotFoundException(message);
+    }
+
+    @Override
+    public void post(long millis, String failure)
+        throws RMIException, FileNotFoundException
+    {
+        try
+        {
+            Thread.sleep(millis);
+        }
+        catch(InterruptedException e)
+        {
+            throw new RMIException("interrupted", e);
+        }
+        finally
+        {
+            posted.incrementAndGet();
+        }
+
+        if(failure != null)
+            throw new FileNotFoundException(failure);
+    }
+}
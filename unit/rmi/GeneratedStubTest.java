@@ -0,0 +1,251 @@
+package rmi;
+
+import test.*;
+
+import java.io.*;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+/** Unit test for generated stubs and skeleton dispatchers.
+
+    <p>
+    A remote interface is compiled with <code>build.RemoteProcessor</code>. The
+    generated classes must carry the fingerprint the library computes for the
+    interface, and must then be used by <code>Stub.create</code> and by
+    <code>Skeleton</code>. Calls through the generated stub must return the
+    results and throw the exceptions of the server object, and the generated
+    stub must be equal to a dynamic proxy stub for the same skeleton, and
+    serializable.
+ */
+public class GeneratedStubTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice =
+        "checking generated stubs and dispatchers";
+
+    /** Source of the remote interface compiled by the test. */
+    private static final String SOURCE =
+        "package gen;\n" +
+        "public @rmi.RemoteInterface interface Counter {\n" +
+        "    long add(int delta, long[] values) throws rmi.RMIException;\n" +
+        "    String join(java.util.List<String> parts)\n" +
+        "        throws rmi.RMIException, java.io.FileNotFoundException;\n" +
+        "    void reset() throws rmi.RMIException, java.io.IOException;\n" +
+        "}\n";
+
+    /** Directory holding the source and classes of the interface. */
+    private Path                directory;
+    /** Loader of the interface and the generated classes. */
+    private URLClassLoader      loader;
+    /** Skeleton used in the test. */
+    private Skeleton<Object>    skeleton;
+
+    /** Compiles the interface with the annotation processor. */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        JavaCompiler            compiler = ToolProvider.getSystemJavaCompiler();
+        if(compiler == null)
+            throw new TestFailed("no Java compiler available");
+
+        try
+        {
+            directory = Files.createTempDirectory("generated");
+            Path                source = directory.resolve("Counter.java");
+            Files.write(source, SOURCE.getBytes(StandardCharsets.UTF_8));
+
+            JavaCompiler.CompilationTask    task =
+                compiler.getTask(null, null, null,
+                    Arrays.asList("-classpath",
+                                  System.getProperty("java.class.path"),
+                                  "-d", directory.toString(),
+                                  "-s", directory.toString()),
+                    null,
+                    compiler.getStandardFileManager(null, null, null)
+                        .getJavaFileObjects(source.toFile()));
+            task.setProcessors(List.of(new build.RemoteProcessor()));
+
+            if(!task.call())
+                throw new TestFailed("unable to compile remote interface");
+
+            loader = new URLClassLoader(
+                new java.net.URL[] {directory.toUri().toURL()},
+                getClass().getClassLoader());
+        }
+        catch(IOException e)
+        {
+            throw new TestFailed("unable to compile remote interface", e);
+        }
+    }
+
+    /** Performs the test. */
+    @Override
+    @SuppressWarnings("unchecked")
+    protected void perform() throws Throwable
+    {
+        Class<Object>           c =
+            (Class<Object>)loader.loadClass("gen.Counter");
+
+        for(String suffix : new String[] {"_Stub", "_Dispatcher"})
+        {
+            int                 fingerprint = loader.loadClass("gen.Counter" +
+                suffix).getField("FINGERPRINT").getInt(null);
+            if(fingerprint != MethodTable.of(c).fingerprint)
+                throw new TestFailed("fingerprint of " + suffix +
+                                     " class differs from method table");
+        }
+
+        skeleton = new Skeleton<Object>(c, server(c));
+        if(skeleton.generated == null)
+            throw new TestFailed("skeleton does not use generated dispatcher");
+        skeleton.start();
+
+        InetSocketAddress       address =
+            new InetSocketAddress(skeleton.address.getHostName(),
+                                  skeleton.address.getPort());
+        Object                  stub = Stub.create(c, address);
+        if(!(stub instanceof GeneratedStub))
+            throw new TestFailed("stub is not an instance of generated class");
+
+        checkCalls(c, stub);
+
+        // Generated stubs and dynamic proxy stubs are interchangeable.
+        Object                  proxy =
+            Proxy.newProxyInstance(loader, new Class[] {c},
+                                   new DynamicProxyHandler<Object>(c, address));
+        if(!stub.equals(proxy) || !proxy.equals(stub) ||
+           stub.hashCode() != proxy.hashCode())
+        {
+            throw new TestFailed("generated stub not equal to proxy stub");
+        }
+
+        Object                  copy = serializeAndRead(stub);
+        if(!(copy instanceof GeneratedStub) || !copy.equals(stub))
+            throw new TestFailed("stub not preserved by serialization");
+        checkCalls(c, copy);
+
+        if(!(Stub.withTimeout(stub, 1, java.util.concurrent.TimeUnit.SECONDS)
+                instanceof GeneratedStub))
+        {
+            throw new TestFailed("stub with timeout is not generated");
+        }
+    }
+
+    /** Makes calls through a stub and checks their outcomes. */
+    private void checkCalls(Class<?> c, Object stub) throws Throwable
+    {
+        Method                  add =
+            c.getMethod("add", int.class, long[].class);
+        Method                  join = c.getMethod("join", List.class);
+        Method                  reset = c.getMethod("reset");
+
+        if(!Long.valueOf(7).equals(add.invoke(stub, 1, new long[] {2, 4})))
+            throw new TestFailed("incorrect result of primitive call");
+
+        if(!"a/b".equals(join.invoke(stub, List.of("a", "b"))))
+            throw new TestFailed("incorrect result of object call");
+
+        try
+        {
+            reset.invoke(stub);
+            throw new TestFailed("exception of void method not thrown");
+        }
+        catch(InvocationTargetException e)
+        {
+            if(!(e.getCause() instanceof IOException) ||
+               !"reset".equals(e.getCause().getMessage()))
+            {
+                throw new TestFailed("incorrect exception thrown by stub",
+                                     e.getCause());
+            }
+        }
+    }
+
+    /** Creates a server object implementing the interface. */
+    @SuppressWarnings("unchecked")
+    private Object server(Class<?> c)
+    {
+        InvocationHandler       handler = (proxy, method, args) ->
+        {
+            switch(method.getName())
+            {
+            case "add":
+                long            sum = (Integer)args[0];
+                for(long value : (long[])args[1])
+                    sum += value;
+                return sum;
+            case "join":
+                return String.join("/", (List<String>)args[0]);
+            case "reset":
+                throw new IOException("reset");
+            default:
+                return method.invoke(this, args);
+            }
+        };
+
+        return Proxy.newProxyInstance(loader, new Class[] {c}, handler);
+    }
+
+    /** Serializes an object and reads it back, resolving classes with the
+        loader of the interface. */
+    private Object serializeAndRead(Object object) throws Exception
+    {
+        ByteArrayOutputStream   bytes = new ByteArrayOutputStream();
+        try(ObjectOutputStream out = new ObjectOutputStream(bytes))
+        {
+            out.writeObject(object);
+        }
+
+        try(ObjectInputStream in =
+                new ObjectInputStream(
+                    new ByteArrayInputStream(bytes.toByteArray()))
+            {
+                @Override
+                protected Class<?> resolveClass(ObjectStreamClass type)
+                    throws IOException, ClassNotFoundException
+                {
+                    return Class.forName(type.getName(), false, loader);
+                }
+            })
+        {
+            return in.readObject();
+        }
+    }
+
+    /** Stops the skeleton and deletes the compiled interface. */
+    @Override
+    protected void clean()
+    {
+        if(skeleton != null)
+            skeleton.stop();
+
+        try
+        {
+            if(loader != null)
+                loader.close();
+
+            if(directory != null)
+            {
+                try(Stream<Path> files = Files.walk(directory))
+                {
+                    files.sorted(Comparator.reverseOrder())
+                         .forEach(file -> file.toFile().delete());
+                }
+            }
+        }
+        catch(IOException e) { }
+    }
+}
@@ -0,0 +1,116 @@
+package rmi;
+
+import test.*;
+
+import java.io.FileNotFoundException;
+import java.net.InetSocketAddress;
+
+import common.Path;
+
+/** Unit test for in-process calls.
+
+    <p>
+    When the pool enables in-process calls, a stub whose skeleton runs in the
+    same Java virtual machine must reach it without opening a connection. With
+    the copy policy <code>COPY</code>, mutable arguments must reach the server
+    as copies, while strings and classes annotated <code>Immutable</code> are
+    passed by reference; values that cannot be serialized must be refused. With
+    the policy <code>REFERENCE</code>, every value must be passed by reference.
+    Exceptions must propagate to the caller, and once the skeleton stops,
+    calls must fail as network calls do.
+ */
+public class InProcessTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking in-process calls";
+
+    /** Skeleton used in the test. */
+    private Skeleton<EchoInterface> skeleton;
+
+    /** Enables in-process calls on the default pool. */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        ConnectionPool.getDefault().clear();
+        ConnectionPool.getDefault().setInProcessCalls(true);
+    }
+
+    /** Performs the test. */
+    @Override
+    protected void perform() throws Throwable
+    {
+        skeleton = new Skeleton<EchoInterface>(EchoInterface.class,
+                                               new EchoServer());
+        skeleton.start();
+
+        InetSocketAddress           address =
+            new InetSocketAddress("127.0.0.1", skeleton.address.getPort());
+        EchoInterface               stub =
+            Stub.create(EchoInterface.class, address);
+
+        int[]                       array = new int[] {1, 2, 3};
+        Object                      echoed = stub.echo(array);
+        if(echoed == array || !(echoed instanceof int[]) ||
+           ((int[])echoed)[2] != 3)
+        {
+            throw new TestFailed("mutable argument not copied");
+        }
+
+        Path                        path = new Path("/directory/file");
+        if(stub.echo(path) != path)
+            throw new TestFailed("immutable path copied");
+        String                      string = new String("value");
+        if(stub.echo(string) != string)
+            throw new TestFailed("string copied");
+
+        try
+        {
+            stub.echo(new Object());
+            throw new TestFailed("unserializable argument not refused");
+        }
+        catch(RMIException e) { }
+
+        try
+        {
+            stub.fail("missing");
+            throw new TestFailed("exception not propagated");
+        }
+        catch(FileNotFoundException e)
+        {
+            if(!"missing".equals(e.getMessage()))
+                throw new TestFailed("incorrect exception propagated", e);
+        }
+
+        ConnectionPool.getDefault().setCopyPolicy(CopyPolicy.REFERENCE);
+        if(stub.echo(array) != array)
+            throw new TestFailed("argument copied by reference policy");
+        Object                      object = new Object();
+        if(stub.echo(object) != object)
+            throw new TestFailed("argument copied by reference policy");
+
+        if(ConnectionPool.getDefault().openConnections(address) != 0)
+            throw new TestFailed("in-process call opened a connection");
+        if(skeleton.metrics.getCalls() != 6)
+            throw new TestFailed("in-process calls not recorded by skeleton");
+
+        skeleton.stop();
+        try
+        {
+            stub.echo(array);
+            throw new TestFailed("call succeeded after skeleton stopped");
+        }
+        catch(RMIException e) { }
+    }
+
+    /** Stops the skeleton and restores the default pool. */
+    @Override
+    protected void clean()
+    {
+        if(skeleton != null)
+            skeleton.stop();
+
+        ConnectionPool.getDefault().setInProcessCalls(false);
+        ConnectionPool.getDefault().setCopyPolicy(CopyPolicy.COPY);
+        ConnectionPool.getDefault().clear();
+    }
+}
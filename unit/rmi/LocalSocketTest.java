@@ -0,0 +1,120 @@
+package rmi;
+
+import test.*;
+
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/** Unit test for Unix domain socket connections.
+
+    <p>
+    A skeleton configured with a local socket must create its socket file, and
+    stubs for a loopback address must connect through it, unless their pool
+    disables local sockets. The socket file must be removed when the skeleton
+    stops. A socket file on which no skeleton listens must not prevent stubs
+    from connecting over TCP.
+ */
+public class LocalSocketTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice =
+        "checking Unix domain socket connections";
+
+    /** Directory holding the socket files. */
+    private TemporaryDirectory  directory;
+    /** Socket directory property before the test, restored after it. */
+    private String              previous;
+    /** Skeleton used in the test. */
+    private Skeleton<EchoInterface> skeleton;
+
+    /** Directs socket files to a temporary directory. */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        try
+        {
+            directory = new TemporaryDirectory();
+        }
+        catch(Exception e)
+        {
+            throw new TestFailed("unable to create socket directory", e);
+        }
+
+        previous = System.getProperty(LocalSockets.DIRECTORY_PROPERTY);
+        System.setProperty(LocalSockets.DIRECTORY_PROPERTY,
+                           directory.root().getPath());
+        ConnectionPool.getDefault().clear();
+    }
+
+    /** Performs the test. */
+    @Override
+    protected void perform() throws Throwable
+    {
+        skeleton = new Skeleton<EchoInterface>(EchoInterface.class,
+            new EchoServer(), null, new SkeletonConfig().setLocalSocket(true));
+        skeleton.start();
+
+        int                         port = skeleton.address.getPort();
+        Path                        socket = LocalSockets.path(port);
+        if(!Files.exists(socket))
+            throw new TestFailed("socket file not created");
+
+        InetSocketAddress           address =
+            new InetSocketAddress("127.0.0.1", port);
+        EchoInterface               stub =
+            Stub.create(EchoInterface.class, address);
+
+        if(!"value".equals(stub.echo("value")))
+            throw new TestFailed("call through local socket failed");
+        if(!ConnectionPool.getDefault().acquire(address).local)
+            throw new TestFailed("local skeleton not reached by local socket");
+
+        // A pool with local sockets disabled connects over TCP.
+        ConnectionPool              pool = new ConnectionPool();
+        pool.setLocalSockets(false);
+        Connection                  tcp = Connection.open(pool, address, 1000);
+        try
+        {
+            if(tcp.local)
+                throw new TestFailed("local socket used although disabled");
+        }
+        finally
+        {
+            tcp.close();
+        }
+
+        skeleton.stop();
+        ConnectionPool.getDefault().clear();
+        if(Files.exists(socket))
+            throw new TestFailed("socket file not removed on stop");
+
+        // A socket file nobody listens on is passed over for TCP.
+        skeleton = new Skeleton<EchoInterface>(EchoInterface.class,
+            new EchoServer(), new InetSocketAddress(port));
+        skeleton.start();
+        Files.createFile(socket);
+
+        if(!"value".equals(stub.echo("value")))
+            throw new TestFailed("call with stale socket file failed");
+        if(ConnectionPool.getDefault().acquire(address).local)
+            throw new TestFailed("stale socket file used");
+    }
+
+    /** Stops the skeleton and restores the socket directory. */
+    @Override
+    protected void clean()
+    {
+        if(skeleton != null)
+            skeleton.stop();
+        ConnectionPool.getDefault().clear();
+
+        if(previous == null)
+            System.clearProperty(LocalSockets.DIRECTORY_PROPERTY);
+        else
+            System.setProperty(LocalSockets.DIRECTORY_PROPERTY, previous);
+
+        if(directory != null)
+            directory.remove();
+    }
+}
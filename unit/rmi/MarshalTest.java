@@ -0,0 +1,213 @@
+package rmi;
+
+import test.*;
+
+import common.Path;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/** Unit test for the encoding of call and reply bodies.
+
+    <p>
+    Values of every type with a compact encoding, values that fall back to
+    Java serialization, and values sent as bulk regions are encoded in calls
+    and results with each protocol version. The frames are written and read
+    back both as streams and as buffers, and must decode to equal values. The
+    compact encoding of a call must be smaller than the serialized one.
+    Finally, stub calls are made to check that connections negotiate the
+    latest version and carry bulk regions.
+ */
+public class MarshalTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice =
+        "checking call and reply body encoding";
+
+    /** Values encoded in the test. */
+    private static final Object[]   values =
+        {null, true, false, 0, -1, Integer.MIN_VALUE, Integer.MAX_VALUE, 0L,
+         Long.MIN_VALUE, Long.MAX_VALUE, 1L << 40, "", "text \u00e9\u4e2d",
+         new byte[0], new byte[] {1, 2, 3}, new String[0],
+         new String[] {"a", null, "c"}, new Path("/"),
+         new Path("/directory/file"), 3.5, 'c',
+         new FileNotFoundException("missing"), pattern(WireCodec.BULK_THRESHOLD),
+         pattern(100000)};
+
+    /** Performs the test. */
+    @Override
+    protected void perform() throws Throwable
+    {
+        for(int version = Marshal.SERIALIZED; version <= Marshal.VERSION;
+            ++version)
+        {
+            for(boolean stream : new boolean[] {true, false})
+            {
+                for(Object value : values)
+                {
+                    Frame   reply = Marshal.reply(version, Frame.RETURN, 5,
+                                                  value);
+                    Object  decoded =
+                        Marshal.decode(version, transmit(reply, stream));
+
+                    if(!same(value, decoded))
+                    {
+                        throw new TestFailed("value " + value + " not " +
+                                             "decoded correctly with " +
+                                             "version " + version);
+                    }
+                }
+
+                Marshal.Call    call =
+                    Marshal.decodeCall(version, transmit(
+                        Marshal.call(version, 17, 300, values), stream));
+
+                if(call.fingerprint != 17 || call.methodId != 300)
+                    throw new TestFailed("call header not decoded correctly");
+
+                for(int index = 0; index < values.length; ++index)
+                {
+                    if(!same(values[index], call.args[index]))
+                    {
+                        throw new TestFailed("call argument not decoded " +
+                                             "correctly");
+                    }
+                }
+
+                if(Marshal.decodeCall(version, transmit(
+                        Marshal.call(version, 1, 0, null), stream))
+                        .args.length != 0)
+                {
+                    throw new TestFailed("call without arguments not " +
+                                         "decoded correctly");
+                }
+            }
+        }
+
+        // Large arrays are moved out of the body only from the bulk version.
+        byte[]      block = pattern(100000);
+        if(Marshal.reply(Marshal.BULK, Frame.RETURN, 1, block)
+                .regions.length != 1 ||
+           Marshal.reply(Marshal.COMPACT, Frame.RETURN, 1, block)
+                .regions.length != 0)
+        {
+            throw new TestFailed("bulk regions not used as expected");
+        }
+
+        ByteBuffer  buffer = ByteBuffer.wrap(block, 10, 20);
+        Object      decoded = Marshal.decode(Marshal.BULK, transmit(
+            Marshal.reply(Marshal.BULK, Frame.RETURN, 1, buffer), true));
+        if(!buffer.equals(decoded))
+            throw new TestFailed("byte buffer not decoded correctly");
+
+        Object[]    args = {new Path("/directory/file"), 4096L, 512};
+        int         compact =
+            Marshal.call(Marshal.COMPACT, 1, 0, args).body.length;
+        int         serialized =
+            Marshal.call(Marshal.SERIALIZED, 1, 0, args).body.length;
+
+        if(compact >= serialized)
+            throw new TestFailed("compact encoding is not smaller");
+
+        if(Marshal.negotiate(1) != Marshal.SERIALIZED ||
+           Marshal.negotiate(255) != Marshal.VERSION)
+        {
+            throw new TestFailed("incorrect protocol version negotiated");
+        }
+
+        // Make a call over a real connection, which must use the compact
+        // encoding.
+        Skeleton<EchoInterface>     skeleton =
+            new Skeleton<EchoInterface>(EchoInterface.class, new EchoServer());
+        skeleton.start();
+
+        try
+        {
+            EchoInterface   stub = Stub.create(EchoInterface.class, skeleton);
+            Path            path = new Path("/a/b");
+
+            if(!path.equals(stub.echo(path)))
+                throw new TestFailed("incorrect result from echo");
+
+            if(!Arrays.equals(block, (byte[])stub.echo(block)))
+                throw new TestFailed("incorrect bulk result from echo");
+
+            Connection      connection =
+                ConnectionPool.getDefault().acquire(
+                    new InetSocketAddress(skeleton.address.getHostName(),
+                                          skeleton.address.getPort()));
+            if(connection.version != Marshal.VERSION)
+                throw new TestFailed("connection did not negotiate version");
+        }
+        finally
+        {
+            skeleton.stop();
+        }
+    }
+
+    /** Sends a frame through a stream or a buffer and returns the frame
+        received.
+
+        @param stream <code>true</code> to use the stream encoding of the
+                      blocking transport, <code>false</code> for the buffers
+                      of the selector transport.
+     */
+    private static Frame transmit(Frame frame, boolean stream)
+        throws IOException
+    {
+        if(stream)
+        {
+            ByteArrayOutputStream   bytes = new ByteArrayOutputStream();
+            DataOutputStream        out = new DataOutputStream(bytes);
+            frame.write(out);
+            out.flush();
+
+            return Frame.read(new DataInputStream(
+                new ByteArrayInputStream(bytes.toByteArray())));
+        }
+
+        ByteBuffer[]    buffers = frame.encode();
+        int             length = 0;
+        for(ByteBuffer buffer : buffers)
+            length += buffer.remaining();
+
+        ByteBuffer      received = ByteBuffer.allocate(length);
+        for(ByteBuffer buffer : buffers)
+            received.put(buffer);
+        received.flip();
+
+        return Frame.parse(received);
+    }
+
+    /** Returns an array of the given length filled with a pattern. */
+    private static byte[] pattern(int length)
+    {
+        byte[]  bytes = new byte[length];
+        for(int index = 0; index < length; ++index)
+            bytes[index] = (byte)(index * 31);
+
+        return bytes;
+    }
+
+    /** Compares an encoded value to the decoded value. Arrays are compared
+        by content, and exceptions by class and message. */
+    private static boolean same(Object expected, Object actual)
+    {
+        if(expected instanceof byte[] && actual instanceof byte[])
+            return Arrays.equals((byte[])expected, (byte[])actual);
+
+        if(expected instanceof Object[] && actual instanceof Object[])
+            return Arrays.equals((Object[])expected, (Object[])actual);
+
+        if(expected instanceof Throwable && actual != null)
+        {
+            return expected.getClass() == actual.getClass() &&
+                ((Throwable)expected).getMessage().equals(
+                    ((Throwable)actual).getMessage());
+        }
+
+        return expected == null ? actual == null : expected.equals(actual);
+    }
+}
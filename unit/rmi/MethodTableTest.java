@@ -0,0 +1,109 @@
+package rmi;
+
+import test.*;
+
+/** Unit test for method ids and handle based dispatch.
+
+    <p>
+    Checks that methods of a remote interface are numbered in signature order,
+    that calls are executed by id, including calls with primitive arguments and
+    to <code>void</code> methods, and that a call whose interface fingerprint
+    does not match the skeleton's is refused.
+ */
+public class MethodTableTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice =
+        "checking remote method ids and dispatch";
+
+    /** Performs the test. */
+    @Override
+    protected void perform() throws Throwable
+    {
+        MethodTable     table = MethodTable.of(EchoInterface.class);
+
+        if(table.size() != 4)
+            throw new TestFailed("unexpected number of methods in table");
+
+        String[]        expected = {"delay", "echo", "fail", "post"};
+        for(int id = 0; id < expected.length; ++id)
+        {
+            if(!table.method(id).getName().equals(expected[id]))
+                throw new TestFailed("methods not numbered in signature order");
+
+            if(table.idOf(table.method(id)) != id)
+                throw new TestFailed("method id lookup inconsistent");
+
+            if(table.isOneWay(id) != expected[id].equals("post"))
+                throw new TestFailed("one-way methods not identified");
+        }
+
+        if(table.idOf(Object.class.getMethod("toString")) != -1)
+            throw new TestFailed("method of Object given a remote id");
+
+        if(MethodTable.of(EchoInterface.class) != table)
+            throw new TestFailed("method table not shared");
+
+        Skeleton<EchoInterface>     skeleton =
+            new Skeleton<EchoInterface>(EchoInterface.class, new EchoServer());
+        Dispatcher<EchoInterface>   dispatcher =
+            new Dispatcher<EchoInterface>(skeleton);
+
+        try
+        {
+            int     echo = table.idOf(EchoInterface.class.getMethod(
+                                        "echo", Object.class));
+            int     delay = table.idOf(EchoInterface.class.getMethod(
+                                        "delay", long.class, Object.class));
+            int     fail = table.idOf(EchoInterface.class.getMethod(
+                                        "fail", String.class));
+
+            if(!"value".equals(result(dispatcher, table.fingerprint, echo,
+                                      new Object[] {"value"}, Frame.RETURN)))
+                throw new TestFailed("incorrect result from echo");
+
+            if(!"later".equals(result(dispatcher, table.fingerprint, delay,
+                                      new Object[] {1L, "later"},
+                                      Frame.RETURN)))
+                throw new TestFailed("incorrect result from delay");
+
+            if(!(result(dispatcher, table.fingerprint, fail,
+                        new Object[] {"missing"}, Frame.THROW)
+                    instanceof java.io.FileNotFoundException))
+                throw new TestFailed("exception from void method not returned");
+
+            if(!(result(dispatcher, table.fingerprint + 1, echo,
+                        new Object[] {"value"}, Frame.THROW)
+                    instanceof RMIException))
+            {
+                throw new TestFailed("call with mismatched fingerprint " +
+                                     "executed");
+            }
+
+            if(!(result(dispatcher, table.fingerprint, table.size(),
+                        new Object[0], Frame.THROW) instanceof RMIException))
+                throw new TestFailed("call with unknown method id executed");
+        }
+        finally
+        {
+            dispatcher.shutdown();
+        }
+    }
+
+    /** Dispatches a call and returns the decoded reply body.
+
+        @param type Expected type of the reply frame.
+     */
+    private Object result(Dispatcher<EchoInterface> dispatcher,
+                          int fingerprint, int id, Object[] args, byte type)
+        throws Throwable
+    {
+        Frame   call = Marshal.call(Marshal.VERSION, fingerprint, id, args);
+        Frame   reply = dispatcher.dispatch(call, Marshal.VERSION);
+
+        if(reply.type != type)
+            throw new TestFailed("unexpected reply frame type " + reply.type);
+
+        return Marshal.decode(Marshal.VERSION, reply);
+    }
+}
@@ -0,0 +1,115 @@
+package rmi;
+
+import test.*;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicReference;
+
+/** Unit test for the multiplexed connection protocol.
+
+    <p>
+    With the pool limited to one connection per skeleton, a slow call is
+    started and a fast call is then made on the same connection. The fast call
+    must complete while the slow call is still in flight, and many concurrent
+    calls from different threads must all receive their own results.
+ */
+public class MultiplexTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice =
+        "checking concurrent calls on a multiplexed connection";
+
+    /** Skeleton used in the test. */
+    private Skeleton<EchoInterface> skeleton;
+    /** Connection limit in effect before the test. */
+    private int                     saved_limit;
+
+    /** Starts the skeleton and limits the pool to one connection per
+        skeleton. */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        saved_limit = ConnectionPool.getDefault().getMaxConnectionsPerEndpoint();
+        ConnectionPool.getDefault().setMaxConnectionsPerEndpoint(1);
+
+        skeleton = new Skeleton<EchoInterface>(EchoInterface.class,
+                                               new EchoServer());
+        try
+        {
+            skeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+    }
+
+    /** Performs the test. */
+    @Override
+    protected void perform() throws Throwable
+    {
+        final EchoInterface stub = Stub.create(EchoInterface.class, skeleton);
+        InetSocketAddress   address =
+            new InetSocketAddress(skeleton.address.getHostName(),
+                                  skeleton.address.getPort());
+
+        // Start a slow call, then check that a fast call overtakes it.
+        final AtomicReference<Object>   slow_result = new AtomicReference<>();
+        Thread                          slow = new Thread(() -> {
+            try
+            {
+                slow_result.set(stub.delay(1000, "slow"));
+            }
+            catch(Throwable t)
+            {
+                failure(new TestFailed("slow call failed", t));
+            }
+        });
+        slow.start();
+        Thread.sleep(100);
+
+        if(!"fast".equals(stub.echo("fast")))
+            throw new TestFailed("incorrect result for fast call");
+        if(slow_result.get() != null)
+            throw new TestFailed("fast call did not overtake slow call");
+
+        // Issue many concurrent calls, each expecting its own result.
+        Thread[]    threads = new Thread[32];
+        for(int index = 0; index < threads.length; ++index)
+        {
+            final int   value = index;
+            threads[index] = new Thread(() -> {
+                try
+                {
+                    if(!Integer.valueOf(value).equals(stub.delay(50, value)))
+                        failure(new TestFailed("reply delivered to wrong " +
+                                               "caller"));
+                }
+                catch(Throwable t)
+                {
+                    failure(new TestFailed("concurrent call failed", t));
+                }
+            });
+            threads[index].start();
+        }
+
+        for(Thread thread : threads)
+            thread.join();
+        slow.join();
+
+        if(!"slow".equals(slow_result.get()))
+            throw new TestFailed("incorrect result for slow call");
+
+        if(ConnectionPool.getDefault().openConnections(address) != 1)
+            throw new TestFailed("calls were not multiplexed on one " +
+                                 "connection");
+    }
+
+    /** Stops the skeleton and restores the connection limit. */
+    @Override
+    protected void clean()
+    {
+        skeleton.stop();
+        ConnectionPool.getDefault().setMaxConnectionsPerEndpoint(saved_limit);
+    }
+}
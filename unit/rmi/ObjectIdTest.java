@@ -0,0 +1,141 @@
+package rmi;
+
+import test.*;
+
+import java.net.InetSocketAddress;
+
+/** Unit test for remote objects exported on the endpoint of another skeleton.
+
+    <p>
+    An object exported on a host skeleton must be reached on the host's port,
+    through stubs that differ from the host's stubs, while the host's own
+    object remains reachable. Calls addressed to an object ID that is not
+    exported must fail. An exported skeleton must be stopped and restarted
+    without affecting the host, must not start while the host is stopped,
+    and must be stopped when the host stops.
+ */
+public class ObjectIdTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking objects sharing an endpoint";
+
+    /** Host skeleton used in the test. */
+    private Skeleton<EchoInterface> host;
+    /** Skeleton exported on the host's endpoint. */
+    private ExportedSkeleton        exported;
+
+    /** Performs the test. */
+    @Override
+    protected void perform() throws Throwable
+    {
+        host = new Skeleton<EchoInterface>(EchoInterface.class,
+                                           new EchoServer());
+        host.start();
+
+        exported = new ExportedSkeleton(host);
+        exported.start();
+        if(exported.address.getPort() != host.address.getPort())
+            throw new TestFailed("exported object not on the host's port");
+
+        InetSocketAddress           address =
+            new InetSocketAddress("127.0.0.1", host.address.getPort());
+        EchoInterface               hostStub =
+            Stub.create(EchoInterface.class, address);
+        EchoInterface               exportedStub =
+            Stub.create(EchoInterface.class, exported, "127.0.0.1");
+
+        if(!"value".equals(hostStub.echo("value")))
+            throw new TestFailed("host object not reached");
+        if(!"exported value".equals(exportedStub.echo("value")))
+            throw new TestFailed("exported object not reached");
+        if(hostStub.equals(exportedStub))
+            throw new TestFailed("stubs for different objects are equal");
+
+        checkUnknownObject(address);
+
+        exported.stop();
+        if(!exported.stopped)
+            throw new TestFailed("stopped not called on exported skeleton");
+        try
+        {
+            exportedStub.echo("value");
+            throw new TestFailed("call to stopped object succeeded");
+        }
+        catch(RMIException e) { }
+        if(!"value".equals(hostStub.echo("value")))
+            throw new TestFailed("host object not reached after exported " +
+                                 "skeleton stopped");
+
+        exported.stopped = false;
+        exported.start();
+        if(!"exported value".equals(exportedStub.echo("value")))
+            throw new TestFailed("restarted object not reached");
+
+        host.stop();
+        if(!exported.stopped)
+            throw new TestFailed("exported skeleton not stopped with host");
+        try
+        {
+            exported.start();
+            throw new TestFailed("exported skeleton started while host " +
+                                 "is stopped");
+        }
+        catch(RMIException e) { }
+    }
+
+    /** Checks that a call to an object ID that is not exported fails. */
+    private void checkUnknownObject(InetSocketAddress address)
+        throws Throwable
+    {
+        DynamicProxyHandler<EchoInterface>  handler =
+            new DynamicProxyHandler<EchoInterface>(EchoInterface.class,
+                                                   address, 1000);
+        int                         echo = MethodTable.of(EchoInterface.class)
+            .idOf(EchoInterface.class.getMethod("echo", Object.class));
+
+        try
+        {
+            handler.invoke(echo, new Object[] {"value"});
+            throw new TestFailed("call to unknown object succeeded");
+        }
+        catch(RMIException e) { }
+    }
+
+    /** Stops the skeletons. */
+    @Override
+    protected void clean()
+    {
+        if(exported != null)
+            exported.stop();
+        if(host != null)
+            host.stop();
+
+        ConnectionPool.getDefault().clear();
+    }
+
+    /** Skeleton for an echo server that prefixes its results, recording
+        whether it has stopped. */
+    private static class ExportedSkeleton extends Skeleton<EchoInterface>
+    {
+        /** Set when the skeleton stops. */
+        volatile boolean            stopped = false;
+
+        ExportedSkeleton(Skeleton<?> host)
+        {
+            super(host, EchoInterface.class, new EchoServer()
+            {
+                @Override
+                public Object echo(Object value)
+                {
+                    return "exported " + value;
+                }
+            });
+        }
+
+        @Override
+        protected void stopped(Throwable cause)
+        {
+            stopped = true;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package rmi;
+
+import test.*;
+
+import java.io.FileNotFoundException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/** Unit test for one-way calls.
+
+    <p>
+    A slow one-way call must return before the remote method completes, and the
+    method must still be executed. A one-way call that throws must be reported
+    both to the skeleton's <code>service_error</code> method and to the error
+    listener of the connection pool. One-way methods that do not return
+    <code>void</code> must be refused.
+ */
+public class OneWayTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice =
+        "checking one-way calls";
+
+    /** Duration of the slow call, in milliseconds. */
+    private static final long   DELAY = 500;
+
+    /** Server object used in the test. */
+    private final EchoServer    server = new EchoServer();
+    /** Completed with the exception reported to the skeleton. */
+    private final CompletableFuture<RMIException>   serviceError =
+        new CompletableFuture<>();
+    /** Completed with the exception reported to the pool listener. */
+    private final CompletableFuture<Throwable>      listenerError =
+        new CompletableFuture<>();
+
+    /** Skeleton used in the test. */
+    private Skeleton<EchoInterface> skeleton;
+
+    /** Interface with a one-way method that returns a value. */
+    private interface BadOneWay
+    {
+        @OneWay
+        public int count() throws RMIException;
+    }
+
+    /** Starts the skeleton and sets the pool listener. */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        skeleton = new Skeleton<EchoInterface>(EchoInterface.class, server)
+        {
+            @Override
+            protected void service_error(RMIException exception)
+            {
+                serviceError.complete(exception);
+            }
+        };
+
+        try
+        {
+            skeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+
+        ConnectionPool.getDefault().setOneWayErrorListener(
+            (address, cause) -> listenerError.complete(cause));
+    }
+
+    /** Performs the test. */
+    @Override
+    protected void perform() throws Throwable
+    {
+        EchoInterface               stub =
+            Stub.create(EchoInterface.class, skeleton);
+
+        // The call returns without waiting for the method.
+        long                        start = System.currentTimeMillis();
+        stub.post(DELAY, null);
+        if(System.currentTimeMillis() - start >= DELAY)
+            throw new TestFailed("one-way call waited for the method");
+
+        long                        deadline =
+            System.currentTimeMillis() + 10 * DELAY;
+        while(server.posted.get() == 0)
+        {
+            if(System.currentTimeMillis() > deadline)
+                throw new TestFailed("one-way call not executed");
+            Thread.sleep(10);
+        }
+
+        // Failures are reported on both sides.
+        stub.post(0, "missing");
+
+        Throwable                   cause;
+        RMIException                reported;
+        try
+        {
+            cause = listenerError.get(10, TimeUnit.SECONDS);
+            reported = serviceError.get(10, TimeUnit.SECONDS);
+        }
+        catch(TimeoutException e)
+        {
+            throw new TestFailed("one-way call failure not reported");
+        }
+
+        if(!(cause instanceof FileNotFoundException))
+            throw new TestFailed("incorrect exception passed to listener",
+                                 cause);
+        if(!(reported.getCause() instanceof FileNotFoundException))
+            throw new TestFailed("incorrect exception passed to skeleton",
+                                 reported);
+
+        // One-way methods must return void.
+        try
+        {
+            Stub.create(BadOneWay.class, skeleton.address);
+            throw new TestFailed("one-way method returning a value accepted");
+        }
+        catch(Error e) { }
+    }
+
+    /** Stops the skeleton and removes the pool listener. */
+    @Override
+    protected void clean()
+    {
+        ConnectionPool.getDefault().setOneWayErrorListener(null);
+        skeleton.stop();
+    }
+}
@@ -0,0 +1,184 @@
+package rmi;
+
+import test.*;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/** Unit test for priority classes of calls.
+
+    <p>
+    The skeleton has a single worker thread, held by a call while calls of
+    the <code>BULK</code> and then of the <code>CONTROL</code> class are
+    queued. Once the worker is released, a control call must run first,
+    although it was queued last, and with a control weight of two bulk calls
+    must still run in between control calls rather than after all of them.
+ */
+public class PriorityTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking call priority classes";
+
+    /** Number of calls of each class queued. */
+    private static final int    CALLS = 3;
+
+    /** Skeleton used in the test. */
+    private Skeleton<PriorityInterface> skeleton;
+    /** Server used in the test. */
+    private final PriorityServer        server = new PriorityServer();
+
+    /** Performs the test. */
+    @Override
+    protected void perform() throws Throwable
+    {
+        skeleton = new Skeleton<PriorityInterface>(
+            PriorityInterface.class, server, null,
+            new SkeletonConfig()
+                .setMaxWorkerThreads(1)
+                .setPriorityWeight(CallPriority.CONTROL, 2));
+        skeleton.start();
+
+        PriorityInterface           stub = Stub.create(
+            PriorityInterface.class,
+            new InetSocketAddress("127.0.0.1", skeleton.address.getPort()));
+
+        List<Thread>                callers = new ArrayList<Thread>();
+        callers.add(call(() -> stub.hold()));
+        if(!server.holding.await(10, TimeUnit.SECONDS))
+            throw new TestFailed("worker thread not held");
+
+        for(int index = 0; index < CALLS; ++index)
+        {
+            final int               bulk = index;
+            callers.add(call(() -> stub.bulk(bulk)));
+        }
+        awaitQueued(CallPriority.BULK, CALLS);
+
+        for(int index = 0; index < CALLS; ++index)
+        {
+            final int               control = index;
+            callers.add(call(() -> stub.control(control)));
+        }
+        awaitQueued(CallPriority.CONTROL, CALLS);
+
+        server.release.countDown();
+        for(Thread caller : callers)
+            caller.join(10000);
+
+        List<String>                order = server.order;
+        if(order.size() != 2 * CALLS)
+            throw new TestFailed("calls not all executed: " + order);
+        if(!order.get(0).startsWith("control"))
+            throw new TestFailed("control call not executed first: " + order);
+        if(!order.subList(0, 3).toString().contains("bulk"))
+        {
+            throw new TestFailed("bulk calls starved by control calls: " +
+                                 order);
+        }
+    }
+
+    /** Waits for the given number of calls of a class to be queued. */
+    private void awaitQueued(CallPriority priority, int count)
+        throws Throwable
+    {
+        long                        deadline = System.currentTimeMillis() +
+                                               10000;
+
+        while(skeleton.queuedCalls(priority) != count)
+        {
+            if(System.currentTimeMillis() > deadline)
+                throw new TestFailed(priority + " calls not queued");
+            Thread.sleep(10);
+        }
+    }
+
+    /** Makes a call on a new thread. */
+    private Thread call(RemoteCall call)
+    {
+        Thread                      thread = new Thread(() ->
+        {
+            try
+            {
+                call.run();
+            }
+            catch(Throwable t) { }
+        });
+        thread.start();
+        return thread;
+    }
+
+    /** Releases the worker and stops the skeleton. */
+    @Override
+    protected void clean()
+    {
+        server.release.countDown();
+
+        if(skeleton != null)
+            skeleton.stop();
+
+        ConnectionPool.getDefault().clear();
+    }
+
+    /** Remote call made by a caller thread. */
+    private interface RemoteCall
+    {
+        void run() throws Throwable;
+    }
+
+    /** Remote interface with methods of several priority classes. */
+    public interface PriorityInterface
+    {
+        /** Holds the calling worker thread until the test releases it. */
+        public void hold() throws RMIException;
+
+        /** Records a call of the <code>BULK</code> class. */
+        @Priority(CallPriority.BULK)
+        public void bulk(int index) throws RMIException;
+
+        /** Records a call of the <code>CONTROL</code> class. */
+        @Priority(CallPriority.CONTROL)
+        public void control(int index) throws RMIException;
+    }
+
+    /** Server recording the order in which calls are executed. */
+    private static class PriorityServer implements PriorityInterface
+    {
+        /** Counted down when the worker thread is held. */
+        final CountDownLatch        holding = new CountDownLatch(1);
+        /** Counted down to release the worker thread. */
+        final CountDownLatch        release = new CountDownLatch(1);
+        /** Calls executed, in order. */
+        final List<String>          order =
+            Collections.synchronizedList(new ArrayList<String>());
+
+        @Override
+        public void hold() throws RMIException
+        {
+            holding.countDown();
+            try
+            {
+                release.await();
+            }
+            catch(InterruptedException e)
+            {
+                throw new RMIException("interrupted", e);
+            }
+        }
+
+        @Override
+        public void bulk(int index)
+        {
+            order.add("bulk " + index);
+        }
+
+        @Override
+        public void control(int index)
+        {
+            order.add("control " + index);
+        }
+    }
+}
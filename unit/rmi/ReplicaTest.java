@@ -0,0 +1,188 @@
+package rmi;
+
+import test.*;
+
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Unit test for stubs of replicated objects.
+
+    <p>
+    A stub over a slow and a fast replica must send most calls to the fast
+    one. A stub over two live replicas and an address where nothing listens
+    must stop sending calls to that address after a few failures, and must
+    send calls to it again once a skeleton listens there and its backoff
+    period is over, even though the first probes of that address end
+    without outcome: a one-way call, and a call whose deadline expired
+    before it was sent.
+ */
+public class ReplicaTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking replicated stubs";
+
+    /** Number of calls made in each phase. */
+    private static final int    CALLS = 100;
+
+    /** Skeletons used in the test. */
+    private final Skeleton<?>[] skeletons = new Skeleton<?>[3];
+
+    /** Performs the test. */
+    @Override
+    protected void perform() throws Throwable
+    {
+        checkLatency();
+        checkEjection();
+    }
+
+    /** Checks that calls go to the replica with the lower latency. */
+    private void checkLatency() throws Throwable
+    {
+        CountingServer              slow = new CountingServer(20);
+        CountingServer              fast = new CountingServer(0);
+        EchoInterface               stub = Stub.createReplicated(
+            EchoInterface.class, start(0, slow, 0), start(1, fast, 0));
+
+        for(int call = 0; call < CALLS; ++call)
+        {
+            if(!"value".equals(stub.echo("value")))
+                throw new TestFailed("incorrect result from replicated stub");
+        }
+
+        if(slow.calls.get() > CALLS / 10)
+        {
+            throw new TestFailed(slow.calls.get() + " of " + CALLS +
+                                 " calls sent to slow replica");
+        }
+
+        stop();
+    }
+
+    /** Checks that a replica that cannot be reached is ejected, then probed
+        once it can be reached again. */
+    private void checkEjection() throws Throwable
+    {
+        int                         port;
+        try(ServerSocket free = new ServerSocket(0))
+        {
+            port = free.getLocalPort();
+        }
+
+        EchoInterface               stub = Stub.createReplicated(
+            EchoInterface.class,
+            start(0, new CountingServer(0), 0),
+            start(1, new CountingServer(0), 0),
+            new InetSocketAddress("127.0.0.1", port));
+
+        int                         failures = 0;
+        for(int call = 0; call < CALLS; ++call)
+        {
+            try
+            {
+                stub.echo("value");
+            }
+            catch(RMIException e)
+            {
+                ++failures;
+            }
+        }
+
+        if(failures == 0 || failures > ReplicaSet.FAILURES)
+        {
+            throw new TestFailed(failures + " calls failed, unreachable " +
+                                 "replica not ejected after " +
+                                 ReplicaSet.FAILURES + " failures");
+        }
+
+        // The replica comes back, and is probed once its backoff is over.
+        CountingServer              recovered = new CountingServer(0);
+        start(2, recovered, port);
+        Thread.sleep(ReplicaSet.MIN_BACKOFF / 1000000 + 100);
+
+        // The first probe gets no reply, and the second is never sent.
+        stub.post(0, null);
+
+        Deadline                    deadline =
+            Deadline.after(1, TimeUnit.MILLISECONDS);
+        try
+        {
+            Thread.sleep(20);
+
+            try
+            {
+                stub.echo("value");
+                throw new TestFailed("call made after deadline expired");
+            }
+            catch(CallTimeoutException e) { }
+        }
+        finally
+        {
+            deadline.close();
+        }
+
+        for(int call = 0; call < CALLS; ++call)
+            stub.echo("value");
+
+        if(recovered.calls.get() == 0)
+            throw new TestFailed("recovered replica not called");
+
+        stop();
+    }
+
+    /** Starts a skeleton, returning the address stubs reach it at. */
+    private InetSocketAddress start(int index, CountingServer server,
+                                    int port)
+        throws Throwable
+    {
+        Skeleton<EchoInterface>     skeleton = new Skeleton<EchoInterface>(
+            EchoInterface.class, server,
+            port == 0 ? null : new InetSocketAddress(port));
+        skeleton.start();
+        skeletons[index] = skeleton;
+
+        return new InetSocketAddress("127.0.0.1", skeleton.address.getPort());
+    }
+
+    /** Stops the skeletons. */
+    private void stop()
+    {
+        for(int index = 0; index < skeletons.length; ++index)
+        {
+            if(skeletons[index] != null)
+                skeletons[index].stop();
+            skeletons[index] = null;
+        }
+
+        ConnectionPool.getDefault().clear();
+    }
+
+    /** Stops the skeletons. */
+    @Override
+    protected void clean()
+    {
+        stop();
+    }
+
+    /** Echo server counting its calls, each of which takes a given time. */
+    private static class CountingServer extends EchoServer
+    {
+        /** Number of calls to <code>echo</code>. */
+        final AtomicInteger         calls = new AtomicInteger();
+        /** Time taken by each call, in milliseconds. */
+        private final long          millis;
+
+        CountingServer(long millis)
+        {
+            this.millis = millis;
+        }
+
+        @Override
+        public Object echo(Object value) throws RMIException
+        {
+            calls.incrementAndGet();
+            return delay(millis, value);
+        }
+    }
+}
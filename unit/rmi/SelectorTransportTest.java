@@ -0,0 +1,263 @@
+package rmi;
+
+import test.*;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/** Unit test for the selector-based skeleton transport.
+
+    <p>
+    Starts a skeleton with the <code>SELECTOR</code> transport and two event
+    loops, and checks that the event loop threads keep the Java virtual machine
+    running, then results, remote exceptions and concurrent calls from several
+    connections. The test then checks that stopping the skeleton closes
+    the listening socket and calls <code>stopped</code>. Finally, an exception
+    thrown in serving a connection must close that connection only and be
+    reported to <code>service_error</code>, and an event loop that exits on an
+    exception must stop the skeleton with that exception as cause.
+ */
+public class SelectorTransportTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking selector skeleton transport";
+
+    /** Skeleton used in the test. */
+    private TestSkeleton        skeleton;
+    /** Set when the skeleton calls <code>stopped</code>. */
+    private boolean             stopped = false;
+
+    /** Starts the skeleton. */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        skeleton = new TestSkeleton();
+        try
+        {
+            skeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+    }
+
+    /** Performs the test. */
+    @Override
+    protected void perform() throws Throwable
+    {
+        final EchoInterface stub = Stub.create(EchoInterface.class, skeleton);
+
+        for(Thread thread : Thread.getAllStackTraces().keySet())
+        {
+            if(thread.getName().startsWith("rmi-selector-") &&
+               thread.isDaemon())
+            {
+                throw new TestFailed("event loop thread is a daemon");
+            }
+        }
+
+        if(!"value".equals(stub.echo("value")))
+            throw new TestFailed("incorrect result from stub");
+
+        try
+        {
+            stub.fail("expected");
+            throw new TestFailed("remote exception not received");
+        }
+        catch(FileNotFoundException e) { }
+
+        // Send a result large enough to span several reads and writes.
+        byte[]      large = new byte[1 << 20];
+        large[large.length - 1] = 7;
+        byte[]      echoed = (byte[])stub.echo(large);
+        if(echoed.length != large.length || echoed[large.length - 1] != 7)
+            throw new TestFailed("large value corrupted");
+
+        Thread[]    threads = new Thread[16];
+        for(int index = 0; index < threads.length; ++index)
+        {
+            final int   value = index;
+            threads[index] = new Thread(() -> {
+                try
+                {
+                    if(!Integer.valueOf(value).equals(stub.delay(50, value)))
+                        failure(new TestFailed("incorrect concurrent result"));
+                }
+                catch(Throwable t)
+                {
+                    failure(new TestFailed("concurrent call failed", t));
+                }
+            });
+            threads[index].start();
+        }
+        for(Thread thread : threads)
+            thread.join();
+
+        skeleton.stop();
+
+        if(!stopped)
+            throw new TestFailed("stopped was not called");
+
+        Socket      socket = new Socket();
+        try
+        {
+            socket.connect(new InetSocketAddress("127.0.0.1",
+                                                 skeleton.address.getPort()));
+            throw new TestFailed("skeleton accepts connections after stop");
+        }
+        catch(java.io.IOException e) { }
+        finally
+        {
+            socket.close();
+        }
+
+        checkFaults();
+    }
+
+    /** Makes <code>service_error</code> throw while a connection is served,
+        once and then twice in a row, so that the second exception escapes
+        the event loop. */
+    private void checkFaults() throws Throwable
+    {
+        FaultySkeleton  faulty = new FaultySkeleton(1);
+        faulty.start();
+        try
+        {
+            corrupt(faulty);
+            if(!faulty.reported.await(10, TimeUnit.SECONDS))
+                throw new TestFailed("connection failure not reported");
+
+            EchoInterface   stub = Stub.create(EchoInterface.class, faulty);
+            if(!"value".equals(stub.echo("value")))
+                throw new TestFailed("skeleton not serving after failure");
+        }
+        finally
+        {
+            ConnectionPool.getDefault().clear();
+            faulty.stop();
+        }
+
+        faulty = new FaultySkeleton(2);
+        faulty.start();
+        try
+        {
+            corrupt(faulty);
+            if(!faulty.stopped.await(10, TimeUnit.SECONDS))
+                throw new TestFailed("skeleton not stopped on loop failure");
+            if(!(faulty.cause instanceof FaultError))
+                throw new TestFailed("loop failure not passed to stopped");
+        }
+        finally
+        {
+            faulty.stop();
+        }
+    }
+
+    /** Sends a malformed HELLO frame and waits for the connection to be
+        closed. */
+    private static void corrupt(Skeleton<?> skeleton) throws Throwable
+    {
+        Socket      socket = new Socket("127.0.0.1", skeleton.address.getPort());
+        try
+        {
+            socket.setSoTimeout(10000);
+            new Frame(Frame.HELLO, 0, new byte[2])
+                .write(new DataOutputStream(socket.getOutputStream()));
+
+            if(socket.getInputStream().read() >= 0)
+                throw new TestFailed("connection not closed");
+        }
+        finally
+        {
+            socket.close();
+        }
+    }
+
+    /** Stops the skeleton. */
+    @Override
+    protected void clean()
+    {
+        skeleton.stop();
+    }
+
+    /** Skeleton using the selector transport, which records calls to
+        <code>stopped</code> and fails the test on service errors. */
+    private class TestSkeleton extends Skeleton<EchoInterface>
+    {
+        TestSkeleton()
+        {
+            super(EchoInterface.class, new EchoServer(), null,
+                  new SkeletonConfig()
+                      .setTransport(SkeletonConfig.Transport.SELECTOR)
+                      .setIoThreads(2));
+        }
+
+        @Override
+        protected void stopped(Throwable cause)
+        {
+            stopped = true;
+        }
+
+        @Override
+        protected void service_error(RMIException e)
+        {
+            failure(new TestFailed("exception in service thread", e));
+        }
+    }
+
+    /** Error thrown by <code>FaultySkeleton</code>. */
+    private static class FaultError extends Error
+    {
+        FaultError()
+        {
+            super("injected fault");
+        }
+    }
+
+    /** Skeleton using the selector transport, whose
+        <code>service_error</code> throws a given number of times. */
+    private static class FaultySkeleton extends Skeleton<EchoInterface>
+    {
+        /** Number of calls to <code>service_error</code> still to throw. */
+        private int                         faults;
+        /** Counted down when <code>service_error</code> is passed a fault. */
+        final CountDownLatch                reported = new CountDownLatch(1);
+        /** Cause passed to <code>stopped</code>. */
+        volatile Throwable                  cause;
+        /** Counted down when the skeleton calls <code>stopped</code>. */
+        final CountDownLatch                stopped = new CountDownLatch(1);
+
+        FaultySkeleton(int faults)
+        {
+            super(EchoInterface.class, new EchoServer(), null,
+                  new SkeletonConfig()
+                      .setTransport(SkeletonConfig.Transport.SELECTOR)
+                      .setIoThreads(1));
+            this.faults = faults;
+        }
+
+        @Override
+        protected void stopped(Throwable cause)
+        {
+            this.cause = cause;
+            stopped.countDown();
+        }
+
+        @Override
+        protected synchronized void service_error(RMIException e)
+        {
+            if(e.getCause() instanceof FaultError)
+                reported.countDown();
+
+            if(faults > 0)
+            {
+                --faults;
+                throw new FaultError();
+            }
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package rmi;
+
+import test.*;
+
+import java.lang.management.ManagementFactory;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+/** Unit test for skeleton metrics.
+
+    <p>
+    Percentiles of a histogram of known durations must be within the bucket
+    precision, and durations recorded by many threads at once must all be
+    counted. Calls made through a stub must be counted per method, with their
+    errors, sizes and durations, and the metrics must be published through JMX
+    while the skeleton is running.
+ */
+public class SkeletonMetricsTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice =
+        "checking skeleton metrics";
+
+    /** Number of threads recording at the same time. */
+    private static final int    THREADS = 8;
+    /** Durations recorded by each thread. */
+    private static final int    RECORDS = 10000;
+
+    /** Performs the test. */
+    @Override
+    protected void perform() throws Throwable
+    {
+        checkHistogram();
+        checkConcurrentRecording();
+        checkSkeleton();
+    }
+
+    /** Checks the percentiles of a histogram of known durations. */
+    private void checkHistogram() throws TestFailed
+    {
+        LatencyHistogram    histogram = new LatencyHistogram();
+        if(histogram.getValueAtPercentile(50) != 0 || histogram.getMax() != 0)
+            throw new TestFailed("empty histogram not empty");
+
+        for(long value = 1; value <= 100000; ++value)
+            histogram.record(value);
+
+        if(histogram.getCount() != 100000 || histogram.getMax() != 100000)
+            throw new TestFailed("incorrect count or maximum");
+        if(Math.abs(histogram.getMean() - 50000.5) > 0.01)
+            throw new TestFailed("incorrect mean");
+
+        double[]            percentiles = {1, 50, 90, 99, 99.9};
+        for(double percentile : percentiles)
+        {
+            long    expected = (long)(percentile * 1000);
+            long    actual = histogram.getValueAtPercentile(percentile);
+            if(actual < expected || actual > expected * 1.04)
+            {
+                throw new TestFailed("percentile " + percentile + " is " +
+                                     actual + ", expected " + expected);
+            }
+        }
+
+        if(histogram.getValueAtPercentile(100) != 100000)
+            throw new TestFailed("maximum percentile is not the maximum");
+
+        // Short durations are counted exactly.
+        LatencyHistogram    exact = new LatencyHistogram();
+        exact.record(3);
+        exact.record(40);
+        if(exact.getValueAtPercentile(50) != 3 ||
+           exact.getValueAtPercentile(100) != 40)
+        {
+            throw new TestFailed("short durations not counted exactly");
+        }
+
+        // Very long durations fall in the last bucket, the maximum is exact.
+        exact.record(Long.MAX_VALUE);
+        if(exact.getMax() != Long.MAX_VALUE ||
+           exact.getValueAtPercentile(100) <= 40)
+        {
+            throw new TestFailed("long duration not recorded");
+        }
+    }
+
+    /** Records durations from several threads at once. */
+    private void checkConcurrentRecording() throws Throwable
+    {
+        LatencyHistogram    histogram = new LatencyHistogram();
+        Thread[]            threads = new Thread[THREADS];
+
+        for(int index = 0; index < THREADS; ++index)
+        {
+            threads[index] = new Thread(() -> {
+                for(int record = 0; record < RECORDS; ++record)
+                    histogram.record(record);
+            });
+            threads[index].start();
+        }
+
+        for(Thread thread : threads)
+            thread.join();
+
+        if(histogram.getCount() != THREADS * RECORDS ||
+           histogram.getValueAtPercentile(100) != RECORDS - 1)
+        {
+            throw new TestFailed("durations lost by concurrent recording");
+        }
+    }
+
+    /** Checks the metrics of calls made through a stub. */
+    private void checkSkeleton() throws Throwable
+    {
+        Skeleton<EchoInterface>     skeleton =
+            new Skeleton<EchoInterface>(EchoInterface.class, new EchoServer());
+        SkeletonMetrics             metrics = skeleton.metrics();
+        MBeanServer                 server =
+            ManagementFactory.getPlatformMBeanServer();
+        ObjectName                  name;
+
+        skeleton.start();
+        try
+        {
+            EchoInterface   stub = Stub.create(EchoInterface.class, skeleton);
+
+            for(int index = 0; index < 10; ++index)
+                stub.echo("value " + index);
+
+            for(int index = 0; index < 3; ++index)
+            {
+                try
+                {
+                    stub.fail("missing");
+                }
+                catch(Exception e) { }
+            }
+
+            stub.delay(50, null);
+
+            SkeletonMetrics.MethodMetrics   echo =
+                metrics.method(EchoInterface.class.getMethod("echo",
+                                                             Object.class));
+            SkeletonMetrics.MethodMetrics   fail =
+                metrics.method(EchoInterface.class.getMethod("fail",
+                                                             String.class));
+            SkeletonMetrics.MethodMetrics   delay =
+                metrics.method(EchoInterface.class.getMethod("delay",
+                                                             long.class,
+                                                             Object.class));
+
+            if(echo.getCalls() != 10 || echo.getErrors() != 0)
+                throw new TestFailed("incorrect call count for echo");
+            if(fail.getCalls() != 3 || fail.getErrors() != 3)
+                throw new TestFailed("incorrect error count for fail");
+            if(echo.getBytesIn() <= 0 || echo.getBytesOut() <= 0)
+                throw new TestFailed("bytes not counted");
+            if(echo.getDeserializeLatency().getCount() != 10 ||
+               echo.getInvokeLatency().getCount() != 10 ||
+               echo.getSerializeLatency().getCount() != 10)
+            {
+                throw new TestFailed("incorrect number of durations");
+            }
+            if(delay.getInvokeLatency().getMax() < 50000000L)
+                throw new TestFailed("invocation time not measured");
+            if(metrics.getCalls() != 14 || metrics.getErrors() != 3)
+                throw new TestFailed("incorrect totals");
+
+            // The same metrics are published through JMX.
+            name = new ObjectName("rmi:type=Skeleton,interface=" +
+                                  EchoInterface.class.getName() + ",port=" +
+                                  skeleton.address.getPort());
+            if(!server.isRegistered(name))
+                throw new TestFailed("metrics MBean not registered");
+
+            if(!Long.valueOf(14).equals(server.getAttribute(name, "Calls")))
+                throw new TestFailed("incorrect call count through JMX");
+
+            CompositeData[] methods =
+                (CompositeData[])server.getAttribute(name, "Methods");
+            if(methods.length != metrics.methods().size())
+                throw new TestFailed("incorrect method list through JMX");
+
+            server.invoke(name, "reset", null, null);
+            if(metrics.getCalls() != 0 ||
+               echo.getInvokeLatency().getCount() != 0)
+            {
+                throw new TestFailed("metrics not reset");
+            }
+        }
+        finally
+        {
+            skeleton.stop();
+        }
+
+        if(server.isRegistered(name))
+            throw new TestFailed("metrics MBean not unregistered");
+    }
+}
@@ -0,0 +1,138 @@
+package rmi;
+
+import test.*;
+
+import java.net.InetSocketAddress;
+
+/** Unit test for stub metrics.
+
+    <p>
+    Calls are made through a stub and an asynchronous stub, and must be counted
+    in the registry under the interface and address of the skeleton, with their
+    timings and sizes. Calls that throw, calls to a stopped skeleton, and calls
+    whose arguments cannot be serialized must be counted as failures with the
+    right cause.
+ */
+public class StubMetricsTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice =
+        "checking stub metrics";
+
+    /** Skeleton used in the test. */
+    private Skeleton<EchoInterface> skeleton;
+
+    /** Starts the skeleton. */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        skeleton = new Skeleton<EchoInterface>(EchoInterface.class,
+                                               new EchoServer());
+        try
+        {
+            skeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+    }
+
+    /** Performs the test. */
+    @Override
+    protected void perform() throws Throwable
+    {
+        InetSocketAddress           address =
+            new InetSocketAddress(skeleton.address.getHostName(),
+                                  skeleton.address.getPort());
+        EchoInterface               stub =
+            Stub.create(EchoInterface.class, address);
+        AsyncStub<EchoInterface>    async =
+            Stub.createAsync(EchoInterface.class, address);
+
+        for(int index = 0; index < 5; ++index)
+            stub.echo(new byte[1000]);
+
+        async.call(s -> s.echo("value")).get();
+        stub.delay(50, null);
+
+        try
+        {
+            stub.fail("missing");
+        }
+        catch(Exception e) { }
+
+        try
+        {
+            stub.echo(new Object());
+            throw new TestFailed("unserializable argument accepted");
+        }
+        catch(RMIException e) { }
+
+        StubMetrics                 metrics =
+            StubMetrics.get(EchoInterface.class, address);
+        if(metrics == null || !StubMetrics.all().contains(metrics))
+            throw new TestFailed("stub metrics not registered");
+
+        StubMetrics.MethodMetrics   echo =
+            metrics.method(EchoInterface.class.getMethod("echo",
+                                                         Object.class));
+        StubMetrics.MethodMetrics   delay =
+            metrics.method(EchoInterface.class.getMethod("delay", long.class,
+                                                         Object.class));
+        StubMetrics.MethodMetrics   fail =
+            metrics.method(EchoInterface.class.getMethod("fail",
+                                                         String.class));
+
+        if(echo.getCalls() != 6)
+            throw new TestFailed("incorrect number of calls sent");
+        if(echo.getBytesSent() < 5000 || echo.getBytesReceived() < 5000)
+            throw new TestFailed("bytes not counted");
+        if(echo.getConnectLatency().getCount() != 7 ||
+           echo.getSerializeLatency().getCount() != 6 ||
+           echo.getFirstByteLatency().getCount() != 6 ||
+           echo.getDeserializeLatency().getCount() != 6)
+        {
+            throw new TestFailed("incorrect number of durations");
+        }
+        if(echo.getFailures(StubMetrics.Failure.SERIALIZE) != 1 ||
+           echo.getFailures() != 1)
+        {
+            throw new TestFailed("serialization failure not counted");
+        }
+
+        if(delay.getFirstByteLatency().getMax() < 50000000L)
+            throw new TestFailed("time to first byte not measured");
+
+        if(fail.getFailures(StubMetrics.Failure.REMOTE) != 1)
+            throw new TestFailed("remote exception not counted");
+
+        // Calls to a stopped skeleton fail to connect.
+        skeleton.stop();
+        ConnectionPool.getDefault().clear();
+
+        try
+        {
+            stub.echo(null);
+            throw new TestFailed("call to stopped skeleton succeeded");
+        }
+        catch(RMIException e) { }
+
+        if(echo.getFailures(StubMetrics.Failure.CONNECT) != 1)
+            throw new TestFailed("connection failure not counted");
+
+        metrics.reset();
+        if(echo.getCalls() != 0 || echo.getFailures() != 0 ||
+           echo.getConnectLatency().getCount() != 0)
+        {
+            throw new TestFailed("metrics not reset");
+        }
+    }
+
+    /** Stops the skeleton. */
+    @Override
+    protected void clean()
+    {
+        skeleton.stop();
+    }
+}